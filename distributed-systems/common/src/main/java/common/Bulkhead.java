@@ -0,0 +1,73 @@
+package common;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the calls in flight to one service, so a slow service cannot tie up every pending request
+ * slot of the caller. Calls beyond the limit are rejected rather than queued. Lock-free.
+ */
+public class Bulkhead {
+    private final String name;
+    private final int maxConcurrentCalls;
+    private final AtomicInteger inFlight = new AtomicInteger(0);
+    private final LongAdder rejected = new LongAdder();
+    
+    /**
+     * Creates a bulkhead.
+     * @param name Name for logging purposes
+     * @param maxConcurrentCalls Calls allowed in flight at once
+     */
+    public Bulkhead(String name, int maxConcurrentCalls) {
+        if (maxConcurrentCalls <= 0) {
+            throw new IllegalArgumentException("Bulkhead size must be positive: " + maxConcurrentCalls);
+        }
+        this.name = name;
+        this.maxConcurrentCalls = maxConcurrentCalls;
+    }
+    
+    /**
+     * Takes a slot for a call.
+     * @return true if the call may go ahead; it must then call {@link #release()} once
+     */
+    public boolean tryAcquire() {
+        if (inFlight.incrementAndGet() > maxConcurrentCalls) {
+            inFlight.decrementAndGet();
+            rejected.increment();
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Gives back the slot of a finished call.
+     */
+    public void release() {
+        inFlight.decrementAndGet();
+    }
+    
+    /**
+     * Gets the number of calls in flight.
+     * @return Calls in flight
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+    
+    /**
+     * Gets the number of calls rejected because the bulkhead was full.
+     * @return Rejected calls
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+    
+    /**
+     * Gets bulkhead statistics.
+     * @return Statistics string
+     */
+    public String getStats() {
+        return String.format("Bulkhead[%s]: InFlight=%d/%d, Rejected=%d",
+                             name, inFlight.get(), maxConcurrentCalls, rejected.sum());
+    }
+}
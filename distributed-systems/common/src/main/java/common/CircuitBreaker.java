@@ -1,6 +1,11 @@
 package common;
 
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
@@ -9,6 +14,12 @@ import java.util.function.Supplier;
 /**
  * Circuit breaker pattern implementation to prevent cascading failures.
  * Provides protection against repeated calls to failing services.
+ * In the sliding-window modes the circuit opens when the failure rate or the slow-call rate over
+ * the last N seconds or calls reaches its threshold, once the window holds a minimum number of
+ * calls. The consecutive mode opens after a number of failures in a row.
+ * After the timeout a limited number of concurrent probe calls test the service in HALF_OPEN;
+ * other callers fail fast. Once closed again, traffic can be ramped up in steps, such as 10%,
+ * 50% and then all calls, so a service that just recovered is not flooded by the backlog.
  */
 public class CircuitBreaker {
     
@@ -21,6 +32,43 @@ public class CircuitBreaker {
         HALF_OPEN  // Testing if service recovered
     }
     
+    /**
+     * What the circuit decides on.
+     */
+    public enum WindowType {
+        CONSECUTIVE, // Failures in a row
+        TIME_BASED,  // Rates over the last N seconds
+        COUNT_BASED; // Rates over the last N calls
+        
+        /**
+         * Parses a window type name, ignoring case.
+         * @param name "consecutive", "time_based" or "count_based"
+         * @return The window type
+         */
+        public static WindowType parse(String name) {
+            try {
+                return valueOf(name.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown circuit breaker window type: " + name);
+            }
+        }
+    }
+    
+    // Results of acquirePermission
+    static final int PERMITTED = 0;
+    static final int PERMITTED_PROBE = 1;
+    static final int REJECTED_OPEN = 2;
+    static final int REJECTED_HALF_OPEN = 3;
+    static final int REJECTED_RAMP_UP = 4;
+    
+    private final WindowType windowType;
+    private final SlidingWindowMetrics metrics;
+    private final int minimumCalls;
+    private final float failureRateThreshold;
+    private final float slowCallRateThreshold;
+    private final long slowCallDurationMs;
+    // Clock tick the window was last checked in; one check per tick is enough under a flood of failures
+    private volatile long lastEvaluation;
     private final int failureThreshold;
     private final long timeoutMs;
     private final int successThreshold;
@@ -28,6 +76,14 @@ public class CircuitBreaker {
     private final AtomicInteger successCount = new AtomicInteger(0);
     private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
     private final AtomicLong lastFailureTime = new AtomicLong(0);
+    // Probe calls allowed at once in HALF_OPEN, and those currently running
+    private volatile int halfOpenPermits;
+    private final AtomicInteger halfOpenInFlight = new AtomicInteger(0);
+    // Percentage of calls admitted in each ramp-up step after closing; empty for no ramp-up
+    private volatile int[] rampUpPercentages = new int[0];
+    private volatile long rampUpStepMs;
+    // When the current ramp-up started, 0 when not ramping up
+    private final AtomicLong rampUpStart = new AtomicLong(0);
     private final String name;
     
     /**
@@ -47,9 +103,123 @@ public class CircuitBreaker {
      */
     public CircuitBreaker(String name, int failureThreshold, long timeoutMs, int successThreshold) {
         this.name = name;
+        this.windowType = WindowType.CONSECUTIVE;
+        this.metrics = null;
+        this.minimumCalls = 0;
+        this.failureRateThreshold = 0;
+        this.slowCallRateThreshold = 0;
+        this.slowCallDurationMs = 0;
         this.failureThreshold = failureThreshold;
         this.timeoutMs = timeoutMs;
         this.successThreshold = successThreshold;
+        this.halfOpenPermits = successThreshold;
+    }
+    
+    /**
+     * Creates a circuit breaker that decides on rates over a sliding window.
+     * @param name Name for logging purposes
+     * @param windowType TIME_BASED or COUNT_BASED
+     * @param windowSize Window length in seconds or calls
+     * @param minimumCalls Calls the window must hold before the circuit can open
+     * @param failureRateThreshold Failure rate in percent that opens the circuit
+     * @param slowCallRateThreshold Slow-call rate in percent that opens the circuit; above 100 disables it
+     * @param slowCallDurationMs Duration from which a call counts as slow
+     * @param timeoutMs Time to wait before trying again when circuit is open
+     * @param successThreshold Number of successes needed to close circuit from half-open
+     */
+    public CircuitBreaker(String name, WindowType windowType, int windowSize, int minimumCalls,
+                          float failureRateThreshold, float slowCallRateThreshold, long slowCallDurationMs,
+                          long timeoutMs, int successThreshold) {
+        if (windowType == WindowType.CONSECUTIVE) {
+            throw new IllegalArgumentException("Use the failure threshold constructor for consecutive failures");
+        }
+        if (failureRateThreshold <= 0 || slowCallRateThreshold <= 0) {
+            throw new IllegalArgumentException("Rate thresholds must be positive");
+        }
+        this.name = name;
+        this.windowType = windowType;
+        this.metrics = new SlidingWindowMetrics(windowType == WindowType.TIME_BASED, windowSize);
+        this.minimumCalls = Math.max(1, minimumCalls);
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.slowCallDurationMs = slowCallDurationMs;
+        this.failureThreshold = 0;
+        this.timeoutMs = timeoutMs;
+        this.successThreshold = successThreshold;
+        this.halfOpenPermits = successThreshold;
+    }
+    
+    /**
+     * Creates a circuit breaker from circuit.breaker.* properties.
+     * @param name Name for logging purposes
+     * @param config Configuration properties
+     * @return The circuit breaker
+     */
+    public static CircuitBreaker fromConfig(String name, Properties config) {
+        WindowType windowType = WindowType.parse(config.getProperty("circuit.breaker.window.type", "time_based"));
+        long timeoutMs = Long.parseLong(config.getProperty("circuit.breaker.timeout.ms", "30000"));
+        int successThreshold = Integer.parseInt(config.getProperty("circuit.breaker.success.threshold", "3"));
+        CircuitBreaker circuitBreaker;
+        if (windowType == WindowType.CONSECUTIVE) {
+            circuitBreaker = new CircuitBreaker(name,
+                Integer.parseInt(config.getProperty("circuit.breaker.failure.threshold", "5")),
+                timeoutMs, successThreshold);
+        } else {
+            circuitBreaker = new CircuitBreaker(name, windowType,
+                Integer.parseInt(config.getProperty("circuit.breaker.window.size", "10")),
+                Integer.parseInt(config.getProperty("circuit.breaker.minimum.calls", "20")),
+                Float.parseFloat(config.getProperty("circuit.breaker.failure.rate.threshold", "50")),
+                Float.parseFloat(config.getProperty("circuit.breaker.slow.call.rate.threshold", "100")),
+                Long.parseLong(config.getProperty("circuit.breaker.slow.call.duration.ms", "5000")),
+                timeoutMs, successThreshold);
+        }
+        circuitBreaker.configureRecovery(
+            Integer.parseInt(config.getProperty("circuit.breaker.half.open.permits", String.valueOf(successThreshold))),
+            parsePercentages(config.getProperty("circuit.breaker.ramp.up.percentages", "")),
+            Long.parseLong(config.getProperty("circuit.breaker.ramp.up.step.ms", "0")));
+        return circuitBreaker;
+    }
+    
+    /**
+     * Sets how the circuit recovers after it opened. Meant to be called before the breaker is used.
+     * @param halfOpenPermits Probe calls allowed at once in HALF_OPEN
+     * @param rampUpPercentages Percentage of calls admitted in each ramp-up step after closing,
+     *                          empty to admit all calls right away
+     * @param rampUpStepMs Duration of each ramp-up step
+     */
+    public void configureRecovery(int halfOpenPermits, int[] rampUpPercentages, long rampUpStepMs) {
+        if (halfOpenPermits <= 0) {
+            throw new IllegalArgumentException("Half-open permits must be positive: " + halfOpenPermits);
+        }
+        for (int percentage : rampUpPercentages) {
+            if (percentage <= 0 || percentage > 100) {
+                throw new IllegalArgumentException("Ramp-up percentages must be between 1 and 100: " + percentage);
+            }
+        }
+        if (rampUpPercentages.length > 0 && rampUpStepMs <= 0) {
+            throw new IllegalArgumentException("Ramp-up step duration must be positive: " + rampUpStepMs);
+        }
+        this.halfOpenPermits = halfOpenPermits;
+        this.rampUpPercentages = rampUpPercentages.clone();
+        this.rampUpStepMs = rampUpStepMs;
+    }
+    
+    /**
+     * Parses a comma-separated list of percentages.
+     * @param value List such as "10,50", may be empty
+     * @return The percentages
+     */
+    private static int[] parsePercentages(String value) {
+        String trimmed = value.trim();
+        if (trimmed.isEmpty()) {
+            return new int[0];
+        }
+        String[] parts = trimmed.split(",");
+        int[] percentages = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            percentages[i] = Integer.parseInt(parts[i].trim());
+        }
+        return percentages;
     }
     
     /**
@@ -59,58 +229,170 @@ public class CircuitBreaker {
      * @return CompletableFuture with the operation result
      */
     public <T> CompletableFuture<T> execute(Supplier<CompletableFuture<T>> operation, String operationName) {
-        State currentState = state.get();
-        
-        if (currentState == State.OPEN) {
-            if (shouldAttemptReset()) {
-                return attemptReset(operation, operationName);
-            } else {
-                return CompletableFuture.failedFuture(
-                    new RuntimeException("Circuit breaker is OPEN for " + name + " - " + operationName)
-                );
-            }
+        return execute(operation, operationName, 0);
+    }
+    
+    /**
+     * Executes an operation through the circuit breaker unless its deadline has passed. An expired
+     * call fails with a TimeoutException without being made, recorded or using a probe permit.
+     * @param operation The operation to execute
+     * @param operationName Name for logging purposes
+     * @param deadlineMillis Epoch milliseconds after which the call is not made, or 0 for none
+     * @return CompletableFuture with the operation result
+     */
+    public <T> CompletableFuture<T> execute(Supplier<CompletableFuture<T>> operation, String operationName,
+                                            long deadlineMillis) {
+        if (deadlineMillis > 0 && CoarseClock.millis() >= deadlineMillis) {
+            return CompletableFuture.failedFuture(
+                new TimeoutException("Deadline passed before calling " + name + " - " + operationName)
+            );
         }
-        
-        return executeOperation(operation, operationName);
+        int permission = acquirePermission();
+        if (permission >= REJECTED_OPEN) {
+            return CompletableFuture.failedFuture(rejection(permission, operationName));
+        }
+        return executeOperation(operation, operationName, permission);
     }
     
     /**
      * Executes the operation and handles the result.
      * @param operation The operation to execute
      * @param operationName Name for logging purposes
+     * @param permission Result of {@link #acquirePermission()}
      * @return CompletableFuture with the operation result
      */
-    private <T> CompletableFuture<T> executeOperation(Supplier<CompletableFuture<T>> operation, String operationName) {
+    private <T> CompletableFuture<T> executeOperation(Supplier<CompletableFuture<T>> operation, String operationName,
+                                                      int permission) {
+        long startTime = callStarted();
         try {
-            return operation.get()
-                .whenComplete((result, exception) -> {
-                    if (exception != null) {
-                        onFailure(operationName, exception);
-                    } else {
-                        onSuccess(operationName);
-                    }
-                });
+            // The caller gets the operation's own future, so cancelling it reaches the operation
+            CompletableFuture<T> future = operation.get();
+            future.whenComplete((result, exception) -> onCallComplete(permission, operationName, exception, startTime));
+            return future;
         } catch (Exception e) {
-            onFailure(operationName, e);
+            onCallComplete(permission, operationName, e, startTime);
             return CompletableFuture.failedFuture(e);
         }
     }
     
     /**
-     * Attempts to reset the circuit breaker from OPEN to HALF_OPEN state.
-     * @param operation The operation to execute
+     * Decides whether a call may go through now. A permitted call must be reported to
+     * {@link #onCallComplete} exactly once.
+     * @return PERMITTED, PERMITTED_PROBE, or one of the REJECTED_ codes
+     */
+    int acquirePermission() {
+        State currentState = state.get();
+        
+        if (currentState == State.OPEN) {
+            if (!shouldAttemptReset()) {
+                return REJECTED_OPEN;
+            }
+            attemptReset();
+            currentState = state.get();
+            if (currentState == State.OPEN) {
+                // A probe already failed again
+                return REJECTED_OPEN;
+            }
+        }
+        
+        if (currentState == State.HALF_OPEN) {
+            if (halfOpenInFlight.incrementAndGet() > halfOpenPermits) {
+                halfOpenInFlight.decrementAndGet();
+                return REJECTED_HALF_OPEN;
+            }
+            return PERMITTED_PROBE;
+        }
+        if (rampUpStart.get() != 0 && !admitDuringRampUp()) {
+            return REJECTED_RAMP_UP;
+        }
+        return PERMITTED;
+    }
+    
+    /**
+     * Creates the exception a rejected call fails with. It is an IllegalStateException, so retry
+     * managers do not retry it.
+     * @param permission One of the REJECTED_ codes
      * @param operationName Name for logging purposes
-     * @return CompletableFuture with the operation result
+     * @return The exception
      */
-    private <T> CompletableFuture<T> attemptReset(Supplier<CompletableFuture<T>> operation, String operationName) {
+    RuntimeException rejection(int permission, String operationName) {
+        switch (permission) {
+            case REJECTED_HALF_OPEN:
+                return new IllegalStateException("Circuit breaker is HALF_OPEN for " + name + " - " + operationName +
+                                                 ": all " + halfOpenPermits + " probe permits in use");
+            case REJECTED_RAMP_UP:
+                return new IllegalStateException("Circuit breaker is ramping up for " + name + " - " + operationName);
+            default:
+                return new IllegalStateException("Circuit breaker is OPEN for " + name + " - " + operationName);
+        }
+    }
+    
+    /**
+     * Gets the start time to pass to {@link #onCallComplete} for a call starting now.
+     * @return Start time, from {@link CoarseClock}
+     */
+    long callStarted() {
+        return metrics != null ? CoarseClock.millis() : 0;
+    }
+    
+    /**
+     * Records the outcome of a permitted call and gives back its probe permit.
+     * @param permission Result of {@link #acquirePermission()} for the call
+     * @param operationName Name for logging purposes
+     * @param exception The failure, or null if the call succeeded
+     * @param startTime Result of {@link #callStarted()} when the call started
+     */
+    void onCallComplete(int permission, String operationName, Throwable exception, long startTime) {
+        if (exception instanceof CancellationException) {
+            // The caller gave up; that says nothing about the service
+        } else if (exception != null) {
+            onFailure(operationName, exception, startTime);
+        } else {
+            onSuccess(operationName, startTime);
+        }
+        releasePermission(permission);
+    }
+    
+    /**
+     * Gives back the permission of a call that was not made after all, without recording an outcome.
+     * @param permission Result of {@link #acquirePermission()} for the call
+     */
+    void releasePermission(int permission) {
+        if (permission == PERMITTED_PROBE) {
+            halfOpenInFlight.decrementAndGet();
+        }
+    }
+    
+    /**
+     * Attempts to reset the circuit breaker from OPEN to HALF_OPEN state.
+     */
+    private void attemptReset() {
         if (state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
             successCount.set(0);
-            System.out.println("Circuit breaker for " + name + " moved to HALF_OPEN state");
-            return executeOperation(operation, operationName);
-        } else {
-            // Another thread already moved to HALF_OPEN
-            return executeOperation(operation, operationName);
+            System.out.println("Circuit breaker for " + name + " moved to HALF_OPEN state with " +
+                             halfOpenPermits + " probe permits");
         }
+        // Otherwise another thread already moved to HALF_OPEN
+    }
+    
+    /**
+     * Decides whether a call is admitted while the circuit ramps up after closing.
+     * @return true if the call may go through
+     */
+    private boolean admitDuringRampUp() {
+        long start = rampUpStart.get();
+        if (start == 0) {
+            return true;
+        }
+        int[] percentages = rampUpPercentages;
+        long step = (CoarseClock.millis() - start) / rampUpStepMs;
+        if (step >= percentages.length) {
+            if (rampUpStart.compareAndSet(start, 0)) {
+                System.out.println("Circuit breaker for " + name + " finished ramping up");
+            }
+            return true;
+        }
+        return ThreadLocalRandom.current().nextInt(100) < percentages[(int) step];
     }
     
     /**
@@ -118,22 +400,39 @@ public class CircuitBreaker {
      * @return true if reset should be attempted
      */
     private boolean shouldAttemptReset() {
-        return System.currentTimeMillis() - lastFailureTime.get() > timeoutMs;
+        return CoarseClock.millis() - lastFailureTime.get() > timeoutMs;
     }
     
     /**
      * Handles successful operation execution.
      * @param operationName Name for logging purposes
+     * @param startTime When the operation started, from {@link CoarseClock}
      */
-    private void onSuccess(String operationName) {
-        failureCount.set(0);
+    private void onSuccess(String operationName, long startTime) {
+        if (metrics != null) {
+            long now = CoarseClock.millis();
+            boolean slow = now - startTime >= slowCallDurationMs;
+            metrics.record(now, false, slow);
+            if (slow && state.get() == State.CLOSED) {
+                openIfThresholdsExceeded(now);
+            }
+        } else {
+            failureCount.set(0);
+        }
         
         if (state.get() == State.HALF_OPEN) {
             int currentSuccessCount = successCount.incrementAndGet();
-            if (currentSuccessCount >= successThreshold) {
-                state.set(State.CLOSED);
+            if (currentSuccessCount >= successThreshold && state.compareAndSet(State.HALF_OPEN, State.CLOSED)) {
+                if (metrics != null) {
+                    // Start the closed state without the failures that opened the circuit
+                    metrics.reset();
+                }
+                if (rampUpPercentages.length > 0) {
+                    rampUpStart.set(Math.max(1, CoarseClock.millis()));
+                }
                 System.out.println("Circuit breaker for " + name + " moved to CLOSED state after " + 
-                                 currentSuccessCount + " successful operations");
+                                 currentSuccessCount + " successful operations" +
+                                 (rampUpPercentages.length > 0 ? ", ramping up" : ""));
             }
         }
     }
@@ -142,10 +441,28 @@ public class CircuitBreaker {
      * Handles failed operation execution.
      * @param operationName Name for logging purposes
      * @param exception The exception that occurred
+     * @param startTime When the operation started, from {@link CoarseClock}
      */
-    private void onFailure(String operationName, Throwable exception) {
+    private void onFailure(String operationName, Throwable exception, long startTime) {
+        if (metrics != null) {
+            long now = CoarseClock.millis();
+            metrics.record(now, true, now - startTime >= slowCallDurationMs);
+            State currentState = state.get();
+            if (currentState == State.HALF_OPEN) {
+                // The service is not back yet
+                lastFailureTime.set(now);
+                if (state.compareAndSet(State.HALF_OPEN, State.OPEN)) {
+                    System.out.println("Circuit breaker for " + name + " moved back to OPEN state: " +
+                                     operationName + " failed: " + exception.getMessage());
+                }
+            } else if (currentState == State.CLOSED) {
+                openIfThresholdsExceeded(now);
+            }
+            return;
+        }
+        
         int currentFailureCount = failureCount.incrementAndGet();
-        lastFailureTime.set(System.currentTimeMillis());
+        lastFailureTime.set(CoarseClock.millis());
         
         System.out.println("Circuit breaker for " + name + " recorded failure " + currentFailureCount + 
                          "/" + failureThreshold + " for operation " + operationName + 
@@ -158,6 +475,53 @@ public class CircuitBreaker {
         }
     }
     
+    /**
+     * Opens a closed circuit if the window's failure or slow-call rate reached its threshold.
+     * @param now Current time, from {@link CoarseClock}
+     */
+    private void openIfThresholdsExceeded(long now) {
+        if (now == lastEvaluation) {
+            return;
+        }
+        lastEvaluation = now;
+        if (!metrics.exceedsThresholds(now, minimumCalls, failureRateThreshold, slowCallRateThreshold)) {
+            return;
+        }
+        // Set before the state, so no thread sees OPEN with an old opening time
+        lastFailureTime.set(now);
+        if (state.compareAndSet(State.CLOSED, State.OPEN)) {
+            System.out.println("Circuit breaker for " + name + " moved to OPEN state: " +
+                             String.format("%d calls, %.1f%% failed, %.1f%% slow in the window",
+                                           metrics.getCalls(now), getFailureRate(), getSlowCallRate()));
+        }
+    }
+    
+    /**
+     * Gets the failure rate over the sliding window.
+     * @return Percentage of failed calls, 0 in consecutive mode or for an empty window
+     */
+    public float getFailureRate() {
+        if (metrics == null) {
+            return 0;
+        }
+        long now = CoarseClock.millis();
+        long calls = metrics.getCalls(now);
+        return calls == 0 ? 0 : metrics.getFailures(now) * 100f / calls;
+    }
+    
+    /**
+     * Gets the slow-call rate over the sliding window.
+     * @return Percentage of slow calls, 0 in consecutive mode or for an empty window
+     */
+    public float getSlowCallRate() {
+        if (metrics == null) {
+            return 0;
+        }
+        long now = CoarseClock.millis();
+        long calls = metrics.getCalls(now);
+        return calls == 0 ? 0 : metrics.getSlowCalls(now) * 100f / calls;
+    }
+    
     /**
      * Gets the current state of the circuit breaker.
      * @return Current state
@@ -168,10 +532,10 @@ public class CircuitBreaker {
     
     /**
      * Gets the current failure count.
-     * @return Current failure count
+     * @return Consecutive failures, or failures in the window in the sliding-window modes
      */
     public int getFailureCount() { 
-        return failureCount.get(); 
+        return metrics != null ? (int) metrics.getFailures(CoarseClock.millis()) : failureCount.get(); 
     }
     
     /**
@@ -182,6 +546,14 @@ public class CircuitBreaker {
         return successCount.get(); 
     }
     
+    /**
+     * Checks whether the circuit closed recently and still admits only part of the calls.
+     * @return true while ramping up
+     */
+    public boolean isRampingUp() {
+        return rampUpStart.get() != 0 && state.get() == State.CLOSED;
+    }
+    
     /**
      * Gets the name of the circuit breaker.
      * @return Circuit breaker name
@@ -199,6 +571,10 @@ public class CircuitBreaker {
         failureCount.set(0);
         successCount.set(0);
         lastFailureTime.set(0);
+        rampUpStart.set(0);
+        if (metrics != null) {
+            metrics.reset();
+        }
         System.out.println("Circuit breaker for " + name + " manually reset to CLOSED state");
     }
     
@@ -207,6 +583,13 @@ public class CircuitBreaker {
      * @return Statistics string
      */
     public String getStats() {
+        if (metrics != null) {
+            return String.format("CircuitBreaker[%s]: State=%s, Window=%s, Calls=%d, FailureRate=%.1f%%/%.1f%%, " +
+                               "SlowCallRate=%.1f%%/%.1f%%, Successes=%d/%d",
+                               name, state.get(), windowType, metrics.getCalls(CoarseClock.millis()),
+                               getFailureRate(), failureRateThreshold, getSlowCallRate(), slowCallRateThreshold,
+                               successCount.get(), successThreshold);
+        }
         return String.format("CircuitBreaker[%s]: State=%s, Failures=%d/%d, Successes=%d/%d", 
                            name, state.get(), failureCount.get(), failureThreshold, 
                            successCount.get(), successThreshold);
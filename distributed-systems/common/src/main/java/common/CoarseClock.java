@@ -0,0 +1,41 @@
+package common;
+
+/**
+ * Wall clock with a resolution of a few milliseconds that costs a volatile read instead of a
+ * {@link System#currentTimeMillis()} call. A daemon thread refreshes the time every tick.
+ * Meant for hot paths that only need coarse timestamps, such as circuit breaker windows and
+ * slow-call detection.
+ */
+public final class CoarseClock {
+    private static final long TICK_MS = 2;
+    
+    private static volatile long now = System.currentTimeMillis();
+    
+    static {
+        Thread ticker = new Thread(CoarseClock::tick, "CoarseClock");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+    
+    private CoarseClock() {
+    }
+    
+    /**
+     * Gets the current time.
+     * @return Milliseconds since the epoch, at most one tick behind
+     */
+    public static long millis() {
+        return now;
+    }
+    
+    private static void tick() {
+        while (true) {
+            try {
+                Thread.sleep(TICK_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            now = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Holds an immutable snapshot parsed from a properties file and swaps in a new one when the file changes.
+ * The file is read once at construction; readers call {@link #get()} and never touch the file system.
+ * After {@link #start()} a daemon thread watches the file's directory with a {@link WatchService} and
+ * re-parses the file on every change. A file that fails to load or parse keeps the previous snapshot.
+ * @param <T> Type of the config snapshot
+ */
+public class ConfigWatcher<T> implements AutoCloseable {
+    // Editors often write a file in several steps; wait for the burst of events to settle
+    private static final long SETTLE_MS = 100;
+    
+    private final Path file;
+    private final Function<Properties, T> parser;
+    private final AtomicReference<T> current = new AtomicReference<>();
+    private final List<Consumer<T>> listeners = new CopyOnWriteArrayList<>();
+    private volatile WatchService watchService;
+    private Thread watcherThread;
+    
+    /**
+     * Creates a watcher and loads the initial snapshot.
+     * @param file The properties file
+     * @param defaults Values used if the file cannot be read at startup
+     * @param parser Turns the loaded properties into a snapshot; may throw to reject invalid values
+     */
+    public ConfigWatcher(Path file, Properties defaults, Function<Properties, T> parser) {
+        this.file = file.toAbsolutePath();
+        this.parser = parser;
+        
+        Properties props;
+        try {
+            props = readFile();
+        } catch (IOException e) {
+            System.err.println("Could not load config " + file + ", using defaults: " + e.getMessage());
+            props = new Properties();
+            props.putAll(defaults);
+        }
+        current.set(parser.apply(props));
+    }
+    
+    /**
+     * Gets the current snapshot.
+     * @return The snapshot
+     */
+    public T get() {
+        return current.get();
+    }
+    
+    /**
+     * Registers a callback that receives every new snapshot after it has been swapped in.
+     * @param listener The callback
+     */
+    public void addListener(Consumer<T> listener) {
+        listeners.add(listener);
+    }
+    
+    /**
+     * Starts watching the file for changes.
+     * @throws IOException if the directory cannot be watched
+     */
+    public synchronized void start() throws IOException {
+        if (watcherThread != null) {
+            return;
+        }
+        watchService = FileSystems.getDefault().newWatchService();
+        file.getParent().register(watchService,
+            StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        
+        watcherThread = new Thread(this::watchLoop, "ConfigWatcher-" + file.getFileName());
+        watcherThread.setDaemon(true);
+        watcherThread.start();
+        System.out.println("Watching " + file + " for config changes");
+    }
+    
+    /**
+     * Reads and parses the file and swaps in the new snapshot.
+     * @return true if a new snapshot was installed
+     */
+    public boolean reload() {
+        T next;
+        try {
+            next = parser.apply(readFile());
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Ignoring config change in " + file + ", keeping previous values: " + e.getMessage());
+            return false;
+        }
+        
+        current.set(next);
+        System.out.println("Reloaded config from " + file);
+        for (Consumer<T> listener : listeners) {
+            try {
+                listener.accept(next);
+            } catch (RuntimeException e) {
+                System.err.println("Config listener failed: " + e.getMessage());
+            }
+        }
+        return true;
+    }
+    
+    private void watchLoop() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean changed = affectsFile(key);
+                
+                // Drain the rest of the burst before reloading once
+                while ((key = watchService.poll(SETTLE_MS, TimeUnit.MILLISECONDS)) != null) {
+                    changed |= affectsFile(key);
+                }
+                if (changed) {
+                    reload();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // Closed by close()
+        }
+    }
+    
+    private boolean affectsFile(WatchKey key) {
+        boolean affected = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            Object context = event.context();
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW ||
+                (context instanceof Path && file.getFileName().equals(context))) {
+                affected = true;
+            }
+        }
+        key.reset();
+        return affected;
+    }
+    
+    private Properties readFile() throws IOException {
+        Properties props = new Properties();
+        try (InputStream is = Files.newInputStream(file)) {
+            props.load(is);
+        }
+        return props;
+    }
+    
+    /**
+     * Stops watching the file. The last snapshot stays available.
+     */
+    @Override
+    public synchronized void close() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                System.err.println("Error closing config watcher: " + e.getMessage());
+            }
+        }
+        if (watcherThread != null) {
+            watcherThread.interrupt();
+            watcherThread = null;
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hashed timing wheel for large numbers of short timers that are usually cancelled before they fire,
+ * such as request timeouts, retry backoff delays and saga deadlines.
+ * The wheel is an array of buckets; each tick a single worker thread advances one bucket and runs the
+ * timers in it whose deadline has come. Scheduling and cancelling are O(1): callers only append to
+ * lock-free queues, and the worker links timers into or out of their bucket's list on the next tick.
+ * Timers fire up to one tick late, never early.
+ *
+ * Tasks run on the worker thread and must be short (completing a future, enqueuing work); longer work
+ * has to be handed to an executor.
+ */
+public class HashedWheelTimer {
+    private static final int STATE_INIT = 0;
+    private static final int STATE_STARTED = 1;
+    private static final int STATE_STOPPED = 2;
+    
+    // Upper bound of new timers moved into the wheel per tick so a flood cannot starve expiry
+    private static final int MAX_TRANSFERS_PER_TICK = 100000;
+    
+    private final String name;
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final Queue<Timeout> pendingTimeouts = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger state = new AtomicInteger(STATE_INIT);
+    private final AtomicLong pendingCount = new AtomicLong(0);
+    private final Thread worker;
+    private volatile long startTime;
+    private long tick = 0;
+    
+    /**
+     * Creates a timer with a 10ms tick and 512 buckets.
+     * @param name Name of the worker thread
+     */
+    public HashedWheelTimer(String name) {
+        this(name, 10, TimeUnit.MILLISECONDS, 512);
+    }
+    
+    /**
+     * Creates a timer.
+     * @param name Name of the worker thread
+     * @param tickDuration Time between two ticks, i.e. the timer resolution
+     * @param unit Unit of tickDuration
+     * @param wheelSize Number of buckets, rounded up to a power of two
+     */
+    public HashedWheelTimer(String name, long tickDuration, TimeUnit unit, int wheelSize) {
+        if (tickDuration <= 0 || wheelSize <= 0) {
+            throw new IllegalArgumentException("tickDuration and wheelSize must be positive");
+        }
+        this.name = name;
+        this.tickNanos = Math.max(unit.toNanos(tickDuration), TimeUnit.MILLISECONDS.toNanos(1));
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+    }
+    
+    /**
+     * Schedules a task. The worker thread is started on first use.
+     * @param task The task to run when the delay has passed
+     * @param delay Delay before the task runs
+     * @param unit Unit of delay
+     * @return Handle to cancel the timer
+     */
+    public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+        start();
+        if (state.get() == STATE_STOPPED) {
+            throw new IllegalStateException("Timer " + name + " is stopped");
+        }
+        
+        long deadline = System.nanoTime() - startTime + unit.toNanos(Math.max(0, delay));
+        Timeout timeout = new Timeout(this, task, deadline);
+        pendingCount.incrementAndGet();
+        pendingTimeouts.add(timeout);
+        return timeout;
+    }
+    
+    /**
+     * Completes a future exceptionally with a TimeoutException unless it completes within the given time.
+     * The timer is cancelled as soon as the future completes.
+     * @param future The future to guard
+     * @param delay Maximum time to wait
+     * @param unit Unit of delay
+     * @param message Message of the TimeoutException
+     * @return The same future
+     */
+    public <T> CompletableFuture<T> failAfter(CompletableFuture<T> future, long delay, TimeUnit unit, String message) {
+        if (future.isDone()) {
+            return future;
+        }
+        Timeout timeout = newTimeout(() -> future.completeExceptionally(new TimeoutException(message)), delay, unit);
+        future.whenComplete((result, ex) -> timeout.cancel());
+        return future;
+    }
+    
+    /**
+     * Gets the number of scheduled timers that have neither fired nor been cancelled.
+     * @return Pending timer count
+     */
+    public long pendingTimeouts() {
+        return pendingCount.get();
+    }
+    
+    /**
+     * Stops the worker thread. Timers that have not fired are cancelled.
+     * @return Tasks of the timers that were still pending, like {@link java.util.concurrent.ExecutorService#shutdownNow()}
+     */
+    public List<Runnable> stop() {
+        if (state.getAndSet(STATE_STOPPED) == STATE_STARTED) {
+            worker.interrupt();
+            try {
+                worker.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        List<Runnable> unfired = new ArrayList<>();
+        for (Bucket bucket : wheel) {
+            for (Timeout timeout = bucket.head; timeout != null; timeout = timeout.next) {
+                collectUnfired(timeout, unfired);
+            }
+        }
+        Timeout timeout;
+        while ((timeout = pendingTimeouts.poll()) != null) {
+            collectUnfired(timeout, unfired);
+        }
+        return unfired;
+    }
+    
+    private void collectUnfired(Timeout timeout, List<Runnable> unfired) {
+        if (timeout.cancel()) {
+            unfired.add(timeout.task);
+        }
+    }
+    
+    private void start() {
+        if (state.get() == STATE_INIT && state.compareAndSet(STATE_INIT, STATE_STARTED)) {
+            startTime = System.nanoTime();
+            worker.start();
+        }
+    }
+    
+    private void run() {
+        while (state.get() == STATE_STARTED) {
+            long deadline = waitForNextTick();
+            if (deadline < 0) {
+                break;
+            }
+            removeCancelled();
+            transferPending();
+            wheel[(int) (tick & mask)].expire(deadline);
+            tick++;
+        }
+    }
+    
+    /**
+     * Sleeps until the end of the current tick.
+     * @return Elapsed time since start at the end of the tick, or -1 if the timer was stopped
+     */
+    private long waitForNextTick() {
+        long deadline = tickNanos * (tick + 1);
+        while (true) {
+            long current = System.nanoTime() - startTime;
+            long sleepMs = (deadline - current + 999999) / 1000000;
+            if (sleepMs <= 0) {
+                return current;
+            }
+            try {
+                Thread.sleep(sleepMs);
+            } catch (InterruptedException e) {
+                if (state.get() == STATE_STOPPED) {
+                    return -1;
+                }
+            }
+        }
+    }
+    
+    private void transferPending() {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            Timeout timeout = pendingTimeouts.poll();
+            if (timeout == null) {
+                return;
+            }
+            if (timeout.isCancelled()) {
+                continue;
+            }
+            
+            long ticks = timeout.deadline / tickNanos;
+            timeout.remainingRounds = (ticks - tick) / wheel.length;
+            // A deadline in the past goes into the current bucket and fires this tick
+            long target = Math.max(ticks, tick);
+            wheel[(int) (target & mask)].add(timeout);
+        }
+    }
+    
+    private void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelledTimeouts.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+    
+    /**
+     * Handle to a scheduled task.
+     */
+    public static final class Timeout {
+        private static final int WAITING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+        // A field updater instead of an AtomicInteger saves one object per timer
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+        
+        private final HashedWheelTimer timer;
+        private final Runnable task;
+        private final long deadline;
+        private volatile int state = WAITING;
+        
+        // Only accessed by the worker thread
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout next;
+        private Timeout prev;
+        
+        private Timeout(HashedWheelTimer timer, Runnable task, long deadline) {
+            this.timer = timer;
+            this.task = task;
+            this.deadline = deadline;
+        }
+        
+        /**
+         * Cancels the timer if it has not fired yet.
+         * @return true if this call cancelled it
+         */
+        public boolean cancel() {
+            if (!STATE.compareAndSet(this, WAITING, CANCELLED)) {
+                return false;
+            }
+            timer.pendingCount.decrementAndGet();
+            // Unlinked from its bucket by the worker on the next tick
+            timer.cancelledTimeouts.add(this);
+            return true;
+        }
+        
+        public boolean isCancelled() { return state == CANCELLED; }
+        public boolean isExpired() { return state == EXPIRED; }
+        
+        private void expire() {
+            if (!STATE.compareAndSet(this, WAITING, EXPIRED)) {
+                return;
+            }
+            timer.pendingCount.decrementAndGet();
+            try {
+                task.run();
+            } catch (Throwable t) {
+                System.err.println("Timer task on " + timer.name + " failed: " + t);
+            }
+        }
+    }
+    
+    /**
+     * Doubly linked list of the timers hashed to one slot of the wheel.
+     */
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+        
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+        
+        void expire(long deadline) {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.remainingRounds <= 0 && timeout.deadline <= deadline) {
+                    remove(timeout);
+                    timeout.expire();
+                } else if (timeout.isCancelled()) {
+                    remove(timeout);
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+        
+        void remove(Timeout timeout) {
+            if (timeout.bucket != this) {
+                return;
+            }
+            if (timeout.prev != null) {
+                timeout.prev.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            } else {
+                tail = timeout.prev;
+            }
+            timeout.next = null;
+            timeout.prev = null;
+            timeout.bucket = null;
+        }
+    }
+}
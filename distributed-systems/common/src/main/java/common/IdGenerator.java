@@ -0,0 +1,16 @@
+package common;
+
+/**
+ * Source of unique IDs for messages, correlations and sagas.
+ * IDs are strings in canonical UUID form, so {@link MessageCodec} sends them as two longs and
+ * existing consumers that expect UUIDs keep working.
+ * @see IdGenerators
+ */
+public interface IdGenerator {
+    
+    /**
+     * Generates a new ID.
+     * @return The ID, unique across all nodes
+     */
+    String nextId();
+}
@@ -0,0 +1,49 @@
+package common;
+
+import java.util.UUID;
+
+/**
+ * Holds the process-wide {@link IdGenerator}. Defaults to a {@link TimeOrderedIdGenerator} with a
+ * random node ID; applications may install another one at startup.
+ */
+public final class IdGenerators {
+    private static volatile IdGenerator defaultGenerator = new TimeOrderedIdGenerator();
+    
+    private IdGenerators() {
+    }
+    
+    /**
+     * Generates an ID with the default generator.
+     * @return The ID
+     */
+    public static String next() {
+        return defaultGenerator.nextId();
+    }
+    
+    /**
+     * Gets the default generator.
+     * @return The generator
+     */
+    public static IdGenerator getDefault() {
+        return defaultGenerator;
+    }
+    
+    /**
+     * Replaces the default generator.
+     * @param generator The new generator
+     */
+    public static void setDefault(IdGenerator generator) {
+        if (generator == null) {
+            throw new IllegalArgumentException("generator must not be null");
+        }
+        defaultGenerator = generator;
+    }
+    
+    /**
+     * Gets a generator backed by {@link UUID#randomUUID()}, the previous behavior.
+     * @return The generator
+     */
+    public static IdGenerator randomUuid() {
+        return () -> UUID.randomUUID().toString();
+    }
+}
@@ -1,6 +1,7 @@
 package common;
 
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -12,6 +13,8 @@ import java.util.concurrent.TimeUnit;
  */
 public class IdempotencyManager {
     private final Map<String, ProcessedMessage> processedMessages = new ConcurrentHashMap<>();
+    // Messages being processed right now, completed with their result when the claim is released
+    private final Map<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
     private final ScheduledExecutorService cleaner = Executors.newSingleThreadScheduledExecutor();
     private final long retentionTimeMs;
     
@@ -44,14 +47,73 @@ public class IdempotencyManager {
         processedMessages.put(messageId, new ProcessedMessage(result, System.currentTimeMillis()));
     }
     
+    /**
+     * Marks a message as processed and stores the result object, so it can be re-sent without
+     * being serialized up front.
+     * @param messageId The unique message identifier
+     * @param result The processing result; must not be modified afterwards
+     */
+    public void markAsProcessed(String messageId, Object result) {
+        processedMessages.put(messageId, new ProcessedMessage(result, System.currentTimeMillis()));
+    }
+    
+    /**
+     * Claims a message for processing, so a retry that arrives while the first attempt is still
+     * running waits for it instead of processing the message a second time.
+     * @param messageId The unique message identifier
+     * @return null if the caller now owns the message and must call {@link #release(String)} when
+     *         done; otherwise a future with the stored result, or null if the owner stored none
+     */
+    public CompletableFuture<Object> claim(String messageId) {
+        CompletableFuture<Object> pending = new CompletableFuture<>();
+        CompletableFuture<Object> owner = inFlight.putIfAbsent(messageId, pending);
+        if (owner != null) {
+            return owner;
+        }
+        // The previous owner may have stored its result and released just before we claimed
+        ProcessedMessage processed = processedMessages.get(messageId);
+        if (processed != null && !processed.isExpired()) {
+            inFlight.remove(messageId, pending);
+            pending.complete(processed.getResult());
+            return pending;
+        }
+        return null;
+    }
+    
+    /**
+     * Ends the caller's claim on a message and hands the stored result, if any, to the duplicates
+     * waiting for it. Store the result with markAsProcessed first.
+     * @param messageId The unique message identifier
+     */
+    public void release(String messageId) {
+        CompletableFuture<Object> pending = inFlight.remove(messageId);
+        if (pending != null) {
+            ProcessedMessage processed = processedMessages.get(messageId);
+            pending.complete(processed != null ? processed.getResult() : null);
+        }
+    }
+    
     /**
      * Retrieves the result of a previously processed message.
      * @param messageId The unique message identifier
      * @return The processing result or null if not found
      */
     public String getProcessedResult(String messageId) {
+        return getProcessedResult(messageId, String.class);
+    }
+    
+    /**
+     * Retrieves the result of a previously processed message.
+     * @param messageId The unique message identifier
+     * @param type Expected type of the stored result
+     * @return The processing result or null if not found or of another type
+     */
+    public <T> T getProcessedResult(String messageId, Class<T> type) {
         ProcessedMessage processed = processedMessages.get(messageId);
-        return processed != null && !processed.isExpired() ? processed.getResult() : null;
+        if (processed == null || processed.isExpired() || !type.isInstance(processed.getResult())) {
+            return null;
+        }
+        return type.cast(processed.getResult());
     }
     
     /**
@@ -89,15 +151,15 @@ public class IdempotencyManager {
      * Represents a processed message with its result and timestamp.
      */
     private class ProcessedMessage {
-        private final String result;
+        private final Object result;
         private final long timestamp;
         
-        public ProcessedMessage(String result, long timestamp) {
+        public ProcessedMessage(Object result, long timestamp) {
             this.result = result;
             this.timestamp = timestamp;
         }
         
-        public String getResult() { 
+        public Object getResult() { 
             return result; 
         }
         
@@ -0,0 +1,325 @@
+package common;
+
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Runs Gson {@link TypeAdapter}s directly against UTF-8 byte arrays.
+ * Writing encodes into a per-thread buffer that is reused between calls, and reading decodes the
+ * frame bytes as the parser consumes them, so no intermediate String of the whole document is built.
+ * The output is byte for byte what {@code gson.toJson(value).getBytes(UTF_8)} produces with a default
+ * Gson (HTML-safe escaping, null fields omitted), and reading is lenient like {@code gson.fromJson}.
+ */
+public final class JsonBytes {
+    private static final ThreadLocal<Utf8Output> OUTPUT = ThreadLocal.withInitial(Utf8Output::new);
+    private static final ThreadLocal<Utf8Input> INPUT = ThreadLocal.withInitial(Utf8Input::new);
+    
+    private JsonBytes() {
+    }
+    
+    /**
+     * Serializes a value to compact JSON.
+     * @param adapter The adapter for the value's type
+     * @param value The value, may be null
+     * @return UTF-8 encoded JSON
+     */
+    public static <T> byte[] write(TypeAdapter<T> adapter, T value) {
+        return write(adapter, value, false);
+    }
+    
+    /**
+     * Serializes a value to JSON.
+     * @param adapter The adapter for the value's type
+     * @param value The value, may be null
+     * @param prettyPrint Whether to indent like {@code GsonBuilder.setPrettyPrinting()}
+     * @return UTF-8 encoded JSON
+     */
+    public static <T> byte[] write(TypeAdapter<T> adapter, T value, boolean prettyPrint) {
+        Utf8Output out = OUTPUT.get();
+        out.reset();
+        try {
+            JsonWriter writer = new JsonWriter(out);
+            writer.setHtmlSafe(true);
+            writer.setSerializeNulls(false);
+            writer.setLenient(true);
+            if (prettyPrint) {
+                writer.setIndent("  ");
+            }
+            adapter.write(writer, value);
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        } finally {
+            out.release();
+        }
+    }
+    
+    /**
+     * Parses a JSON document.
+     * @param adapter The adapter for the expected type
+     * @param json UTF-8 encoded JSON
+     * @return The value, or null for an empty document or a JSON null
+     * @throws JsonSyntaxException if the document is malformed or has trailing content
+     */
+    public static <T> T read(TypeAdapter<T> adapter, byte[] json) {
+        Utf8Input in = INPUT.get();
+        in.reset(json);
+        try {
+            JsonReader reader = new JsonReader(in);
+            reader.setLenient(true);
+            try {
+                reader.peek();
+            } catch (EOFException e) {
+                // Gson returns null for an empty document
+                return null;
+            }
+            T value = adapter.read(reader);
+            if (reader.peek() != JsonToken.END_DOCUMENT) {
+                throw new JsonSyntaxException("JSON document was not fully consumed.");
+            }
+            return value;
+        } catch (MalformedJsonException | EOFException | IllegalStateException | NumberFormatException e) {
+            throw new JsonSyntaxException(e);
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        } finally {
+            in.reset(null);
+        }
+    }
+    
+    /**
+     * Reads a string the way Gson's String adapter does: numbers and booleans are accepted as text.
+     * @param in The reader
+     * @return The string, or null for a JSON null
+     */
+    public static String readString(JsonReader in) throws IOException {
+        JsonToken token = in.peek();
+        if (token == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        if (token == JsonToken.BOOLEAN) {
+            return Boolean.toString(in.nextBoolean());
+        }
+        return in.nextString();
+    }
+    
+    /**
+     * Growable byte buffer that encodes the characters written to it as UTF-8.
+     * Lone surrogates become '?', as in {@link String#getBytes(java.nio.charset.Charset)}.
+     */
+    static final class Utf8Output extends Writer {
+        // Buffers that grew past this for one large document are dropped after use
+        private static final int MAX_RETAINED = 64 * 1024;
+        
+        private byte[] buffer = new byte[512];
+        private int size;
+        private char pendingHighSurrogate;
+        
+        void reset() {
+            size = 0;
+            pendingHighSurrogate = 0;
+        }
+        
+        void release() {
+            if (buffer.length > MAX_RETAINED) {
+                buffer = new byte[512];
+            }
+        }
+        
+        byte[] toByteArray() {
+            if (pendingHighSurrogate != 0) {
+                put((byte) '?');
+                pendingHighSurrogate = 0;
+            }
+            return Arrays.copyOf(buffer, size);
+        }
+        
+        @Override
+        public void write(int c) {
+            ensureCapacity(4);
+            encode((char) c);
+        }
+        
+        @Override
+        public void write(char[] chars, int offset, int length) {
+            ensureCapacity(length * 3 + 1);
+            for (int i = offset, end = offset + length; i < end; i++) {
+                encode(chars[i]);
+            }
+        }
+        
+        @Override
+        public void write(String str, int offset, int length) {
+            ensureCapacity(length * 3 + 1);
+            for (int i = offset, end = offset + length; i < end; i++) {
+                encode(str.charAt(i));
+            }
+        }
+        
+        // Caller has reserved 3 bytes per char plus one for a dangling surrogate
+        private void encode(char c) {
+            if (c < 0x80 && pendingHighSurrogate == 0) {
+                buffer[size++] = (byte) c;
+                return;
+            }
+            if (pendingHighSurrogate != 0) {
+                char high = pendingHighSurrogate;
+                pendingHighSurrogate = 0;
+                if (Character.isLowSurrogate(c)) {
+                    int codePoint = Character.toCodePoint(high, c);
+                    put((byte) (0xF0 | (codePoint >> 18)));
+                    put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                    put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                    put((byte) (0x80 | (codePoint & 0x3F)));
+                    return;
+                }
+                put((byte) '?');
+            }
+            
+            if (c < 0x80) {
+                put((byte) c);
+            } else if (c < 0x800) {
+                put((byte) (0xC0 | (c >> 6)));
+                put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c)) {
+                pendingHighSurrogate = c;
+            } else if (Character.isLowSurrogate(c)) {
+                put((byte) '?');
+            } else {
+                put((byte) (0xE0 | (c >> 12)));
+                put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        
+        private void put(byte b) {
+            ensureCapacity(1);
+            buffer[size++] = b;
+        }
+        
+        private void ensureCapacity(int additional) {
+            if (size + additional > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + additional));
+            }
+        }
+        
+        @Override
+        public void flush() {
+        }
+        
+        @Override
+        public void close() {
+        }
+    }
+    
+    /**
+     * Reader that decodes UTF-8 straight out of a byte array.
+     * Malformed sequences become U+FFFD one byte at a time.
+     */
+    static final class Utf8Input extends Reader {
+        private byte[] bytes;
+        private int position;
+        private int limit;
+        private char pendingLowSurrogate;
+        
+        void reset(byte[] source) {
+            bytes = source;
+            position = 0;
+            limit = source != null ? source.length : 0;
+            pendingLowSurrogate = 0;
+        }
+        
+        @Override
+        public int read(char[] chars, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            int count = 0;
+            if (pendingLowSurrogate != 0) {
+                chars[offset + count++] = pendingLowSurrogate;
+                pendingLowSurrogate = 0;
+            }
+            
+            while (count < length && position < limit) {
+                int b = bytes[position];
+                if (b >= 0) {
+                    chars[offset + count++] = (char) b;
+                    position++;
+                    continue;
+                }
+                
+                int codePoint = decodeMultiByte();
+                if (codePoint < 0x10000) {
+                    chars[offset + count++] = (char) codePoint;
+                } else {
+                    chars[offset + count++] = Character.highSurrogate(codePoint);
+                    if (count < length) {
+                        chars[offset + count++] = Character.lowSurrogate(codePoint);
+                    } else {
+                        pendingLowSurrogate = Character.lowSurrogate(codePoint);
+                    }
+                }
+            }
+            return count == 0 ? -1 : count;
+        }
+        
+        private int decodeMultiByte() {
+            int lead = bytes[position] & 0xFF;
+            int length;
+            int codePoint;
+            int min;
+            if ((lead & 0xE0) == 0xC0) {
+                length = 2;
+                codePoint = lead & 0x1F;
+                min = 0x80;
+            } else if ((lead & 0xF0) == 0xE0) {
+                length = 3;
+                codePoint = lead & 0x0F;
+                min = 0x800;
+            } else if ((lead & 0xF8) == 0xF0) {
+                length = 4;
+                codePoint = lead & 0x07;
+                min = 0x10000;
+            } else {
+                position++;
+                return 0xFFFD;
+            }
+            
+            if (position + length > limit) {
+                position++;
+                return 0xFFFD;
+            }
+            for (int i = 1; i < length; i++) {
+                int next = bytes[position + i] & 0xFF;
+                if ((next & 0xC0) != 0x80) {
+                    position++;
+                    return 0xFFFD;
+                }
+                codePoint = (codePoint << 6) | (next & 0x3F);
+            }
+            if (codePoint < min || codePoint > 0x10FFFF ||
+                (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+                position++;
+                return 0xFFFD;
+            }
+            position += length;
+            return codePoint;
+        }
+        
+        @Override
+        public void close() {
+        }
+    }
+}
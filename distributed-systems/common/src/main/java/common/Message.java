@@ -2,20 +2,28 @@ package common;
 
 import java.io.Serializable;
 import java.util.Map;
-import java.util.UUID;
 
 public class Message implements Serializable {
     private static final long serialVersionUID = 1L;
     
+    // Failure reasons, in the "error" data entry, that settle a CONFIRM or CANCEL for good;
+    // any other reason may pass, so the request is worth retrying
+    public static final String REASON_NOT_FOUND = "Reservation not found";
+    public static final String REASON_EXPIRED = "Reservation expired";
+    public static final String REASON_ALREADY_CONFIRMED = "Reservation already confirmed";
+    public static final String REASON_ALREADY_RELEASED = "Reservation already cancelled or expired";
+    
     private String messageId;
     private String correlationId;
     private String type;
     private Map<String, String> data;
     private long timestamp;
     private String senderId;
-    
+    // Epoch milliseconds after which the sender no longer uses a reply; 0 for none
+    private long deadline;
+
     public Message() {
-        this.messageId = UUID.randomUUID().toString();
+        this.messageId = IdGenerators.next();
         this.timestamp = System.currentTimeMillis();
     }
     
@@ -30,6 +38,12 @@ public class Message implements Serializable {
         this.correlationId = correlationId;
     }
     
+    // For decoders that set every field themselves; skips generating a random message ID
+    Message(String messageId, long timestamp) {
+        this.messageId = messageId;
+        this.timestamp = timestamp;
+    }
+    
     // Getters and Setters
     public String getMessageId() { return messageId; }
     public void setMessageId(String messageId) { this.messageId = messageId; }
@@ -48,4 +62,16 @@ public class Message implements Serializable {
     
     public String getSenderId() { return senderId; }
     public void setSenderId(String senderId) { this.senderId = senderId; }
+    
+    public long getDeadline() { return deadline; }
+    public void setDeadline(long deadline) { this.deadline = deadline; }
+    
+    /**
+     * Checks whether the message has a deadline that has passed.
+     * @param nowMillis Current time in epoch milliseconds
+     * @return true if the sender no longer uses a reply
+     */
+    public boolean isPastDeadline(long nowMillis) {
+        return deadline > 0 && nowMillis >= deadline;
+    }
 }
@@ -0,0 +1,425 @@
+package common;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Compact binary wire format for {@link Message}.
+ * A frame starts with {@link #MAGIC} and a version byte, followed by tagged fields and an end tag:
+ * <pre>
+ *   MAGIC VERSION { tag value }* END
+ * </pre>
+ * Message types and data keys the protocol uses are sent as one-byte codes, canonical UUIDs as two
+ * longs, decimal integers as zigzag varints and everything else as varint-length UTF-8. JSON frames
+ * always start with '{', so a receiver can tell both encodings apart from the first byte and peers
+ * that only speak JSON keep working.
+ *
+ * The code tables are part of the format: new entries may only be appended, and any other change
+ * needs a new version. Version 2 added the deadline field. A frame only claims version 2 if it
+ * carries a deadline, so replies stay readable by version 1 peers.
+ */
+public final class MessageCodec {
+    public static final byte MAGIC = (byte) 0xB1;
+    public static final int VERSION = 2;
+    
+    private static final int TAG_END = 0;
+    private static final int TAG_MESSAGE_ID = 1;
+    private static final int TAG_MESSAGE_ID_TEXT = 2;
+    private static final int TAG_CORRELATION_ID = 3;
+    private static final int TAG_CORRELATION_ID_TEXT = 4;
+    private static final int TAG_TYPE = 5;
+    private static final int TAG_TYPE_TEXT = 6;
+    private static final int TAG_TIMESTAMP = 7;
+    private static final int TAG_SENDER_ID = 8;
+    private static final int TAG_DATA = 9;
+    private static final int TAG_DEADLINE = 10;
+    
+    // Data keys: 0 is followed by the key as text
+    private static final int KEY_TEXT = 0;
+    // Data values
+    private static final int VALUE_TEXT = 0;
+    private static final int VALUE_INT = 1;
+    private static final int VALUE_NULL = 2;
+    
+    // Index + 1 is the wire code
+    private static final String[] TYPES = {
+        "RESERVE", "RESERVE_BATCH", "CONFIRM", "CANCEL", "HEARTBEAT", "SUCCESS", "FAILURE"
+    };
+    private static final String[] KEYS = {
+        "productId", "quantity", "reservationId", "orderId", "items", "error", "reason", "sellerId"
+    };
+    private static final Map<String, Integer> TYPE_CODES = codes(TYPES);
+    private static final Map<String, Integer> KEY_CODES = codes(KEYS);
+    
+    private MessageCodec() {
+    }
+    
+    /**
+     * Checks whether a frame is in the binary format.
+     * @param frame The received frame
+     * @return true if the frame starts with the binary magic byte
+     */
+    public static boolean isBinary(byte[] frame) {
+        return frame != null && frame.length >= 2 && frame[0] == MAGIC;
+    }
+    
+    /**
+     * Encodes a message.
+     * @param message The message
+     * @return The frame
+     */
+    public static byte[] encode(Message message) {
+        Writer out = new Writer(128);
+        out.writeByte(MAGIC);
+        out.writeByte(message.getDeadline() > 0 ? VERSION : 1);
+        
+        writeId(out, TAG_MESSAGE_ID, TAG_MESSAGE_ID_TEXT, message.getMessageId());
+        writeId(out, TAG_CORRELATION_ID, TAG_CORRELATION_ID_TEXT, message.getCorrelationId());
+        
+        String type = message.getType();
+        if (type != null) {
+            Integer code = TYPE_CODES.get(type);
+            if (code != null) {
+                out.writeByte(TAG_TYPE);
+                out.writeByte(code);
+            } else {
+                out.writeByte(TAG_TYPE_TEXT);
+                out.writeString(type);
+            }
+        }
+        
+        out.writeByte(TAG_TIMESTAMP);
+        out.writeLong(message.getTimestamp());
+        
+        if (message.getSenderId() != null) {
+            out.writeByte(TAG_SENDER_ID);
+            out.writeString(message.getSenderId());
+        }
+        
+        if (message.getDeadline() > 0) {
+            out.writeByte(TAG_DEADLINE);
+            out.writeLong(message.getDeadline());
+        }
+        
+        Map<String, String> data = message.getData();
+        if (data != null) {
+            out.writeByte(TAG_DATA);
+            out.writeVarInt(data.size());
+            for (Map.Entry<String, String> entry : data.entrySet()) {
+                Integer code = KEY_CODES.get(entry.getKey());
+                if (code != null) {
+                    out.writeByte(code);
+                } else {
+                    out.writeByte(KEY_TEXT);
+                    out.writeString(entry.getKey());
+                }
+                writeValue(out, entry.getValue());
+            }
+        }
+        
+        out.writeByte(TAG_END);
+        return out.toByteArray();
+    }
+    
+    /**
+     * Decodes a frame.
+     * @param frame The frame
+     * @return The message
+     * @throws IllegalArgumentException if the frame is not a valid binary message of a supported version
+     */
+    public static Message decode(byte[] frame) {
+        return decode(ByteBuffer.wrap(frame));
+    }
+    
+    /**
+     * Decodes a frame from the buffer's position up to its limit.
+     * @param frame The frame
+     * @return The message
+     * @throws IllegalArgumentException if the frame is not a valid binary message of a supported version
+     */
+    public static Message decode(ByteBuffer frame) {
+        try {
+            if (frame.get() != MAGIC) {
+                throw new IllegalArgumentException("Not a binary message frame");
+            }
+            int version = frame.get() & 0xFF;
+            if (version > VERSION) {
+                throw new IllegalArgumentException("Unsupported message codec version " + version);
+            }
+            
+            Message message = new Message(null, 0L);
+            int tag;
+            while ((tag = frame.get() & 0xFF) != TAG_END) {
+                switch (tag) {
+                    case TAG_MESSAGE_ID:
+                        message.setMessageId(readUuid(frame));
+                        break;
+                    case TAG_MESSAGE_ID_TEXT:
+                        message.setMessageId(readString(frame));
+                        break;
+                    case TAG_CORRELATION_ID:
+                        message.setCorrelationId(readUuid(frame));
+                        break;
+                    case TAG_CORRELATION_ID_TEXT:
+                        message.setCorrelationId(readString(frame));
+                        break;
+                    case TAG_TYPE:
+                        message.setType(lookup(TYPES, frame.get() & 0xFF, "type"));
+                        break;
+                    case TAG_TYPE_TEXT:
+                        message.setType(readString(frame));
+                        break;
+                    case TAG_TIMESTAMP:
+                        message.setTimestamp(frame.getLong());
+                        break;
+                    case TAG_SENDER_ID:
+                        message.setSenderId(readString(frame));
+                        break;
+                    case TAG_DATA:
+                        message.setData(readData(frame));
+                        break;
+                    case TAG_DEADLINE:
+                        message.setDeadline(frame.getLong());
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown field tag " + tag);
+                }
+            }
+            return message;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated message frame", e);
+        }
+    }
+    
+    private static void writeId(Writer out, int uuidTag, int textTag, String id) {
+        if (id == null) {
+            return;
+        }
+        UUID uuid = parseCanonicalUuid(id);
+        if (uuid != null) {
+            out.writeByte(uuidTag);
+            out.writeLong(uuid.getMostSignificantBits());
+            out.writeLong(uuid.getLeastSignificantBits());
+        } else {
+            out.writeByte(textTag);
+            out.writeString(id);
+        }
+    }
+    
+    private static void writeValue(Writer out, String value) {
+        if (value == null) {
+            out.writeByte(VALUE_NULL);
+            return;
+        }
+        Integer number = parseCanonicalInt(value);
+        if (number != null) {
+            out.writeByte(VALUE_INT);
+            int n = number;
+            out.writeVarInt((n << 1) ^ (n >> 31));
+        } else {
+            out.writeByte(VALUE_TEXT);
+            out.writeString(value);
+        }
+    }
+    
+    private static Map<String, String> readData(ByteBuffer in) {
+        int size = readVarInt(in);
+        Map<String, String> data = new HashMap<>(Math.max(4, size * 2));
+        for (int i = 0; i < size; i++) {
+            int keyCode = in.get() & 0xFF;
+            String key = keyCode == KEY_TEXT ? readString(in) : lookup(KEYS, keyCode, "data key");
+            int kind = in.get() & 0xFF;
+            String value;
+            switch (kind) {
+                case VALUE_TEXT:
+                    value = readString(in);
+                    break;
+                case VALUE_INT:
+                    int zigzag = readVarInt(in);
+                    value = Integer.toString((zigzag >>> 1) ^ -(zigzag & 1));
+                    break;
+                case VALUE_NULL:
+                    value = null;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown value kind " + kind);
+            }
+            data.put(key, value);
+        }
+        return data;
+    }
+    
+    private static String lookup(String[] table, int code, String what) {
+        if (code < 1 || code > table.length) {
+            throw new IllegalArgumentException("Unknown " + what + " code " + code);
+        }
+        return table[code - 1];
+    }
+    
+    private static String readUuid(ByteBuffer in) {
+        return new UUID(in.getLong(), in.getLong()).toString();
+    }
+    
+    private static String readString(ByteBuffer in) {
+        int length = readVarInt(in);
+        if (length > in.remaining()) {
+            throw new IllegalArgumentException("Truncated message frame");
+        }
+        if (!in.hasArray()) {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        // Decode straight from the frame's backing array
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+    
+    private static int readVarInt(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+    
+    /**
+     * Parses a UUID only if it is in the lower-case form UUID.toString() produces, so decoding gives back
+     * the exact same string.
+     */
+    private static UUID parseCanonicalUuid(String s) {
+        if (s.length() != 36 || s.charAt(8) != '-' || s.charAt(13) != '-' || s.charAt(18) != '-' || s.charAt(23) != '-') {
+            return null;
+        }
+        long msb = 0;
+        long lsb = 0;
+        for (int i = 0, digits = 0; i < 36; i++) {
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                continue;
+            }
+            int nibble = Character.digit(s.charAt(i), 16);
+            if (nibble < 0 || Character.isUpperCase(s.charAt(i))) {
+                return null;
+            }
+            if (digits < 16) {
+                msb = (msb << 4) | nibble;
+            } else {
+                lsb = (lsb << 4) | nibble;
+            }
+            digits++;
+        }
+        return new UUID(msb, lsb);
+    }
+    
+    /**
+     * Parses an int only if Integer.toString gives back the same string (no sign, leading zeros or spaces).
+     */
+    private static Integer parseCanonicalInt(String s) {
+        int length = s.length();
+        if (length == 0 || length > 11) {
+            return null;
+        }
+        int start = s.charAt(0) == '-' ? 1 : 0;
+        if (start == length || (s.charAt(start) == '0' && length > start + 1) || (start == 1 && s.charAt(1) == '0')) {
+            return null;
+        }
+        long value = 0;
+        for (int i = start; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return null;
+            }
+            value = value * 10 + (c - '0');
+        }
+        value = start == 1 ? -value : value;
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            return null;
+        }
+        return (int) value;
+    }
+    
+    private static Map<String, Integer> codes(String[] table) {
+        Map<String, Integer> codes = new HashMap<>();
+        for (int i = 0; i < table.length; i++) {
+            codes.put(table[i], i + 1);
+        }
+        return codes;
+    }
+    
+    /**
+     * Growable big-endian byte buffer; strings made of ASCII characters are copied without an encoder.
+     */
+    private static final class Writer {
+        private byte[] buffer;
+        private int size = 0;
+        
+        Writer(int capacity) {
+            this.buffer = new byte[capacity];
+        }
+        
+        void writeByte(int b) {
+            ensure(1);
+            buffer[size++] = (byte) b;
+        }
+        
+        void writeLong(long v) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buffer[size++] = (byte) (v >>> shift);
+            }
+        }
+        
+        void writeVarInt(int v) {
+            ensure(5);
+            while ((v & ~0x7F) != 0) {
+                buffer[size++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buffer[size++] = (byte) v;
+        }
+        
+        void writeString(String s) {
+            int length = s.length();
+            boolean ascii = true;
+            for (int i = 0; i < length; i++) {
+                if (s.charAt(i) >= 0x80) {
+                    ascii = false;
+                    break;
+                }
+            }
+            if (ascii) {
+                writeVarInt(length);
+                ensure(length);
+                for (int i = 0; i < length; i++) {
+                    buffer[size++] = (byte) s.charAt(i);
+                }
+            } else {
+                byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+                writeVarInt(utf8.length);
+                ensure(utf8.length);
+                System.arraycopy(utf8, 0, buffer, size, utf8.length);
+                size += utf8.length;
+            }
+        }
+        
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+        
+        private void ensure(int extra) {
+            if (size + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+            }
+        }
+    }
+}
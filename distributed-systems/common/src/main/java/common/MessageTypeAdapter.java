@@ -0,0 +1,146 @@
+package common;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Hand-written JSON adapter for {@link Message}, replacing Gson's reflection-based one.
+ * Writes the fields in declaration order and omits nulls, exactly like the reflective adapter, so
+ * both ends of the wire can switch independently. Unknown fields are skipped when reading.
+ */
+public final class MessageTypeAdapter extends TypeAdapter<Message> {
+    public static final MessageTypeAdapter INSTANCE = new MessageTypeAdapter();
+    
+    private MessageTypeAdapter() {
+    }
+    
+    /**
+     * Serializes a message to UTF-8 JSON.
+     * @param message The message
+     * @return JSON bytes
+     */
+    public static byte[] toJsonBytes(Message message) {
+        return JsonBytes.write(INSTANCE, message);
+    }
+    
+    /**
+     * Parses a message from UTF-8 JSON.
+     * @param json JSON bytes
+     * @return The message, or null for an empty document
+     * @throws com.google.gson.JsonSyntaxException if the JSON is malformed
+     */
+    public static Message fromJsonBytes(byte[] json) {
+        return JsonBytes.read(INSTANCE, json);
+    }
+    
+    @Override
+    public void write(JsonWriter out, Message message) throws IOException {
+        if (message == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("messageId").value(message.getMessageId());
+        out.name("correlationId").value(message.getCorrelationId());
+        out.name("type").value(message.getType());
+        out.name("data");
+        writeData(out, message.getData());
+        out.name("timestamp").value(message.getTimestamp());
+        out.name("senderId").value(message.getSenderId());
+        out.name("deadline").value(message.getDeadline());
+        out.endObject();
+    }
+    
+    private static void writeData(JsonWriter out, Map<String, String> data) throws IOException {
+        if (data == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        for (Map.Entry<String, String> entry : data.entrySet()) {
+            out.name(String.valueOf(entry.getKey())).value(entry.getValue());
+        }
+        out.endObject();
+    }
+    
+    @Override
+    public Message read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        
+        // Like the no-arg constructor Gson would call, fields missing from the JSON keep a fresh
+        // message ID and the current time
+        Message message = new Message(null, 0);
+        boolean hasMessageId = false;
+        boolean hasTimestamp = false;
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "messageId":
+                    message.setMessageId(JsonBytes.readString(in));
+                    hasMessageId = true;
+                    break;
+                case "correlationId":
+                    message.setCorrelationId(JsonBytes.readString(in));
+                    break;
+                case "type":
+                    message.setType(JsonBytes.readString(in));
+                    break;
+                case "data":
+                    message.setData(readData(in));
+                    break;
+                case "timestamp":
+                    if (in.peek() == JsonToken.NULL) {
+                        in.nextNull();
+                    } else {
+                        message.setTimestamp(in.nextLong());
+                        hasTimestamp = true;
+                    }
+                    break;
+                case "senderId":
+                    message.setSenderId(JsonBytes.readString(in));
+                    break;
+                case "deadline":
+                    if (in.peek() == JsonToken.NULL) {
+                        in.nextNull();
+                    } else {
+                        message.setDeadline(in.nextLong());
+                    }
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        
+        if (!hasMessageId) {
+            message.setMessageId(IdGenerators.next());
+        }
+        if (!hasTimestamp) {
+            message.setTimestamp(System.currentTimeMillis());
+        }
+        return message;
+    }
+    
+    private static Map<String, String> readData(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        Map<String, String> data = new LinkedHashMap<>();
+        in.beginObject();
+        while (in.hasNext()) {
+            data.put(in.nextName(), JsonBytes.readString(in));
+        }
+        in.endObject();
+        return data;
+    }
+}
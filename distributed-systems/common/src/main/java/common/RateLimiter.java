@@ -0,0 +1,69 @@
+package common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits calls to a steady rate with a bounded burst. Keeps only the time at which the next permit
+ * becomes free (the generic cell rate algorithm), so a permit is one CAS and no refill thread is
+ * needed. Calls over the limit are rejected rather than delayed.
+ */
+public class RateLimiter {
+    private final String name;
+    private final long intervalNanos;
+    // How far ahead of now the next free permit may be, which is what allows a burst
+    private final long burstNanos;
+    private final AtomicLong nextFreeNanos = new AtomicLong(System.nanoTime());
+    private final LongAdder rejected = new LongAdder();
+    
+    /**
+     * Creates a rate limiter.
+     * @param name Name for logging purposes
+     * @param permitsPerSecond Sustained rate
+     * @param burst Permits that can be taken at once after an idle period
+     */
+    public RateLimiter(String name, double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0 || burst <= 0) {
+            throw new IllegalArgumentException("Invalid rate limit: " + permitsPerSecond + "/s, burst " + burst);
+        }
+        this.name = name;
+        this.intervalNanos = Math.max(1, (long) (1_000_000_000L / permitsPerSecond));
+        this.burstNanos = (burst - 1) * intervalNanos;
+    }
+    
+    /**
+     * Takes a permit if one is free now.
+     * @return true if the call may go ahead
+     */
+    public boolean tryAcquire() {
+        long now = System.nanoTime();
+        while (true) {
+            long nextFree = nextFreeNanos.get();
+            long start = nextFree - now > 0 ? nextFree : now;
+            if (start - now > burstNanos) {
+                rejected.increment();
+                return false;
+            }
+            if (nextFreeNanos.compareAndSet(nextFree, start + intervalNanos)) {
+                return true;
+            }
+        }
+    }
+    
+    /**
+     * Gets the number of calls rejected by the limit.
+     * @return Rejected calls
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+    
+    /**
+     * Gets rate limiter statistics.
+     * @return Statistics string
+     */
+    public String getStats() {
+        return String.format("RateLimiter[%s]: Rate=%.1f/s, Burst=%d, Rejected=%d",
+                             name, 1e9 / intervalNanos, burstNanos / intervalNanos + 1, rejected.sum());
+    }
+}
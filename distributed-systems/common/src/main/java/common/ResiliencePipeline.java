@@ -0,0 +1,425 @@
+package common;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Runs calls to one service through timeout, circuit breaker, bulkhead, rate limiter and retry
+ * stages in a configurable order, outermost first. Stages inside the retry stage apply to every
+ * attempt, so each retry consults the circuit breaker again; stages outside it apply once per call.
+ * Each call is a single object that is the caller's future and carries the state of every stage
+ * across attempts, so the stages add no futures or lambdas of their own. Calls rejected by a local
+ * stage fail with an IllegalStateException and are neither retried nor counted by the breaker.
+ */
+public class ResiliencePipeline {
+    
+    /**
+     * Stages a pipeline can be built from.
+     */
+    public enum Stage {
+        TIMEOUT,      // Fails the calls inside it that take longer than the timeout
+        BREAKER,      // Consults and feeds the circuit breaker
+        BULKHEAD,     // Limits the calls in flight
+        RATE_LIMITER, // Limits the call rate
+        RETRY;        // Retries failed calls with backoff and the retry budget
+        
+        /**
+         * Parses a stage name, ignoring case, underscores and hyphens.
+         * @param name For example "breaker" or "rate_limiter"
+         * @return The stage
+         */
+        public static Stage parse(String name) {
+            String normalized = name.trim().toUpperCase(Locale.ROOT).replace("_", "").replace("-", "");
+            for (Stage stage : values()) {
+                if (stage.name().replace("_", "").equals(normalized)) {
+                    return stage;
+                }
+            }
+            throw new IllegalArgumentException("Unknown resilience stage: " + name);
+        }
+        
+        /**
+         * Parses a comma-separated list of stages, outermost first.
+         * @param order For example "retry,timeout,ratelimiter,bulkhead,breaker"
+         * @return The stages
+         */
+        public static List<Stage> parseOrder(String order) {
+            List<Stage> stages = new ArrayList<>();
+            for (String name : order.split(",")) {
+                if (!name.trim().isEmpty()) {
+                    stages.add(parse(name));
+                }
+            }
+            return stages;
+        }
+    }
+    
+    private final String name;
+    // Stages with a component, outermost first
+    private final Stage[] stages;
+    private final int retryIndex;
+    private final boolean timeoutOutsideRetry;
+    private final CircuitBreaker circuitBreaker;
+    private final Bulkhead bulkhead;
+    private final RateLimiter rateLimiter;
+    private final RetryManager retryManager;
+    private final HashedWheelTimer timer;
+    private final long timeoutMs;
+    
+    /**
+     * Creates a pipeline. Stages without a component are left out.
+     * @param name Name for logging purposes
+     * @param order Stages, outermost first; each at most once
+     * @param circuitBreaker Circuit breaker, or null
+     * @param bulkhead Bulkhead, or null
+     * @param rateLimiter Rate limiter, or null
+     * @param retryManager Retry manager, or null
+     * @param timer Timer for timeouts, or null
+     * @param timeoutMs Timeout in milliseconds, or 0 for none
+     */
+    public ResiliencePipeline(String name, List<Stage> order, CircuitBreaker circuitBreaker, Bulkhead bulkhead,
+                              RateLimiter rateLimiter, RetryManager retryManager, HashedWheelTimer timer,
+                              long timeoutMs) {
+        if (order.size() != order.stream().distinct().count()) {
+            throw new IllegalArgumentException("Resilience stages must not repeat: " + order);
+        }
+        this.name = name;
+        this.circuitBreaker = circuitBreaker;
+        this.bulkhead = bulkhead;
+        this.rateLimiter = rateLimiter;
+        this.retryManager = retryManager;
+        this.timer = timer;
+        this.timeoutMs = timeoutMs;
+        
+        List<Stage> enabled = new ArrayList<>();
+        for (Stage stage : order) {
+            if (isEnabled(stage)) {
+                enabled.add(stage);
+            }
+        }
+        this.stages = enabled.toArray(new Stage[0]);
+        this.retryIndex = enabled.indexOf(Stage.RETRY);
+        int timeoutIndex = enabled.indexOf(Stage.TIMEOUT);
+        this.timeoutOutsideRetry = timeoutIndex >= 0 && retryIndex >= 0 && timeoutIndex < retryIndex;
+    }
+    
+    /**
+     * Creates a pipeline from resilience.* properties, with its own bulkhead and rate limiter.
+     * @param name Name for logging purposes
+     * @param config Configuration properties
+     * @param circuitBreaker Circuit breaker, or null
+     * @param retryManager Retry manager, or null
+     * @param timer Timer for timeouts
+     * @return The pipeline
+     */
+    public static ResiliencePipeline fromConfig(String name, Properties config, CircuitBreaker circuitBreaker,
+                                                RetryManager retryManager, HashedWheelTimer timer) {
+        int maxConcurrent = Integer.parseInt(config.getProperty("resilience.bulkhead.max.concurrent", "0"));
+        double ratePerSecond = Double.parseDouble(config.getProperty("resilience.rate.limit.per.second", "0"));
+        return new ResiliencePipeline(name,
+            Stage.parseOrder(config.getProperty("resilience.pipeline.order", "retry,timeout,ratelimiter,bulkhead,breaker")),
+            circuitBreaker,
+            maxConcurrent > 0 ? new Bulkhead(name, maxConcurrent) : null,
+            ratePerSecond > 0 ? new RateLimiter(name, ratePerSecond,
+                Integer.parseInt(config.getProperty("resilience.rate.limit.burst", "1"))) : null,
+            retryManager,
+            timer,
+            Long.parseLong(config.getProperty("resilience.timeout.ms", "0")));
+    }
+    
+    /**
+     * Executes an operation through the pipeline.
+     * @param operation The operation to execute, once per attempt
+     * @param operationName Name for logging purposes
+     * @param target Target for the retry budget, or null
+     * @param deadlineMillis Deadline in epoch milliseconds, or 0 for none; no attempt starts after it
+     * @return Future with the operation result; cancelling it cancels the attempt in flight
+     */
+    public <T> CompletableFuture<T> execute(Supplier<CompletableFuture<T>> operation, String operationName,
+                                            String target, long deadlineMillis) {
+        Call<T> call = new Call<>(operation, operationName, target, deadlineMillis);
+        call.enter(0);
+        return call;
+    }
+    
+    /**
+     * Gets the stages in use, outermost first.
+     * @return The stages
+     */
+    public List<Stage> getStages() {
+        List<Stage> order = new ArrayList<>();
+        Collections.addAll(order, stages);
+        return order;
+    }
+    
+    /**
+     * Gets the bulkhead of this pipeline.
+     * @return The bulkhead, or null
+     */
+    public Bulkhead getBulkhead() {
+        return bulkhead;
+    }
+    
+    /**
+     * Gets the rate limiter of this pipeline.
+     * @return The rate limiter, or null
+     */
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+    
+    /**
+     * Gets pipeline statistics.
+     * @return Statistics string
+     */
+    public String getStats() {
+        StringBuilder stats = new StringBuilder("ResiliencePipeline[" + name + "]: Stages=");
+        for (int i = 0; i < stages.length; i++) {
+            stats.append(i > 0 ? ">" : "").append(stages[i].name().toLowerCase(Locale.ROOT));
+        }
+        if (bulkhead != null) {
+            stats.append(", ").append(bulkhead.getStats());
+        }
+        if (rateLimiter != null) {
+            stats.append(", ").append(rateLimiter.getStats());
+        }
+        return stats.toString();
+    }
+    
+    private boolean isEnabled(Stage stage) {
+        switch (stage) {
+            case TIMEOUT:
+                return timer != null && timeoutMs > 0;
+            case BREAKER:
+                return circuitBreaker != null;
+            case BULKHEAD:
+                return bulkhead != null;
+            case RATE_LIMITER:
+                return rateLimiter != null;
+            default:
+                return retryManager != null;
+        }
+    }
+    
+    /**
+     * Runs a stage on the way in.
+     * @param call The call
+     * @param stage The stage
+     * @return The exception to reject the call with, or null to go on
+     */
+    private Throwable before(Call<?> call, Stage stage) {
+        switch (stage) {
+            case TIMEOUT:
+                call.timedOut = false;
+                call.timeoutDeadline = System.currentTimeMillis() + timeoutMs;
+                call.timeout = timer.newTimeout(call::onTimeout, timeoutMs, TimeUnit.MILLISECONDS);
+                return null;
+            case BREAKER:
+                call.permission = circuitBreaker.acquirePermission();
+                if (call.permission >= CircuitBreaker.REJECTED_OPEN) {
+                    return circuitBreaker.rejection(call.permission, call.operationName);
+                }
+                call.startTime = circuitBreaker.callStarted();
+                return null;
+            case BULKHEAD:
+                return bulkhead.tryAcquire() ? null
+                    : new IllegalStateException("Bulkhead is full for " + name + " - " + call.operationName);
+            case RATE_LIMITER:
+                return rateLimiter.tryAcquire() ? null
+                    : new IllegalStateException("Rate limit exceeded for " + name + " - " + call.operationName);
+            default:
+                retryManager.recordAttempt(call.target);
+                return null;
+        }
+    }
+    
+    /**
+     * Runs a stage on the way out.
+     * @param call The call
+     * @param stage The stage
+     * @param exception The failure so far, or null
+     * @param invoked Whether the operation was called, rather than the call being rejected or abandoned
+     * @return true if the stage took over the call, so the outer stages must not run yet
+     */
+    private boolean after(Call<?> call, Stage stage, Throwable exception, boolean invoked) {
+        switch (stage) {
+            case TIMEOUT:
+                call.timeout.cancel();
+                if (!timeoutOutsideRetry) {
+                    call.timedOut = false;
+                }
+                return false;
+            case BREAKER:
+                if (invoked) {
+                    circuitBreaker.onCallComplete(call.permission, call.operationName, exception, call.startTime);
+                } else {
+                    circuitBreaker.releasePermission(call.permission);
+                }
+                return false;
+            case BULKHEAD:
+                bulkhead.release();
+                return false;
+            case RATE_LIMITER:
+                return false;
+            default:
+                if (exception == null || call.isDone() || call.timedOut) {
+                    return false;
+                }
+                long deadline = call.deadlineMillis;
+                if (timeoutOutsideRetry && (deadline == 0 || call.timeoutDeadline < deadline)) {
+                    deadline = call.timeoutDeadline;
+                }
+                long delay = retryManager.retryDelay(call.operationName, call.target, deadline,
+                                                     call.attemptNumber, exception);
+                if (delay < 0) {
+                    return false;
+                }
+                retryManager.scheduleRetry(call, delay);
+                return true;
+        }
+    }
+    
+    /**
+     * One call through the pipeline: the caller's future, the state of each stage, the callback of
+     * the attempt in flight and the retry task.
+     */
+    private final class Call<T> extends CompletableFuture<T> implements BiConsumer<T, Throwable>, Runnable {
+        private final Supplier<CompletableFuture<T>> operation;
+        private final String operationName;
+        private final String target;
+        private final long deadlineMillis;
+        private volatile CompletableFuture<T> attempt;
+        private int attemptNumber;
+        // Breaker stage
+        private int permission;
+        private long startTime;
+        // Timeout stage
+        private HashedWheelTimer.Timeout timeout;
+        private long timeoutDeadline;
+        private volatile boolean timedOut;
+        
+        Call(Supplier<CompletableFuture<T>> operation, String operationName, String target, long deadlineMillis) {
+            this.operation = operation;
+            this.operationName = operationName;
+            this.target = target;
+            this.deadlineMillis = deadlineMillis;
+        }
+        
+        /**
+         * Runs the stages from the given one inwards, then starts an attempt.
+         * @param from Index of the first stage to run
+         */
+        void enter(int from) {
+            if (deadlineMillis > 0 && System.currentTimeMillis() >= deadlineMillis) {
+                exit(from - 1, null, new TimeoutException("Deadline passed before calling " + name + " - " + operationName), false);
+                return;
+            }
+            for (int i = from; i < stages.length; i++) {
+                Throwable rejection = before(this, stages[i]);
+                if (rejection != null) {
+                    exit(i - 1, null, rejection, false);
+                    return;
+                }
+            }
+            
+            CompletableFuture<T> current;
+            try {
+                current = operation.get();
+            } catch (Exception e) {
+                exit(stages.length - 1, null, e, true);
+                return;
+            }
+            attempt = current;
+            if (timedOut || isCancelled()) {
+                // Timed out or cancelled before the attempt was published
+                current.cancel(false);
+            }
+            if (current.isDone() && !current.isCompletedExceptionally()) {
+                exit(stages.length - 1, current.getNow(null), null, true);
+            } else {
+                current.whenComplete(this);
+            }
+        }
+        
+        /**
+         * Completion of the attempt in flight.
+         */
+        @Override
+        public void accept(T value, Throwable exception) {
+            if (exception instanceof CancellationException && timedOut) {
+                exception = new TimeoutException("Timed out after " + timeoutMs + "ms: " + name + " - " + operationName);
+            }
+            exit(stages.length - 1, value, exception, true);
+        }
+        
+        /**
+         * Runs the stages from the given one outwards and completes the call, unless a stage takes it over.
+         * @param from Index of the first stage to run
+         * @param value The result, if the attempt succeeded
+         * @param exception The failure, or null
+         * @param invoked Whether the operation was called
+         */
+        void exit(int from, T value, Throwable exception, boolean invoked) {
+            for (int i = from; i >= 0; i--) {
+                if (after(this, stages[i], exception, invoked)) {
+                    return;
+                }
+            }
+            if (exception != null) {
+                completeExceptionally(exception);
+            } else {
+                complete(value);
+            }
+        }
+        
+        /**
+         * Starts the next attempt after a retry delay.
+         */
+        @Override
+        public void run() {
+            if (isDone()) {
+                exit(retryIndex - 1, null, new CancellationException(), false);
+                return;
+            }
+            if (retryManager.isShutdown()) {
+                exit(retryIndex - 1, null,
+                     new IllegalStateException("RetryManager shut down before retrying " + operationName), false);
+                return;
+            }
+            if (timedOut) {
+                exit(retryIndex - 1, null,
+                     new TimeoutException("Timed out after " + timeoutMs + "ms: " + name + " - " + operationName), true);
+                return;
+            }
+            attemptNumber++;
+            enter(retryIndex + 1);
+        }
+        
+        void onTimeout() {
+            timedOut = true;
+            CompletableFuture<T> current = attempt;
+            if (current != null) {
+                current.cancel(false);
+            }
+        }
+        
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            CompletableFuture<T> current = attempt;
+            if (current != null) {
+                current.cancel(false);
+            }
+            return cancelled;
+        }
+    }
+}
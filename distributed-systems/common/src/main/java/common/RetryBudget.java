@@ -0,0 +1,196 @@
+package common;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caps retries to a fraction of first attempts, so a struggling service does not get several
+ * times its normal traffic from retries. Every first attempt deposits a fraction of a token and
+ * every retry withdraws a whole one, both in a bucket for its target and in a global bucket.
+ * A small refill per second keeps a few retries possible when traffic is low. Lock-free; meant to
+ * be shared by all retry managers of a process.
+ */
+public class RetryBudget {
+    // Tokens are kept in thousandths so fractional deposits need no floating point
+    private static final long SCALE = 1000;
+    
+    private final long depositPerAttempt;
+    private final long maxTokens;
+    private final long minRetriesPerSecond;
+    private final Bucket global;
+    private final Map<String, Bucket> targets = new ConcurrentHashMap<>();
+    
+    /**
+     * Creates a retry budget.
+     * @param retryRatio Retries allowed per first attempt, e.g. 0.2 for one retry per five requests
+     * @param minRetriesPerSecond Retries allowed per second regardless of traffic, per bucket
+     * @param maxTokens Retries that can be saved up, per bucket
+     */
+    public RetryBudget(double retryRatio, int minRetriesPerSecond, int maxTokens) {
+        if (retryRatio < 0 || minRetriesPerSecond < 0 || maxTokens <= 0) {
+            throw new IllegalArgumentException("Invalid retry budget: ratio=" + retryRatio +
+                                               ", minRetriesPerSecond=" + minRetriesPerSecond +
+                                               ", maxTokens=" + maxTokens);
+        }
+        this.depositPerAttempt = Math.round(retryRatio * SCALE);
+        this.maxTokens = maxTokens * SCALE;
+        this.minRetriesPerSecond = minRetriesPerSecond;
+        this.global = new Bucket();
+    }
+    
+    /**
+     * Creates a retry budget from retry.budget.* properties.
+     * @param config Configuration properties
+     * @return The retry budget
+     */
+    public static RetryBudget fromConfig(Properties config) {
+        return new RetryBudget(
+            Double.parseDouble(config.getProperty("retry.budget.ratio", "0.2")),
+            Integer.parseInt(config.getProperty("retry.budget.min.per.second", "1")),
+            Integer.parseInt(config.getProperty("retry.budget.max.tokens", "20")));
+    }
+    
+    /**
+     * Records a first attempt, which earns retries for its target and globally.
+     * @param target Target of the attempt, such as a seller ID, or null for the global budget only
+     */
+    public void recordAttempt(String target) {
+        global.attempt();
+        if (target != null) {
+            bucket(target).attempt();
+        }
+    }
+    
+    /**
+     * Takes a retry from the target's and the global budget.
+     * @param target Target of the retry, or null for the global budget only
+     * @return true if the retry may go ahead
+     */
+    public boolean tryAcquireRetry(String target) {
+        long now = CoarseClock.millis();
+        Bucket bucket = target != null ? bucket(target) : null;
+        if (bucket != null && !bucket.tryWithdraw(now)) {
+            global.denied.increment();
+            return false;
+        }
+        if (!global.tryWithdraw(now)) {
+            if (bucket != null) {
+                // Give the target its token back; the retry did not happen
+                bucket.deposit(SCALE);
+                bucket.granted.decrement();
+                bucket.denied.increment();
+            }
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Gets the number of first attempts recorded.
+     * @return First attempts
+     */
+    public long getAttempts() {
+        return global.attempts.sum();
+    }
+    
+    /**
+     * Gets the number of retries the budget allowed.
+     * @return Allowed retries
+     */
+    public long getGrantedRetries() {
+        return global.granted.sum();
+    }
+    
+    /**
+     * Gets the number of retries the budget turned down.
+     * @return Denied retries
+     */
+    public long getDeniedRetries() {
+        return global.denied.sum();
+    }
+    
+    /**
+     * Gets retry budget statistics.
+     * @return Statistics string
+     */
+    public String getStats() {
+        return "RetryBudget[global]: " + global;
+    }
+    
+    /**
+     * Gets retry budget statistics per target.
+     * @return Statistics string by target
+     */
+    public Map<String, String> getTargetStats() {
+        Map<String, String> stats = new HashMap<>();
+        targets.forEach((target, bucket) -> stats.put(target, "RetryBudget[" + target + "]: " + bucket));
+        return stats;
+    }
+    
+    private Bucket bucket(String target) {
+        Bucket bucket = targets.get(target);
+        return bucket != null ? bucket : targets.computeIfAbsent(target, t -> new Bucket());
+    }
+    
+    /**
+     * Tokens for one target or the whole process, with its counters.
+     */
+    private final class Bucket {
+        private final AtomicLong tokens = new AtomicLong(maxTokens);
+        private final AtomicLong lastRefill = new AtomicLong(CoarseClock.millis());
+        private final LongAdder attempts = new LongAdder();
+        private final LongAdder granted = new LongAdder();
+        private final LongAdder denied = new LongAdder();
+        
+        void attempt() {
+            attempts.increment();
+            deposit(depositPerAttempt);
+        }
+        
+        boolean tryWithdraw(long now) {
+            refill(now);
+            while (true) {
+                long current = tokens.get();
+                if (current < SCALE) {
+                    denied.increment();
+                    return false;
+                }
+                if (tokens.compareAndSet(current, current - SCALE)) {
+                    granted.increment();
+                    return true;
+                }
+            }
+        }
+        
+        void deposit(long amount) {
+            while (true) {
+                long current = tokens.get();
+                if (current >= maxTokens) {
+                    return;
+                }
+                if (tokens.compareAndSet(current, Math.min(maxTokens, current + amount))) {
+                    return;
+                }
+            }
+        }
+        
+        private void refill(long now) {
+            long last = lastRefill.get();
+            // One retry per second is one thousandth of a token per millisecond
+            if (now > last && minRetriesPerSecond > 0 && lastRefill.compareAndSet(last, now)) {
+                deposit((now - last) * minRetriesPerSecond);
+            }
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("Tokens=%.1f/%d, Attempts=%d, Retries=%d, Denied=%d",
+                                 tokens.get() / (double) SCALE, maxTokens / SCALE,
+                                 attempts.sum(), granted.sum(), denied.sum());
+        }
+    }
+}
@@ -2,22 +2,26 @@ package common;
 
 import java.util.Random;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
 /**
  * Manages retry logic with exponential backoff for distributed operations.
  * Provides sophisticated retry mechanisms to handle transient failures.
+ * With a {@link RetryBudget}, retries are only made while the budget allows them. Operations with
+ * a deadline are not retried if the next attempt would start after it.
  */
 public class RetryManager {
     private final int maxRetries;
     private final long baseDelayMs;
     private final double backoffMultiplier;
     private final long maxDelayMs;
+    // Shared with other retry managers; null retries without limit
+    private final RetryBudget retryBudget;
     private final Random random = new Random();
-    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(4);
+    // Backoff delays only enqueue the next attempt, so a timing wheel thread is enough
+    private final HashedWheelTimer scheduler = new HashedWheelTimer("RetryManager-Backoff");
+    private volatile boolean shutdown = false;
     
     /**
      * Creates a retry manager with default settings.
@@ -34,87 +38,206 @@ public class RetryManager {
      * @param maxDelayMs Maximum delay between retries in milliseconds
      */
     public RetryManager(int maxRetries, long baseDelayMs, double backoffMultiplier, long maxDelayMs) {
+        this(maxRetries, baseDelayMs, backoffMultiplier, maxDelayMs, null);
+    }
+    
+    /**
+     * Creates a retry manager whose retries are limited by a retry budget.
+     * @param maxRetries Maximum number of retry attempts
+     * @param baseDelayMs Base delay between retries in milliseconds
+     * @param backoffMultiplier Multiplier for exponential backoff
+     * @param maxDelayMs Maximum delay between retries in milliseconds
+     * @param retryBudget Budget shared with other retry managers, or null for no limit
+     */
+    public RetryManager(int maxRetries, long baseDelayMs, double backoffMultiplier, long maxDelayMs,
+                        RetryBudget retryBudget) {
         this.maxRetries = maxRetries;
         this.baseDelayMs = baseDelayMs;
         this.backoffMultiplier = backoffMultiplier;
         this.maxDelayMs = maxDelayMs;
+        this.retryBudget = retryBudget;
     }
     
     /**
-     * Executes an operation with retry logic.
+     * Executes an operation with retry logic. Cancelling the returned future cancels the attempt
+     * in flight and stops further retries.
      * @param operation The operation to execute
      * @param operationName Name for logging purposes
      * @return CompletableFuture with the operation result
      */
     public <T> CompletableFuture<T> executeWithRetry(Supplier<CompletableFuture<T>> operation, 
                                                      String operationName) {
-        return executeWithRetry(operation, operationName, 0);
+        return executeWithRetry(operation, operationName, null);
     }
     
     /**
-     * Internal method to execute operation with retry logic.
+     * Executes an operation with retry logic, charging retries to the target's retry budget.
+     * Cancelling the returned future cancels the attempt in flight and stops further retries.
      * @param operation The operation to execute
      * @param operationName Name for logging purposes
-     * @param attemptNumber Current attempt number
+     * @param target Target the retry budget is kept for, such as a seller ID, or null for the global budget only
+     * @return CompletableFuture with the operation result
+     */
+    public <T> CompletableFuture<T> executeWithRetry(Supplier<CompletableFuture<T>> operation, 
+                                                     String operationName, String target) {
+        return executeWithRetry(operation, operationName, target, 0);
+    }
+    
+    /**
+     * Executes an operation with retry logic until a deadline, charging retries to the target's
+     * retry budget. Cancelling the returned future cancels the attempt in flight and stops further
+     * retries.
+     * @param operation The operation to execute
+     * @param operationName Name for logging purposes
+     * @param target Target the retry budget is kept for, such as a seller ID, or null for the global budget only
+     * @param deadlineMillis Epoch milliseconds after which no attempt is started, or 0 for none
      * @return CompletableFuture with the operation result
      */
-    private <T> CompletableFuture<T> executeWithRetry(Supplier<CompletableFuture<T>> operation, 
-                                                      String operationName, int attemptNumber) {
+    public <T> CompletableFuture<T> executeWithRetry(Supplier<CompletableFuture<T>> operation, 
+                                                     String operationName, String target, long deadlineMillis) {
+        recordAttempt(target);
         CompletableFuture<T> result = new CompletableFuture<>();
-        
+        executeWithRetry(operation, operationName, target, deadlineMillis, 0, result);
+        return result;
+    }
+    
+    /**
+     * Internal method to execute operation with retry logic.
+     * @param operation The operation to execute
+     * @param operationName Name for logging purposes
+     * @param target Target for the retry budget, or null
+     * @param deadlineMillis Deadline in epoch milliseconds, or 0
+     * @param attemptNumber Current attempt number
+     * @param result The future to complete with the final outcome
+     */
+    private <T> void executeWithRetry(Supplier<CompletableFuture<T>> operation, String operationName,
+                                      String target, long deadlineMillis, int attemptNumber,
+                                      CompletableFuture<T> result) {
+        CompletableFuture<T> attempt;
         try {
-            operation.get()
-                .whenComplete((value, exception) -> {
-                    if (exception != null) {
-                        handleFailure(operation, operationName, attemptNumber, exception, result);
-                    } else {
-                        result.complete(value);
-                    }
-                });
+            attempt = operation.get();
         } catch (Exception e) {
-            handleFailure(operation, operationName, attemptNumber, e, result);
+            handleFailure(operation, operationName, target, deadlineMillis, attemptNumber, e, result);
+            return;
         }
         
-        return result;
+        result.whenComplete((value, exception) -> {
+            if (result.isCancelled()) {
+                attempt.cancel(false);
+            }
+        });
+        attempt.whenComplete((value, exception) -> {
+            if (exception != null) {
+                handleFailure(operation, operationName, target, deadlineMillis, attemptNumber, exception, result);
+            } else {
+                result.complete(value);
+            }
+        });
     }
     
     /**
      * Handles operation failures and decides whether to retry.
      * @param operation The operation to potentially retry
      * @param operationName Name for logging purposes
+     * @param target Target for the retry budget, or null
+     * @param deadlineMillis Deadline in epoch milliseconds, or 0
      * @param attemptNumber Current attempt number
      * @param exception The exception that occurred
      * @param result The result future to complete
      */
     private <T> void handleFailure(Supplier<CompletableFuture<T>> operation, 
                                    String operationName, 
+                                   String target,
+                                   long deadlineMillis,
                                    int attemptNumber, 
                                    Throwable exception, 
                                    CompletableFuture<T> result) {
-        if (attemptNumber < maxRetries && isRetryableException(exception)) {
-            long delay = calculateDelay(attemptNumber);
-            System.out.println(String.format(
-                "Retry %d/%d for %s after %dms delay. Error: %s", 
-                attemptNumber + 1, maxRetries, operationName, delay, exception.getMessage()
+        if (result.isDone()) {
+            // Cancelled by the caller
+            return;
+        }
+        long delay = retryDelay(operationName, target, deadlineMillis, attemptNumber, exception);
+        if (delay < 0) {
+            result.completeExceptionally(exception);
+            return;
+        }
+        scheduler.newTimeout(() -> {
+            if (shutdown) {
+                result.completeExceptionally(new IllegalStateException("RetryManager shut down before retrying " + operationName));
+                return;
+            }
+            if (!result.isDone()) {
+                executeWithRetry(operation, operationName, target, deadlineMillis, attemptNumber + 1, result);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Decides whether a failed attempt is retried and takes the retry from the retry budget.
+     * @param operationName Name for logging purposes
+     * @param target Target for the retry budget, or null
+     * @param deadlineMillis Deadline in epoch milliseconds, or 0
+     * @param attemptNumber Number of the attempt that failed, starting at 0
+     * @param exception The exception that occurred
+     * @return Delay before the next attempt in milliseconds, or -1 if the operation is not retried
+     */
+    long retryDelay(String operationName, String target, long deadlineMillis, int attemptNumber, Throwable exception) {
+        boolean retryable = attemptNumber < maxRetries && isRetryableException(exception) && !shutdown;
+        long delay = retryable ? calculateDelay(attemptNumber) : 0;
+        if (retryable && deadlineMillis > 0 && System.currentTimeMillis() + delay >= deadlineMillis) {
+            System.err.println(String.format(
+                "Not retrying %s after %d attempts, the next attempt would start past its deadline. Error: %s",
+                operationName, attemptNumber + 1, exception.getMessage()
             ));
-            
-            scheduler.schedule(() -> {
-                executeWithRetry(operation, operationName, attemptNumber + 1)
-                    .whenComplete((value, retryException) -> {
-                        if (retryException != null) {
-                            result.completeExceptionally(retryException);
-                        } else {
-                            result.complete(value);
-                        }
-                    });
-            }, delay, TimeUnit.MILLISECONDS);
-        } else {
+            return -1;
+        }
+        if (retryable && retryBudget != null && !retryBudget.tryAcquireRetry(target)) {
+            System.err.println(String.format(
+                "Retry budget exhausted, not retrying %s after %d attempts. Error: %s",
+                operationName, attemptNumber + 1, exception.getMessage()
+            ));
+            return -1;
+        }
+        if (!retryable) {
             System.err.println(String.format(
                 "Operation %s failed after %d attempts. Final error: %s", 
                 operationName, attemptNumber + 1, exception.getMessage()
             ));
-            result.completeExceptionally(exception);
+            return -1;
         }
+        System.out.println(String.format(
+            "Retry %d/%d for %s after %dms delay. Error: %s", 
+            attemptNumber + 1, maxRetries, operationName, delay, exception.getMessage()
+        ));
+        return delay;
+    }
+    
+    /**
+     * Records a first attempt with the retry budget, if there is one.
+     * @param target Target for the retry budget, or null
+     */
+    void recordAttempt(String target) {
+        if (retryBudget != null) {
+            retryBudget.recordAttempt(target);
+        }
+    }
+    
+    /**
+     * Runs a task after a retry delay on the backoff timer. If the retry manager shuts down first,
+     * the task runs right away; it must check {@link #isShutdown()}.
+     * @param task The task
+     * @param delayMs Delay in milliseconds
+     */
+    void scheduleRetry(Runnable task, long delayMs) {
+        scheduler.newTimeout(task, delayMs, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Checks whether the retry manager was shut down.
+     * @return true after {@link #shutdown()}
+     */
+    boolean isShutdown() {
+        return shutdown;
     }
     
     /**
@@ -150,14 +273,9 @@ public class RetryManager {
      * Shuts down the retry manager.
      */
     public void shutdown() {
-        scheduler.shutdown();
-        try {
-            if (!scheduler.awaitTermination(10, TimeUnit.SECONDS)) {
-                scheduler.shutdownNow();
-            }
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        }
+        shutdown = true;
+        // Fail the operations still waiting for their next attempt
+        scheduler.stop().forEach(Runnable::run);
     }
     
     /**
@@ -168,6 +286,14 @@ public class RetryManager {
         return maxRetries;
     }
     
+    /**
+     * Gets the retry budget.
+     * @return The shared retry budget, or null if retries are not limited
+     */
+    public RetryBudget getRetryBudget() {
+        return retryBudget;
+    }
+    
     /**
      * Gets the base delay configured.
      * @return Base delay in milliseconds
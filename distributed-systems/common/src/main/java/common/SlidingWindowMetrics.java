@@ -0,0 +1,229 @@
+package common;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Call outcomes over a sliding window, either the last N seconds or the last N calls.
+ * Recording is lock-free and, once the striped counters have grown to the level of contention,
+ * allocation-free. The time-based window is a ring of one-second buckets; the first call in a new
+ * second claims its bucket with a CAS and clears it. The count-based window is a ring of outcomes
+ * with running totals. Both may be off by a few calls that race with a bucket or slot change,
+ * which does not matter for rates.
+ */
+final class SlidingWindowMetrics {
+    private static final long BUCKET_MS = 1000;
+    // Bucket epoch while its claimer clears the counters
+    private static final long CLEARING = -1;
+    private static final int RECORDED = 1;
+    private static final int FAILED = 2;
+    private static final int SLOW = 4;
+    
+    private final boolean timeBased;
+    private final int size;
+    
+    // Time-based: per-bucket epoch (second since the epoch) and counters
+    private final AtomicLongArray bucketEpochs;
+    private final LongAdder[] bucketCalls;
+    private final LongAdder[] bucketFailures;
+    private final LongAdder[] bucketSlowCalls;
+    
+    // Count-based: outcome flags per slot and totals over the ring
+    private final AtomicIntegerArray outcomes;
+    private final AtomicLong nextSlot;
+    private final LongAdder totalCalls;
+    private final LongAdder totalFailures;
+    private final LongAdder totalSlowCalls;
+    
+    /**
+     * Creates a window.
+     * @param timeBased true for the last size seconds, false for the last size calls
+     * @param size Window length in seconds or calls
+     */
+    SlidingWindowMetrics(boolean timeBased, int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Window size must be positive: " + size);
+        }
+        this.timeBased = timeBased;
+        this.size = size;
+        if (timeBased) {
+            bucketEpochs = new AtomicLongArray(size);
+            bucketCalls = newAdders(size);
+            bucketFailures = newAdders(size);
+            bucketSlowCalls = newAdders(size);
+            outcomes = null;
+            nextSlot = null;
+            totalCalls = totalFailures = totalSlowCalls = null;
+        } else {
+            bucketEpochs = null;
+            bucketCalls = bucketFailures = bucketSlowCalls = null;
+            outcomes = new AtomicIntegerArray(size);
+            nextSlot = new AtomicLong();
+            totalCalls = new LongAdder();
+            totalFailures = new LongAdder();
+            totalSlowCalls = new LongAdder();
+        }
+    }
+    
+    /**
+     * Records one call.
+     * @param nowMillis Current time, from {@link CoarseClock}
+     * @param failed Whether the call failed
+     * @param slow Whether the call took longer than the slow-call threshold
+     */
+    void record(long nowMillis, boolean failed, boolean slow) {
+        if (timeBased) {
+            int index = claimBucket(nowMillis / BUCKET_MS);
+            bucketCalls[index].increment();
+            if (failed) {
+                bucketFailures[index].increment();
+            }
+            if (slow) {
+                bucketSlowCalls[index].increment();
+            }
+            return;
+        }
+        
+        int outcome = RECORDED | (failed ? FAILED : 0) | (slow ? SLOW : 0);
+        int previous = outcomes.getAndSet((int) (nextSlot.getAndIncrement() % size), outcome);
+        if ((previous & RECORDED) == 0) {
+            totalCalls.increment();
+        }
+        adjust(totalFailures, previous & FAILED, outcome & FAILED);
+        adjust(totalSlowCalls, previous & SLOW, outcome & SLOW);
+    }
+    
+    /**
+     * Checks whether the window holds enough calls and one of the rates reached its threshold.
+     * @param nowMillis Current time, from {@link CoarseClock}
+     * @param minimumCalls Calls needed before rates are considered
+     * @param failureRateThreshold Failure rate in percent that trips, or more than 100 to ignore
+     * @param slowCallRateThreshold Slow-call rate in percent that trips, or more than 100 to ignore
+     * @return true if a threshold is reached
+     */
+    boolean exceedsThresholds(long nowMillis, int minimumCalls, float failureRateThreshold,
+                              float slowCallRateThreshold) {
+        long calls;
+        long failures;
+        long slowCalls;
+        if (timeBased) {
+            long current = nowMillis / BUCKET_MS;
+            calls = failures = slowCalls = 0;
+            for (int i = 0; i < size; i++) {
+                if (isInWindow(bucketEpochs.get(i), current)) {
+                    calls += bucketCalls[i].sum();
+                    failures += bucketFailures[i].sum();
+                    slowCalls += bucketSlowCalls[i].sum();
+                }
+            }
+        } else {
+            calls = totalCalls.sum();
+            failures = totalFailures.sum();
+            slowCalls = totalSlowCalls.sum();
+        }
+        if (calls < minimumCalls || calls == 0) {
+            return false;
+        }
+        return failures * 100f >= failureRateThreshold * calls || slowCalls * 100f >= slowCallRateThreshold * calls;
+    }
+    
+    /**
+     * Gets the number of calls in the window.
+     * @param nowMillis Current time
+     * @return Calls
+     */
+    long getCalls(long nowMillis) {
+        return timeBased ? sum(bucketCalls, nowMillis) : totalCalls.sum();
+    }
+    
+    /**
+     * Gets the number of failed calls in the window.
+     * @param nowMillis Current time
+     * @return Failed calls
+     */
+    long getFailures(long nowMillis) {
+        return timeBased ? sum(bucketFailures, nowMillis) : totalFailures.sum();
+    }
+    
+    /**
+     * Gets the number of slow calls in the window.
+     * @param nowMillis Current time
+     * @return Slow calls
+     */
+    long getSlowCalls(long nowMillis) {
+        return timeBased ? sum(bucketSlowCalls, nowMillis) : totalSlowCalls.sum();
+    }
+    
+    /**
+     * Forgets all recorded calls. Calls recorded concurrently may survive.
+     */
+    void reset() {
+        if (timeBased) {
+            for (int i = 0; i < size; i++) {
+                bucketEpochs.set(i, 0);
+            }
+            return;
+        }
+        for (int i = 0; i < size; i++) {
+            int previous = outcomes.getAndSet(i, 0);
+            if ((previous & RECORDED) != 0) {
+                totalCalls.decrement();
+            }
+            adjust(totalFailures, previous & FAILED, 0);
+            adjust(totalSlowCalls, previous & SLOW, 0);
+        }
+    }
+    
+    private int claimBucket(long epoch) {
+        int index = (int) (epoch % size);
+        while (true) {
+            long bucketEpoch = bucketEpochs.get(index);
+            if (bucketEpoch == epoch) {
+                return index;
+            }
+            if (bucketEpoch == CLEARING) {
+                Thread.onSpinWait();
+            } else if (bucketEpoch > epoch) {
+                // A newer second already took the bucket; count the call there
+                return index;
+            } else if (bucketEpochs.compareAndSet(index, bucketEpoch, CLEARING)) {
+                bucketCalls[index].reset();
+                bucketFailures[index].reset();
+                bucketSlowCalls[index].reset();
+                bucketEpochs.set(index, epoch);
+                return index;
+            }
+        }
+    }
+    
+    private boolean isInWindow(long bucketEpoch, long current) {
+        return bucketEpoch > current - size && bucketEpoch <= current;
+    }
+    
+    private long sum(LongAdder[] counters, long nowMillis) {
+        long current = nowMillis / BUCKET_MS;
+        long total = 0;
+        for (int i = 0; i < size; i++) {
+            if (isInWindow(bucketEpochs.get(i), current)) {
+                total += counters[i].sum();
+            }
+        }
+        return total;
+    }
+    
+    private static void adjust(LongAdder total, int before, int after) {
+        if (before != after) {
+            total.add(after != 0 ? 1 : -1);
+        }
+    }
+    
+    private static LongAdder[] newAdders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+}
@@ -1,106 +1,310 @@
 package marketplace;
 
-import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
 import common.Message;
+import common.MessageCodec;
+import common.MessageTypeAdapter;
+import common.ResiliencePipeline;
+import common.RetryBudget;
 import common.RetryManager;
 import common.CircuitBreaker;
+import common.HashedWheelTimer;
+import common.IdGenerators;
 import org.zeromq.SocketType;
 import org.zeromq.ZContext;
 import org.zeromq.ZMQ;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Supplier;
 
 public class AsyncMessageBroker {
+    private static final int MAX_SEND_BATCH = 256;
+    private static final int MAX_RECEIVE_BATCH = 256;
+    private static final byte[] WAKEUP = new byte[0];
+    
     private final Properties config;
     private final Map<String, String> sellerEndpoints;
     private final ZContext context;
-    private final Gson gson;
     private final RetryManager retryManager;
+    // Shared with the saga orchestrator's retries
+    private final RetryBudget retryBudget;
     private final Map<String, CircuitBreaker> circuitBreakers;
+    // Retry, timeout, limits and circuit breaker around the requests to each seller
+    private final Map<String, ResiliencePipeline> pipelines;
     
-    // Router-Dealer pattern for async messaging
+    // Router-Dealer pattern for async messaging. Only the I/O thread uses the ROUTER socket;
+    // other threads hand it messages through the send queue and wake it over an inproc PAIR
     private ZMQ.Socket routerSocket;
-    private final Map<String, CompletableFuture<Message>> pendingRequests;
-    private final ExecutorService messageExecutor;
-    private final ScheduledExecutorService timeoutScheduler;
+    private ZMQ.Socket wakeupSender;
+    private ZMQ.Socket wakeupReceiver;
+    private final Queue<OutboundMessage> sendQueue = new ConcurrentLinkedQueue<>();
+    // Sends to sellers whose pipe was full; only touched by the I/O thread
+    private final Deque<OutboundMessage> deferredSends = new ArrayDeque<>();
+    // Set by the first producer after the I/O thread last drained the queue; later producers skip the signal
+    private final AtomicBoolean wakeupPending = new AtomicBoolean(false);
+    private final Map<String, PendingRequest> pendingRequests;
+    private final HashedWheelTimer timeoutTimer;
     private final ScheduledExecutorService heartbeatScheduler;
     
     private volatile boolean running = false;
-    private Thread receiverThread;
+    private Thread ioThread;
     private final int routerPort;
-    
+    // Parsed once per config load instead of on every send
+    private volatile int requestTimeoutMs;
+    // Binary codec version each seller advertised in its last heartbeat; absent or 0 means JSON only
+    private final boolean binaryCodecEnabled;
+    private final Map<String, Integer> sellerCodecVersions = new ConcurrentHashMap<>();
+    // Receives replies to requests the caller cancelled or that timed out after they went out
+    private volatile LateResponseHandler lateResponseHandler;
+    // Requests given up on while their reply may still come, kept for lateReplyGraceMs
+    private final Map<String, PendingRequest> abandonedRequests = new ConcurrentHashMap<>();
+    private final long lateReplyGraceMs;
+
     public AsyncMessageBroker(Properties config) {
         this.config = config;
         this.context = new ZContext();
-        this.gson = new Gson();
         this.pendingRequests = new ConcurrentHashMap<>();
-        this.messageExecutor = Executors.newFixedThreadPool(10);
-        this.timeoutScheduler = Executors.newSingleThreadScheduledExecutor();
+        this.timeoutTimer = new HashedWheelTimer("MessageBroker-Timeouts");
         this.heartbeatScheduler = Executors.newSingleThreadScheduledExecutor();
-        this.retryManager = new RetryManager();
+        this.retryBudget = RetryBudget.fromConfig(config);
+        this.retryManager = new RetryManager(3, 1000, 2.0, 30000, retryBudget);
         this.circuitBreakers = new ConcurrentHashMap<>();
+        this.pipelines = new ConcurrentHashMap<>();
         this.routerPort = Integer.parseInt(config.getProperty("marketplace.router.port", "5555"));
-        
+        this.requestTimeoutMs = parseRequestTimeout(config);
+        // The default matches the seller's reservation timeout; a hold older than that has expired anyway
+        this.lateReplyGraceMs = Long.parseLong(config.getProperty("request.late.reply.grace.ms", "300000"));
+        this.binaryCodecEnabled = Boolean.parseBoolean(config.getProperty("marketplace.codec.binary.enabled", "true"));
+
         // Configure seller endpoints - not needed for ROUTER binding
         this.sellerEndpoints = new HashMap<>();
         System.out.println("AsyncMessageBroker initialized with router port: " + routerPort);
     }
     
+    /**
+     * Applies a reloaded configuration. Only the request timeout can change at runtime;
+     * the router port stays bound.
+     * @param newConfig Configuration properties
+     */
+    public void applyConfig(Properties newConfig) {
+        int timeoutMs = parseRequestTimeout(newConfig);
+        if (timeoutMs != requestTimeoutMs) {
+            System.out.println("Request timeout changed from " + requestTimeoutMs + "ms to " + timeoutMs + "ms");
+            requestTimeoutMs = timeoutMs;
+        }
+    }
+    
+    private static int parseRequestTimeout(Properties config) {
+        int timeoutMs = Integer.parseInt(config.getProperty("request.timeout.ms", "5000"));
+        if (timeoutMs <= 0) {
+            throw new IllegalArgumentException("request.timeout.ms must be positive: " + timeoutMs);
+        }
+        return timeoutMs;
+    }
+    
+    /**
+     * Sets the handler for replies that arrive after their request was cancelled or timed out. A
+     * cancelled request that is still queued is never sent; one already sent may have taken effect
+     * at the seller, and its reply is passed here instead of being dropped, as long as it arrives
+     * within request.late.reply.grace.ms. Runs on the I/O thread.
+     * @param handler Called with the seller ID, the request type and the reply
+     */
+    public void setLateResponseHandler(LateResponseHandler handler) {
+        this.lateResponseHandler = handler;
+    }
+    
     public void start() {
         if (running) return;
         
-        running = true;
-        
         // Create ROUTER socket for async communication
         routerSocket = context.createSocket(SocketType.ROUTER);
         routerSocket.setIdentity(UUID.randomUUID().toString().getBytes());
-        
+        // Report full or unknown peers instead of silently dropping the message
+        routerSocket.setRouterMandatory(true);
+
         // Bind ROUTER socket - sellers will connect to us
         String bindAddress = "tcp://*:" + routerPort;
         routerSocket.bind(bindAddress);
         System.out.println("MessageBroker ROUTER socket bound to " + bindAddress);
         
-        // Start receiver thread
-        receiverThread = new Thread(this::receiveLoop, "MessageBroker-Receiver");
-        receiverThread.start();
+        String wakeupEndpoint = "inproc://broker-wakeup-" + System.identityHashCode(this);
+        wakeupReceiver = context.createSocket(SocketType.PAIR);
+        wakeupReceiver.bind(wakeupEndpoint);
+        wakeupSender = context.createSocket(SocketType.PAIR);
+        wakeupSender.connect(wakeupEndpoint);
+        
+        // Start the I/O thread that owns the ROUTER socket from here on
+        running = true;
+        ioThread = new Thread(this::ioLoop, "MessageBroker-IO");
+        ioThread.start();
         
         // Start heartbeat monitoring
         startHeartbeatMonitoring();
     }
     
-    private void receiveLoop() {
-        ZMQ.Poller poller = context.createPoller(1);
-        poller.register(routerSocket, ZMQ.Poller.POLLIN);
+    private void ioLoop() {
+        ZMQ.Poller poller = context.createPoller(2);
+        int routerIndex = poller.register(routerSocket, ZMQ.Poller.POLLIN);
+        int wakeupIndex = poller.register(wakeupReceiver, ZMQ.Poller.POLLIN);
         
         while (running) {
-            if (poller.poll(1000) > 0) {
-                if (poller.pollin(0)) {
-                    // Receive multipart message [identity, empty, message]
-                    byte[] identity = routerSocket.recv();
-                    byte[] empty = routerSocket.recv();
-                    byte[] messageBytes = routerSocket.recv();
-                    
-                    if (messageBytes != null) {
-                        try {
-                            String messageJson = new String(messageBytes, ZMQ.CHARSET);
-                            Message response = gson.fromJson(messageJson, Message.class);
-                            
-                            // Complete the pending future
-                            CompletableFuture<Message> future = pendingRequests.remove(response.getCorrelationId());
-                            if (future != null) {
-                                future.complete(response);
-                            }
-                        } catch (Exception e) {
-                            System.err.println("Error processing response: " + e.getMessage());
+            // Don't block while the previous batch left sends in the queue; back off briefly
+            // while only sends to full pipes are waiting
+            poller.poll(!sendQueue.isEmpty() ? 0 : !deferredSends.isEmpty() ? 1 : 1000);
+            
+            if (poller.pollin(wakeupIndex)) {
+                while (wakeupReceiver.recv(ZMQ.DONTWAIT) != null) {
+                    // Drain signals; one wakeup covers everything queued so far
+                }
+            }
+            if (poller.pollin(routerIndex)) {
+                receiveBatch();
+            }
+            sendBatch();
+        }
+        
+        poller.close();
+        routerSocket.close();
+        wakeupReceiver.close();
+    }
+    
+    /**
+     * Reads the responses that are already waiting, up to one batch.
+     */
+    private void receiveBatch() {
+        for (int i = 0; i < MAX_RECEIVE_BATCH; i++) {
+            // Receive multipart message [identity, empty, message]
+            byte[] identity = routerSocket.recv(ZMQ.DONTWAIT);
+            if (identity == null) {
+                return;
+            }
+            byte[] empty = routerSocket.recv();
+            byte[] messageBytes = routerSocket.recv();
+            
+            if (messageBytes != null) {
+                try {
+                    Message response;
+                    if (MessageCodec.isBinary(messageBytes)) {
+                        response = MessageCodec.decode(messageBytes);
+                    } else {
+                        response = MessageTypeAdapter.fromJsonBytes(messageBytes);
+                        if ("HEARTBEAT".equals(response.getType()) && response.getCorrelationId() == null) {
+                            onSellerHeartbeat(new String(identity, ZMQ.CHARSET), messageBytes);
+                            continue;
                         }
                     }
+                    if (response.getCorrelationId() == null) {
+                        continue;
+                    }
+                    
+                    // Complete the pending future
+                    PendingRequest request = pendingRequests.remove(response.getCorrelationId());
+                    if (request != null) {
+                        // Cancelled just now, before it could be moved to the abandoned requests
+                        request = !request.complete(response) && request.isCancelled() ? request : null;
+                    } else {
+                        request = abandonedRequests.remove(response.getCorrelationId());
+                    }
+                    LateResponseHandler handler = lateResponseHandler;
+                    if (request != null && handler != null) {
+                        handler.onLateResponse(new String(identity, ZMQ.CHARSET), request.type, response);
+                    }
+                } catch (Exception e) {
+                    System.err.println("Error processing response: " + e.getMessage());
                 }
             }
         }
+    }
+    
+    /**
+     * Records which codec a seller accepts. Sellers send a JSON heartbeat when they connect and every
+     * 30 seconds after; a restarted seller without binary support drops back to JSON this way.
+     * @param sellerId Identity of the seller
+     * @param heartbeatJson The heartbeat frame
+     */
+    private void onSellerHeartbeat(String sellerId, byte[] heartbeatJson) {
+        // Rare enough that the field common.Message lacks is looked up in a throwaway tree
+        JsonElement advertised = JsonParser.parseString(new String(heartbeatJson, ZMQ.CHARSET))
+            .getAsJsonObject().get("codecVersion");
+        int version = advertised != null && !advertised.isJsonNull() ? advertised.getAsInt() : 0;
+        Integer previous = sellerCodecVersions.put(sellerId, version);
+        if (previous == null || previous != version) {
+            System.out.println("Seller " + sellerId + " accepts " +
+                               (version > 0 ? "binary codec v" + version : "JSON only"));
+        }
+    }
+    
+    /**
+     * Encodes a request in the most compact format the seller accepts.
+     * @param sellerId The target seller
+     * @param request The request
+     * @return The frame
+     */
+    private byte[] encodeFor(String sellerId, Message request) {
+        // Deadlines need version 2; other messages are the same in version 1
+        int requiredVersion = request.getDeadline() > 0 ? MessageCodec.VERSION : 1;
+        if (binaryCodecEnabled && sellerCodecVersions.getOrDefault(sellerId, 0) >= requiredVersion) {
+            return MessageCodec.encode(request);
+        }
+        return MessageTypeAdapter.toJsonBytes(request);
+    }
+    
+    /**
+     * Writes queued requests to the ROUTER socket, up to one batch.
+     */
+    private void sendBatch() {
+        // Clear before draining so a producer that enqueues after the drain signals again
+        wakeupPending.set(false);
         
-        poller.close();
+        // Earlier sends go first so requests to one seller keep their order
+        int deferred = deferredSends.size();
+        for (int i = 0; i < deferred; i++) {
+            trySend(deferredSends.poll());
+        }
+        
+        OutboundMessage message;
+        int sent = 0;
+        while (sent < MAX_SEND_BATCH && (message = sendQueue.poll()) != null) {
+            if (trySend(message)) {
+                sent++;
+            }
+        }
+    }
+    
+    private boolean trySend(OutboundMessage message) {
+        if (message.future.isDone()) {
+            // Timed out or cancelled while queued
+            return false;
+        }
+        try {
+            if (!routerSocket.send(message.identity, ZMQ.SNDMORE | ZMQ.DONTWAIT)) {
+                // The seller's pipe is at its high-water mark; try again on the next pass
+                deferredSends.add(message);
+                return false;
+            }
+            routerSocket.send("", ZMQ.SNDMORE);
+            routerSocket.send(message.payload, 0);
+            return true;
+        } catch (Exception e) {
+            // Host unreachable: the seller is not connected
+            pendingRequests.remove(message.correlationId, message.future);
+            message.future.completeExceptionally(e);
+            return false;
+        }
+    }
+    
+    private void enqueueSend(OutboundMessage message) {
+        sendQueue.offer(message);
+        if (wakeupPending.compareAndSet(false, true)) {
+            synchronized (wakeupSender) {
+                if (running) {
+                    wakeupSender.send(WAKEUP, ZMQ.DONTWAIT);
+                }
+            }
+        }
     }
     
     public CompletableFuture<Message> sendAsyncRequest(String sellerId, Message request) {
@@ -108,102 +312,125 @@ public class AsyncMessageBroker {
     }
     
     public CompletableFuture<Message> sendAsyncRequestWithRetry(String sellerId, Message request, String operationName) {
-        CircuitBreaker circuitBreaker = getOrCreateCircuitBreaker(sellerId);
-        
-        return circuitBreaker.execute(() -> {
-            return retryManager.executeWithRetry(() -> {
-                return sendAsyncRequestInternal(sellerId, request);
-            }, operationName);
-        }, operationName);
+        // Retries and the request timeout all end at the request's deadline, if it has one
+        return getOrCreatePipeline(sellerId).execute(() -> sendAsyncRequestInternal(sellerId, request),
+                                                     operationName, sellerId, request.getDeadline());
     }
     
     private CompletableFuture<Message> sendAsyncRequestInternal(String sellerId, Message request) {
-        CompletableFuture<Message> future = new CompletableFuture<>();
+        if (!running) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Broker is not running"));
+        }
+        long remainingMs = request.getDeadline() - System.currentTimeMillis();
+        if (request.getDeadline() > 0 && remainingMs <= 0) {
+            return CompletableFuture.failedFuture(new TimeoutException("Deadline passed before sending to " + sellerId));
+        }
+        
+        PendingRequest future = new PendingRequest(request.getType());
         String correlationId = request.getCorrelationId();
         if (correlationId == null) {
-            correlationId = UUID.randomUUID().toString();
+            correlationId = IdGenerators.next();
             request.setCorrelationId(correlationId);
         }
         
         // Ensure request has a message ID for idempotency
         if (request.getMessageId() == null) {
-            request.setMessageId(UUID.randomUUID().toString());
+            request.setMessageId(IdGenerators.next());
         }
         
-        // Schedule timeout first (optimized approach)
-        int timeoutMs = Integer.parseInt(config.getProperty("request.timeout.ms", "5000"));
+        // Registered before the timeout is scheduled, so a timeout that fires at once still clears it.
+        // A retry takes over from the attempt given up on, and receives its reply
+        pendingRequests.put(correlationId, future);
+        abandonedRequests.remove(correlationId);
+        
+        // Never wait past the deadline
+        long timeoutMs = request.getDeadline() > 0 ? Math.min(requestTimeoutMs, remainingMs) : requestTimeoutMs;
+        // Retries reuse the correlation ID, so this attempt's timeout only clears its own entry
         String finalCorrelationId = correlationId;
-        ScheduledFuture<?> timeoutFuture = timeoutScheduler.schedule(() -> {
-            CompletableFuture<Message> pendingFuture = pendingRequests.remove(finalCorrelationId);
-            if (pendingFuture != null) {
-                pendingFuture.completeExceptionally(
-                    new TimeoutException("Request to " + sellerId + " timed out after " + timeoutMs + "ms")
-                );
-            }
+        HashedWheelTimer.Timeout timeout = timeoutTimer.newTimeout(() -> {
+            abandon(finalCorrelationId, future);
+            future.completeExceptionally(
+                new TimeoutException("Request to " + sellerId + " timed out after " + timeoutMs + "ms")
+            );
         }, timeoutMs, TimeUnit.MILLISECONDS);
         
-        // Store future with its timeout task for potential cancellation
-        pendingRequests.put(correlationId, future);
-        
-        // Send request
-        final String finalCorrelationId2 = correlationId;
-        messageExecutor.execute(() -> {
-            try {
-                String messageJson = gson.toJson(request);
-                byte[] sellerIdentity = sellerId.getBytes(ZMQ.CHARSET);
-                
-                synchronized (routerSocket) {
-                    routerSocket.send(sellerIdentity, ZMQ.SNDMORE);
-                    routerSocket.send("", ZMQ.SNDMORE);
-                    routerSocket.send(messageJson.getBytes(ZMQ.CHARSET), 0);
-                }
-                
-                System.out.println("Sent request to " + sellerId + " with correlation ID: " + finalCorrelationId2);
-                
-                // Add hook to cancel timeout when future completes
-                future.whenComplete((result, ex) -> {
-                    if (!timeoutFuture.isDone()) {
-                        timeoutFuture.cancel(false);
-                    }
-                });
-                
-            } catch (Exception e) {
-                future.completeExceptionally(e);
-                pendingRequests.remove(finalCorrelationId2);
+        // Add hook to cancel timeout when future completes. A cancelled request may already be at
+        // the seller, so its reply still reaches the late-response handler
+        future.whenComplete((result, ex) -> {
+            timeout.cancel();
+            if (future.isCancelled()) {
+                abandon(finalCorrelationId, future);
             }
         });
         
+        // Serialize on the caller's thread; the I/O thread only writes bytes
+        try {
+            byte[] payload = encodeFor(sellerId, request);
+            enqueueSend(new OutboundMessage(sellerId.getBytes(ZMQ.CHARSET), payload, correlationId, future));
+            System.out.println("Queued request to " + sellerId + " with correlation ID: " + correlationId);
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+            pendingRequests.remove(correlationId, future);
+        }
+        
         return future;
     }
     
+    /**
+     * Moves a request that is still waiting for its reply to the abandoned requests.
+     * @param correlationId The request's correlation ID
+     * @param request The attempt given up on; a later attempt's entry is left alone
+     */
+    private void abandon(String correlationId, PendingRequest request) {
+        // Added first, so a reply racing the removal finds the request in one map or the other
+        abandonedRequests.put(correlationId, request);
+        if (!pendingRequests.remove(correlationId, request)) {
+            abandonedRequests.remove(correlationId, request);
+            return;
+        }
+        timeoutTimer.newTimeout(() -> abandonedRequests.remove(correlationId, request),
+                                lateReplyGraceMs, TimeUnit.MILLISECONDS);
+    }
+    
     private CircuitBreaker getOrCreateCircuitBreaker(String sellerId) {
         return circuitBreakers.computeIfAbsent(sellerId, 
-            id -> new CircuitBreaker(id, 5, 30000, 3));
+            id -> CircuitBreaker.fromConfig(id, config));
+    }
+    
+    private ResiliencePipeline getOrCreatePipeline(String sellerId) {
+        ResiliencePipeline pipeline = pipelines.get(sellerId);
+        return pipeline != null ? pipeline : pipelines.computeIfAbsent(sellerId,
+            id -> ResiliencePipeline.fromConfig(id, config, getOrCreateCircuitBreaker(id), retryManager, timeoutTimer));
     }
     
     private void startHeartbeatMonitoring() {
         heartbeatScheduler.scheduleAtFixedRate(() -> {
             // Send heartbeat to all connected sellers to check connectivity
             // This is optional - sellers send heartbeats to us
-            System.out.println("Heartbeat monitoring active. Pending requests: " + pendingRequests.size());
+            System.out.println("Heartbeat monitoring active. Pending requests: " + pendingRequests.size() +
+                             ". " + retryBudget.getStats());
         }, 30, 30, TimeUnit.SECONDS);
     }
     
     public void shutdown() {
         running = false;
         
+        // Wake the I/O thread so it sees the flag without waiting for the poll timeout
+        if (wakeupSender != null) {
+            synchronized (wakeupSender) {
+                wakeupSender.send(WAKEUP, ZMQ.DONTWAIT);
+            }
+        }
+        
         // Shutdown executors
-        messageExecutor.shutdown();
-        timeoutScheduler.shutdown();
+        timeoutTimer.stop();
         heartbeatScheduler.shutdown();
         retryManager.shutdown();
         
         try {
-            if (receiverThread != null) {
-                receiverThread.join(5000);
+            if (ioThread != null) {
+                ioThread.join(5000);
             }
-            messageExecutor.awaitTermination(5, TimeUnit.SECONDS);
-            timeoutScheduler.awaitTermination(5, TimeUnit.SECONDS);
             heartbeatScheduler.awaitTermination(5, TimeUnit.SECONDS);
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
@@ -214,10 +441,15 @@ public class AsyncMessageBroker {
             future.completeExceptionally(new RuntimeException("Broker shutdown"))
         );
         pendingRequests.clear();
+        abandonedRequests.clear();
+        sendQueue.clear();
+        deferredSends.clear();
         
-        // Close sockets
-        if (routerSocket != null) {
-            routerSocket.close();
+        // The I/O thread closed the ROUTER socket on exit
+        if (wakeupSender != null) {
+            synchronized (wakeupSender) {
+                wakeupSender.close();
+            }
         }
         context.close();
         
@@ -230,7 +462,67 @@ public class AsyncMessageBroker {
         return stats;
     }
     
+    public Map<String, String> getPipelineStats() {
+        Map<String, String> stats = new HashMap<>();
+        pipelines.forEach((sellerId, pipeline) -> stats.put(sellerId, pipeline.getStats()));
+        return stats;
+    }
+    
+    public Map<String, String> getRetryBudgetStats() {
+        Map<String, String> stats = retryBudget.getTargetStats();
+        stats.put("global", retryBudget.getStats());
+        return stats;
+    }
+    
+    /**
+     * Gets the retry budget shared by all retries of this marketplace.
+     * @return The retry budget
+     */
+    public RetryBudget getRetryBudget() {
+        return retryBudget;
+    }
+    
     public int getPendingRequestCount() {
         return pendingRequests.size();
     }
+    
+    /**
+     * Receives replies that arrive after their request was given up on.
+     */
+    public interface LateResponseHandler {
+        /**
+         * @param sellerId The seller that replied
+         * @param requestType Type of the request the reply answers
+         * @param response The reply
+         */
+        void onLateResponse(String sellerId, String requestType, Message response);
+    }
+    
+    /**
+     * Future of a sent request, remembering the request type for the late-response handler.
+     */
+    private static class PendingRequest extends CompletableFuture<Message> {
+        final String type;
+        
+        PendingRequest(String type) {
+            this.type = type;
+        }
+    }
+    
+    /**
+     * A serialized request waiting for the I/O thread.
+     */
+    private static class OutboundMessage {
+        final byte[] identity;
+        final byte[] payload;
+        final String correlationId;
+        final CompletableFuture<Message> future;
+        
+        OutboundMessage(byte[] identity, byte[] payload, String correlationId, CompletableFuture<Message> future) {
+            this.identity = identity;
+            this.payload = payload;
+            this.correlationId = correlationId;
+            this.future = future;
+        }
+    }
 }
@@ -0,0 +1,218 @@
+package marketplace;
+
+import common.HashedWheelTimer;
+import common.IdGenerators;
+import common.JsonBytes;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+/**
+ * Durable queue of reservation cancels that failed during compensation.
+ * Each entry is stored as a file until its seller answers the CANCEL, and is retried in the
+ * background with exponential backoff, so the stock is not held until the reservation expires.
+ * Entries left over from a previous run are picked up again on startup.
+ */
+public class CompensationRetryQueue {
+    private final String directory;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private final BiFunction<String, String, CompletableFuture<Void>> cancelReservation;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // Retries only send a request, so a timing wheel thread is enough
+    private final HashedWheelTimer timer = new HashedWheelTimer("CompensationRetries");
+    private volatile boolean shutdown = false;
+    
+    /**
+     * Creates the queue and schedules the entries already stored in the directory.
+     * @param directory Directory to store queued cancels in
+     * @param baseDelayMs Delay before the first retry in milliseconds
+     * @param maxDelayMs Maximum delay between retries in milliseconds
+     * @param cancelReservation Sends a CANCEL for a seller ID and reservation ID; the future fails
+     *                          if the seller did not answer or refused for a reason that may pass
+     */
+    public CompensationRetryQueue(String directory, long baseDelayMs, long maxDelayMs,
+                                  BiFunction<String, String, CompletableFuture<Void>> cancelReservation) {
+        if (baseDelayMs <= 0 || maxDelayMs < baseDelayMs) {
+            throw new IllegalArgumentException("Invalid retry delays: base " + baseDelayMs + "ms, max " + maxDelayMs + "ms");
+        }
+        this.directory = directory;
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.cancelReservation = cancelReservation;
+        
+        File dir = new File(directory);
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        recoverEntries();
+    }
+    
+    /**
+     * Queues a cancel that failed. The entry is forced to disk before this method returns; if
+     * that fails it is still retried, but only until the marketplace restarts.
+     * @param sellerId The seller holding the reservation
+     * @param reservationId The reservation to cancel
+     */
+    public void enqueue(String sellerId, String reservationId) {
+        Entry entry = new Entry(IdGenerators.next(),
+            new SagaStateManager.CompensationActionSnapshot(sellerId, reservationId, "CANCEL"));
+        persist(entry);
+        entries.put(entry.id, entry);
+        System.out.println("Queued retry for cancel of reservation " + reservationId + " at " + sellerId +
+                           " (queue depth " + entries.size() + ")");
+        schedule(entry);
+    }
+    
+    /**
+     * Gets the number of cancels waiting to be retried.
+     * @return Queue depth
+     */
+    public int size() {
+        return entries.size();
+    }
+    
+    private void schedule(Entry entry) {
+        if (shutdown) {
+            return;
+        }
+        // baseDelayMs doubled per attempt, capped before the shift can overflow
+        long delay = entry.attempts >= 30 ? maxDelayMs : Math.min(maxDelayMs, baseDelayMs << entry.attempts);
+        // Add jitter so cancels queued by the same outage don't all retry at once
+        delay += ThreadLocalRandom.current().nextLong(delay / 10 + 1);
+        timer.newTimeout(() -> retry(entry), delay, TimeUnit.MILLISECONDS);
+    }
+    
+    private void retry(Entry entry) {
+        if (shutdown) {
+            return;
+        }
+        entry.attempts++;
+        String sellerId = entry.action.getSellerId();
+        String reservationId = entry.action.getReservationId();
+        
+        CompletableFuture<Void> cancel;
+        try {
+            cancel = cancelReservation.apply(sellerId, reservationId);
+        } catch (RuntimeException e) {
+            cancel = CompletableFuture.failedFuture(e);
+        }
+        cancel.whenComplete((result, exception) -> {
+            if (exception == null) {
+                entries.remove(entry.id);
+                new File(fileFor(entry.id)).delete();
+                System.out.println("Retried cancel of reservation " + reservationId + " at " + sellerId +
+                                   " after " + entry.attempts + " attempts (queue depth " + entries.size() + ")");
+            } else {
+                Throwable cause = exception instanceof CompletionException && exception.getCause() != null ?
+                    exception.getCause() : exception;
+                System.err.println("Retry " + entry.attempts + " to cancel reservation " + reservationId +
+                                   " at " + sellerId + " failed: " + cause.getMessage());
+                schedule(entry);
+            }
+        });
+    }
+    
+    private void persist(Entry entry) {
+        try {
+            byte[] json = JsonBytes.write(SagaSnapshotTypeAdapter.ACTION_ADAPTER, entry.action, true);
+            // Written aside and renamed, so recovery never reads a torn entry
+            Path temp = Paths.get(directory, entry.id + ".tmp");
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                                                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(json);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(temp, Paths.get(fileFor(entry.id)), StandardCopyOption.ATOMIC_MOVE);
+            forceDirectory();
+        } catch (IOException e) {
+            // Still retried in memory, just not across a restart
+            System.err.println("Failed to persist compensation retry " + entry.id + ": " + e.getMessage());
+        }
+    }
+    
+    private void forceDirectory() throws IOException {
+        // Makes the rename durable; not every platform can open a directory for this
+        try (FileChannel dir = FileChannel.open(Paths.get(directory), StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (UnsupportedOperationException | IOException e) {
+            if (!System.getProperty("os.name", "").toLowerCase().startsWith("windows")) {
+                throw e;
+            }
+        }
+    }
+    
+    private void recoverEntries() {
+        // Writes cut short by a crash; their cancels were never acknowledged as queued
+        File[] partial = new File(directory).listFiles((dir, name) -> name.endsWith(".tmp"));
+        if (partial != null) {
+            for (File file : partial) {
+                file.delete();
+            }
+        }
+        
+        File[] files = new File(directory).listFiles((dir, name) -> name.endsWith(".json"));
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            try {
+                SagaStateManager.CompensationActionSnapshot action =
+                    JsonBytes.read(SagaSnapshotTypeAdapter.ACTION_ADAPTER, Files.readAllBytes(file.toPath()));
+                if (action == null || action.getSellerId() == null || action.getReservationId() == null) {
+                    System.err.println("Skipping invalid compensation retry " + file.getName());
+                    continue;
+                }
+                Entry entry = new Entry(file.getName().replace(".json", ""), action);
+                entries.put(entry.id, entry);
+                schedule(entry);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Failed to recover compensation retry from " + file.getName() + ": " + e.getMessage());
+            }
+        }
+        if (!entries.isEmpty()) {
+            System.out.println("Recovered " + entries.size() + " queued compensation retries");
+        }
+    }
+    
+    private String fileFor(String id) {
+        return directory + "/" + id + ".json";
+    }
+    
+    /**
+     * Stops retrying. Queued entries stay on disk for the next start.
+     */
+    public void shutdown() {
+        shutdown = true;
+        timer.stop();
+    }
+    
+    private static class Entry {
+        private final String id;
+        private final SagaStateManager.CompensationActionSnapshot action;
+        // Only touched by the retry that is currently running
+        private volatile int attempts;
+        
+        Entry(String id, SagaStateManager.CompensationActionSnapshot action) {
+            this.id = id;
+            this.action = action;
+        }
+    }
+}
@@ -1,12 +1,17 @@
 package marketplace;
 
+import common.ConfigWatcher;
+
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.Properties;
 import java.util.concurrent.CountDownLatch;
 
 public class MarketplaceApp {
-    public static void main(String[] args) {
+    private static final String CONFIG_FILE = "config.properties";
+
+public static void main(String[] args) {
         System.out.println("Starting Marketplace Application...");
         
         try {
@@ -16,11 +21,22 @@ public class MarketplaceApp {
             // Create and start order processor
             OrderProcessor processor = new OrderProcessor(config);
             
+            // Pick up changes to config.properties without a restart
+            ConfigWatcher<Properties> configWatcher = new ConfigWatcher<>(
+                Paths.get(CONFIG_FILE), config, MarketplaceApp::applyEnvironmentOverrides);
+            configWatcher.addListener(processor::applyConfig);
+            try {
+                configWatcher.start();
+            } catch (IOException e) {
+                System.err.println("Config hot reload disabled: " + e.getMessage());
+            }
+
             // Setup shutdown hook for graceful shutdown
             CountDownLatch shutdownLatch = new CountDownLatch(1);
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
                 System.out.println("Shutting down marketplace...");
-                processor.shutdown();
+                configWatcher.close();
+processor.shutdown();
                 shutdownLatch.countDown();
             }));
             
@@ -45,10 +61,14 @@ public class MarketplaceApp {
         Properties config = new Properties();
         
         // Load default configuration
-        try (FileInputStream fis = new FileInputStream("config.properties")) {
+        try (FileInputStream fis = new FileInputStream(CONFIG_FILE)) {
             config.load(fis);
         }
         
+        return applyEnvironmentOverrides(config);
+    }
+    
+    private static Properties applyEnvironmentOverrides(Properties config) {
         // Override with environment variables if present
         String marketplaceId = System.getenv("MARKETPLACE_ID");
         if (marketplaceId != null) {
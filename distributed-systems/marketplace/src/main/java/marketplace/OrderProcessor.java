@@ -19,7 +19,6 @@ public class OrderProcessor {
     private final Properties config;
     private final Gson gson;
     
-    private final ExecutorService orderExecutor;
     private final ScheduledExecutorService scheduler;
     private final SagaOrchestrator sagaOrchestrator;
     private final AsyncMessageBroker messageBroker;
@@ -32,9 +31,6 @@ public class OrderProcessor {
         this.gson = new Gson();
         
         // Initialize thread pools
-        this.orderExecutor = Executors.newFixedThreadPool(
-            Integer.parseInt(config.getProperty("order.processing.threads", "10"))
-        );
         this.scheduler = Executors.newScheduledThreadPool(2);
         
         // Initialize components
@@ -79,6 +75,14 @@ public class OrderProcessor {
         return defaultOrders;
     }
     
+    /**
+     * Applies a reloaded configuration to the components that support runtime changes.
+     * @param newConfig Configuration properties
+     */
+    public void applyConfig(Properties newConfig) {
+        messageBroker.applyConfig(newConfig);
+    }
+    
     public void start() {
         if (running.compareAndSet(false, true)) {
             System.out.println("Order processor started for " + marketplaceId);
@@ -86,6 +90,9 @@ public class OrderProcessor {
             // Start message broker
             messageBroker.start();
             
+            // Finish the sagas a previous run left open, next to the new orders
+            sagaOrchestrator.startRecovery();
+            
             // Schedule order processing
             scheduleOrderProcessing();
         }
@@ -108,18 +115,15 @@ public class OrderProcessor {
     }
     
     private void processOrderAsync(Order order) {
-        CompletableFuture.supplyAsync(() -> {
-            System.out.println("\n=== Submitting Order " + order.getOrderId() + " for processing ===");
-            order.setStatus(OrderStatus.CREATED);
-            
-            try {
-                return sagaOrchestrator.processOrder(order);
-            } catch (Exception e) {
-                System.err.println("Error processing order " + order.getOrderId() + ": " + e.getMessage());
-                order.setStatus(OrderStatus.FAILED);
-                return order;
-            }
-        }, orderExecutor).thenAccept(processedOrder -> {
+        System.out.println("\n=== Submitting Order " + order.getOrderId() + " for processing ===");
+        order.setStatus(OrderStatus.CREATED);
+        
+        sagaOrchestrator.processOrderAsync(order).exceptionally(e -> {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            System.err.println("Error processing order " + order.getOrderId() + ": " + cause.getMessage());
+            order.setStatus(OrderStatus.FAILED);
+            return order;
+        }).thenAccept(processedOrder -> {
             System.out.println("Order " + processedOrder.getOrderId() + 
                              " completed with status: " + processedOrder.getStatus());
         });
@@ -131,15 +135,11 @@ public class OrderProcessor {
             
             // Shutdown schedulers
             scheduler.shutdown();
-            orderExecutor.shutdown();
             
             try {
                 if (!scheduler.awaitTermination(10, TimeUnit.SECONDS)) {
                     scheduler.shutdownNow();
                 }
-                if (!orderExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
-                    orderExecutor.shutdownNow();
-                }
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
             }
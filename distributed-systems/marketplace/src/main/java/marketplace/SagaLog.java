@@ -0,0 +1,806 @@
+package marketplace;
+
+import common.SagaState;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32C;
+
+/**
+ * Segmented, append-only log of saga snapshots.
+ * Every saved state is appended as one CRC-protected binary record, and a finished saga as a
+ * small removal record, so saving never creates, rewrites or deletes a file. The active segment
+ * rolls once it reaches the size limit. Compaction deletes the oldest segments once every saga
+ * they mention has finished or has been saved again further ahead, so replay at startup is one
+ * sequential scan over a bounded amount of data.
+ * Appends only queue the record; a flusher thread writes everything queued since its last pass
+ * as one batch, and the future returned by an append completes according to the
+ * {@link Durability} mode.
+ */
+public class SagaLog implements Closeable {
+    private static final byte SNAPSHOT = 1;
+    private static final byte REMOVE = 2;
+    
+    private static final String SEGMENT_PREFIX = "saga-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int RECORD_HEADER_BYTES = 2 * Integer.BYTES;
+    private static final int NULL_LENGTH = 0xFFFF;
+    private static final int BATCH_BUFFER_BYTES = 64 * 1024;
+    private static final int MAX_SPARE_BUFFERS = 4;
+    private static final SagaState[] STATES = SagaState.values();
+    
+    /**
+     * When an append is acknowledged.
+     */
+    public enum Durability {
+        /** After the batch holding the record has been forced to disk. */
+        BATCH,
+        /** After the batch has been written to the OS; the log is forced every fsync interval. */
+        INTERVAL,
+        /** Right away; batches are written in the background and only forced on roll and close. */
+        ASYNC;
+        
+        /**
+         * Parses a mode name, ignoring case.
+         * @param name "batch", "interval" or "async"
+         * @return The mode
+         */
+        public static Durability parse(String name) {
+            try {
+                return valueOf(name.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown saga log durability: " + name);
+            }
+        }
+    }
+    
+    private final Path directory;
+    private final long segmentBytes;
+    private final Durability durability;
+    private final long fsyncIntervalMs;
+    private final CRC32C crc = new CRC32C();
+    // Latest snapshot of every unfinished saga; only changed while holding this
+    private final Map<String, Located> sagas = new ConcurrentHashMap<>();
+    
+    // Guarded by this
+    private final ArrayDeque<Segment> sealedSegments = new ArrayDeque<>();
+    private final ArrayDeque<Batch> queuedBatches = new ArrayDeque<>();
+    private final ArrayDeque<ByteBuffer> spareBuffers = new ArrayDeque<>();
+    private final ArrayDeque<PendingAck> pendingAcks = new ArrayDeque<>();
+    private Segment activeSegment;
+    private Batch currentBatch;
+    private ByteBuffer recordBuffer = ByteBuffer.allocate(4096);
+    private long appendedLsn;
+    private long writtenLsn;
+    private long forcedLsn;
+    private long forceRequestedLsn;
+    private long nextForceAt;
+    private IOException failure;
+    private boolean running = false;
+    private Thread flusher;
+    // Segment the flusher wrote to last; only touched by the flusher
+    private Segment lastWrittenSegment;
+    
+    /**
+     * Creates a log over a directory. Call {@link #recover()} before appending.
+     * @param directory Directory holding the segments
+     * @param segmentBytes Size at which the active segment is rolled
+     * @param durability When appends are acknowledged
+     * @param fsyncIntervalMs How often the log is forced in INTERVAL mode
+     * @throws IOException if the directory cannot be created
+     */
+    public SagaLog(Path directory, long segmentBytes, Durability durability, long fsyncIntervalMs) throws IOException {
+        if (segmentBytes <= 0) {
+            throw new IllegalArgumentException("Segment size must be positive: " + segmentBytes);
+        }
+        if (durability == Durability.INTERVAL && fsyncIntervalMs <= 0) {
+            throw new IllegalArgumentException("Fsync interval must be positive: " + fsyncIntervalMs);
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.durability = durability;
+        this.fsyncIntervalMs = fsyncIntervalMs;
+        Files.createDirectories(directory);
+    }
+    
+    /**
+     * Replays all segments in order, opens a new active segment after them and starts the flusher.
+     * Stops at the first torn or corrupt record and truncates the segment there.
+     * @return Number of unfinished sagas found
+     * @throws IOException if a segment cannot be read or the new segment cannot be created
+     */
+    public synchronized int recover() throws IOException {
+        if (activeSegment != null) {
+            throw new IllegalStateException("Saga log already recovered");
+        }
+        long nextSegmentId = 1;
+        List<Path> files = listSegments();
+        for (int i = 0; i < files.size(); i++) {
+            Path file = files.get(i);
+            Segment segment = new Segment(segmentId(file), file);
+            nextSegmentId = segment.id + 1;
+            boolean torn = replaySegment(segment);
+            if (segment.records == 0) {
+                // Left behind by a run that stopped before writing anything
+                Files.deleteIfExists(file);
+            } else {
+                sealedSegments.add(segment);
+            }
+            if (torn) {
+                // Anything after a torn record was never acknowledged
+                for (Path later : files.subList(i + 1, files.size())) {
+                    Files.deleteIfExists(later);
+                }
+                break;
+            }
+        }
+        activeSegment = openSegment(nextSegmentId);
+        running = true;
+        
+        flusher = new Thread(this::flushLoop, "SagaLog-Flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+        return sagas.size();
+    }
+    
+    private boolean replaySegment(Segment segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment.path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int validEnd = 0;
+            
+            while (buffer.remaining() >= RECORD_HEADER_BYTES) {
+                int start = buffer.position();
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (length <= 0 || length > buffer.remaining() || checksumOf(buffer, buffer.position(), length) != checksum) {
+                    buffer.position(start);
+                    break;
+                }
+                
+                int recordEnd = buffer.position() + length;
+                byte type = buffer.get();
+                String sagaId = readString(buffer);
+                if (type == SNAPSHOT) {
+                    place(readSnapshot(sagaId, buffer), segment);
+                } else {
+                    unplace(sagaId);
+                }
+                segment.records++;
+                buffer.position(recordEnd);
+                validEnd = recordEnd;
+            }
+            segment.bytes = validEnd;
+            
+            if (validEnd < channel.size()) {
+                System.out.println("Truncating torn saga log tail in " + segment.path.getFileName() +
+                                 " at byte " + validEnd + " of " + channel.size());
+                channel.truncate(validEnd);
+                return true;
+            }
+            return false;
+        }
+    }
+    
+    /**
+     * Queues a saga's new state. The in-memory state is updated right away. A snapshot with a
+     * lower version than the one held is dropped, since a newer state was already queued.
+     * @param snapshot The snapshot
+     * @return Future that completes once the record, or the newer one, is as durable as the mode
+     *         requires; completes on the flusher thread, and fails if the log failed before that
+     */
+    public synchronized CompletableFuture<Void> append(SagaStateManager.SagaSnapshot snapshot) {
+        if (isStale(snapshot)) {
+            return awaitAcked(appendedLsn);
+        }
+        place(snapshot, activeSegment);
+        return enqueue(SNAPSHOT, snapshot.getSagaId(), snapshot);
+    }
+    
+    /**
+     * Queues the removal of a finished saga. The in-memory state is updated right away.
+     * @param sagaId The saga identifier
+     * @return Future that completes once the record is as durable as the mode requires
+     */
+    public synchronized CompletableFuture<Void> appendRemove(String sagaId) {
+        if (!unplace(sagaId)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return enqueue(REMOVE, sagaId, null);
+    }
+    
+    /**
+     * Queues a saga's new state unless the saga has been removed in the meantime.
+     * @param snapshot The snapshot
+     * @return false if the saga is not in the log or holds a newer state
+     */
+    public synchronized boolean appendIfPresent(SagaStateManager.SagaSnapshot snapshot) {
+        if (!sagas.containsKey(snapshot.getSagaId()) || isStale(snapshot)) {
+            return false;
+        }
+        append(snapshot);
+        return true;
+    }
+    
+    /**
+     * Gets the latest snapshot of an unfinished saga.
+     * @param sagaId The saga identifier
+     * @return The snapshot or null if the saga is unknown or finished
+     */
+    public SagaStateManager.SagaSnapshot get(String sagaId) {
+        Located located = sagas.get(sagaId);
+        return located != null ? located.snapshot : null;
+    }
+    
+    /**
+     * Gets the IDs of all unfinished sagas.
+     * @return Saga IDs
+     */
+    public List<String> getSagaIds() {
+        return new ArrayList<>(sagas.keySet());
+    }
+    
+    /**
+     * Gets the number of unfinished sagas.
+     * @return Saga count
+     */
+    public int size() {
+        return sagas.size();
+    }
+    
+    /**
+     * Deletes sealed segments from the oldest one on, as long as no unfinished saga has its latest
+     * record in them. A segment still holding at most maxRelocated such sagas has them appended
+     * again first, so one long-running saga cannot pin every later segment.
+     * Segments are only deleted oldest-first: a removal record may be the only thing keeping an
+     * older snapshot of the same saga from coming back. Everything appended so far is forced to
+     * disk before a segment is deleted, whatever the durability mode.
+     * @param maxRelocated Most snapshots to append again per segment
+     * @return Number of segments deleted
+     * @throws IOException if the log cannot be forced or a segment cannot be deleted
+     */
+    public int compact(int maxRelocated) throws IOException {
+        List<Segment> obsolete = new ArrayList<>();
+        long lsn;
+        synchronized (this) {
+            Segment oldest;
+            while ((oldest = sealedSegments.peekFirst()) != null) {
+                if (oldest.live > maxRelocated) {
+                    break;
+                }
+                if (oldest.live > 0) {
+                    List<SagaStateManager.SagaSnapshot> stragglers = new ArrayList<>(oldest.live);
+                    for (Located located : sagas.values()) {
+                        if (located.segment == oldest) {
+                            stragglers.add(located.snapshot);
+                        }
+                    }
+                    for (SagaStateManager.SagaSnapshot snapshot : stragglers) {
+                        append(snapshot);
+                    }
+                }
+                obsolete.add(sealedSegments.pollFirst());
+            }
+            if (obsolete.isEmpty()) {
+                return 0;
+            }
+            lsn = appendedLsn;
+        }
+        
+        // The records superseding these segments must be on disk before the segments go
+        awaitForced(lsn);
+        for (Segment segment : obsolete) {
+            Files.deleteIfExists(segment.path);
+        }
+        return obsolete.size();
+    }
+    
+    /**
+     * Blocks until everything appended before the call has been forced to disk.
+     * @throws IOException if the log failed or was closed first
+     */
+    public void sync() throws IOException {
+        long lsn;
+        synchronized (this) {
+            lsn = appendedLsn;
+        }
+        awaitForced(lsn);
+    }
+    
+    private synchronized void awaitForced(long lsn) throws IOException {
+        if (forceRequestedLsn < lsn) {
+            forceRequestedLsn = lsn;
+            notifyAll();
+        }
+        while (forcedLsn < lsn) {
+            if (failure != null) {
+                throw new IOException("Saga log failed", failure);
+            }
+            if (!running) {
+                throw new IOException("Saga log closed before LSN " + lsn + " was forced");
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for LSN " + lsn);
+            }
+        }
+    }
+    
+    /**
+     * Gets the number of segment files, including the active one.
+     * @return Segment count
+     */
+    public synchronized int getSegmentCount() {
+        return sealedSegments.size() + (activeSegment != null ? 1 : 0);
+    }
+    
+    /**
+     * Gets the total size of all segments.
+     * @return Bytes on disk
+     */
+    public synchronized long getSizeBytes() {
+        long size = activeSegment != null ? activeSegment.bytes : 0;
+        for (Segment segment : sealedSegments) {
+            size += segment.bytes;
+        }
+        return size;
+    }
+    
+    /**
+     * Gets the durability mode.
+     * @return The mode
+     */
+    public Durability getDurability() {
+        return durability;
+    }
+    
+    /**
+     * Writes and forces everything queued, stops the flusher and closes the active segment.
+     */
+    @Override
+    public void close() throws IOException {
+        Thread flusherThread;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            notifyAll();
+            flusherThread = flusher;
+        }
+        try {
+            flusherThread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        
+        // The flusher is gone, so nothing else writes to the segments any more
+        List<Batch> batches;
+        List<PendingAck> acks;
+        synchronized (this) {
+            batches = new ArrayList<>(queuedBatches);
+            queuedBatches.clear();
+            currentBatch = null;
+        }
+        IOException closeFailure = null;
+        try {
+            writeBatches(batches);
+            activeSegment.channel.force(false);
+            activeSegment.channel.close();
+        } catch (IOException e) {
+            closeFailure = e;
+        }
+        synchronized (this) {
+            if (closeFailure == null) {
+                writtenLsn = appendedLsn;
+                forcedLsn = appendedLsn;
+            } else if (failure == null) {
+                failure = closeFailure;
+            }
+            acks = new ArrayList<>(pendingAcks);
+            pendingAcks.clear();
+            notifyAll();
+        }
+        completeAcks(acks, closeFailure != null ? closeFailure : failure);
+        if (closeFailure != null) {
+            throw closeFailure;
+        }
+    }
+    
+    private boolean isStale(SagaStateManager.SagaSnapshot snapshot) {
+        Located held = sagas.get(snapshot.getSagaId());
+        return held != null && held.snapshot.getVersion() > snapshot.getVersion();
+    }
+    
+    private void place(SagaStateManager.SagaSnapshot snapshot, Segment segment) {
+        Located previous = sagas.put(snapshot.getSagaId(), new Located(snapshot, segment));
+        if (previous != null) {
+            previous.segment.live--;
+        }
+        segment.live++;
+    }
+    
+    private boolean unplace(String sagaId) {
+        Located previous = sagas.remove(sagaId);
+        if (previous == null) {
+            return false;
+        }
+        previous.segment.live--;
+        return true;
+    }
+    
+    private CompletableFuture<Void> enqueue(byte type, String sagaId, SagaStateManager.SagaSnapshot snapshot) {
+        if (failure != null) {
+            return CompletableFuture.failedFuture(new IOException("Saga log failed", failure));
+        }
+        if (!running) {
+            throw new IllegalStateException("Saga log is not open");
+        }
+        ByteBuffer record = encode(type, sagaId, snapshot);
+        if (currentBatch == null) {
+            currentBatch = new Batch(activeSegment, takeBuffer(record.remaining()));
+            queuedBatches.addLast(currentBatch);
+        } else if (currentBatch.buffer.remaining() < record.remaining()) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(currentBatch.buffer.capacity() * 2,
+                                                             currentBatch.buffer.position() + record.remaining()));
+            currentBatch.buffer.flip();
+            currentBatch.buffer = larger.put(currentBatch.buffer);
+        }
+        currentBatch.buffer.put(record);
+        long lsn = ++appendedLsn;
+        currentBatch.lastLsn = lsn;
+        activeSegment.records++;
+        activeSegment.bytes += record.limit();
+        
+        if (activeSegment.bytes >= segmentBytes) {
+            // The flusher forces and closes the old segment after writing this batch
+            currentBatch.closesSegment = true;
+            currentBatch = null;
+            sealedSegments.addLast(activeSegment);
+            try {
+                activeSegment = openSegment(activeSegment.id + 1);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+        notifyAll();
+        return awaitAcked(lsn);
+    }
+    
+    // Callers hold the lock; lsn is at most appendedLsn, so pendingAcks stays ordered
+    private CompletableFuture<Void> awaitAcked(long lsn) {
+        if (failure != null) {
+            return CompletableFuture.failedFuture(new IOException("Saga log failed", failure));
+        }
+        long ackedLsn = durability == Durability.BATCH ? forcedLsn : writtenLsn;
+        if (durability == Durability.ASYNC || lsn <= ackedLsn) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> ack = new CompletableFuture<>();
+        pendingAcks.addLast(new PendingAck(lsn, ack));
+        return ack;
+    }
+    
+    private ByteBuffer takeBuffer(int minBytes) {
+        ByteBuffer buffer = spareBuffers.pollFirst();
+        if (buffer == null || buffer.capacity() < minBytes) {
+            buffer = ByteBuffer.allocate(Math.max(BATCH_BUFFER_BYTES, minBytes));
+        }
+        return buffer;
+    }
+    
+    /**
+     * Flusher loop: takes every batch queued since the last pass, writes them in order and forces
+     * the log as the durability mode requires, then acknowledges the appends it covered.
+     */
+    private void flushLoop() {
+        while (true) {
+            List<Batch> batches;
+            boolean force;
+            synchronized (this) {
+                while (running && queuedBatches.isEmpty() && !isForceDue()) {
+                    try {
+                        if (durability == Durability.INTERVAL && forcedLsn < writtenLsn) {
+                            wait(Math.max(1, nextForceAt - System.currentTimeMillis()));
+                        } else {
+                            wait();
+                        }
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (!running) {
+                    // close() writes what is left
+                    return;
+                }
+                batches = new ArrayList<>(queuedBatches);
+                queuedBatches.clear();
+                currentBatch = null;
+                force = durability == Durability.BATCH || isForceDue();
+            }
+            
+            long batchLsn;
+            try {
+                batchLsn = writeBatches(batches);
+                if (!batches.isEmpty()) {
+                    lastWrittenSegment = batches.get(batches.size() - 1).segment;
+                }
+                synchronized (this) {
+                    // Forced requests may have come in while writing
+                    force |= forceRequestedLsn > forcedLsn;
+                }
+                // Segments written before it were forced when they were closed
+                if (force && lastWrittenSegment != null && lastWrittenSegment.channel != null) {
+                    lastWrittenSegment.channel.force(false);
+                }
+            } catch (IOException e) {
+                System.err.println("Saga log write failed: " + e.getMessage());
+                fail(e);
+                return;
+            }
+            
+            List<PendingAck> acks = new ArrayList<>();
+            synchronized (this) {
+                writtenLsn = Math.max(writtenLsn, batchLsn);
+                if (force) {
+                    forcedLsn = writtenLsn;
+                    nextForceAt = System.currentTimeMillis() + fsyncIntervalMs;
+                }
+                long ackedLsn = durability == Durability.BATCH ? forcedLsn : writtenLsn;
+                while (!pendingAcks.isEmpty() && pendingAcks.peekFirst().lsn <= ackedLsn) {
+                    acks.add(pendingAcks.pollFirst());
+                }
+                for (Batch batch : batches) {
+                    if (spareBuffers.size() < MAX_SPARE_BUFFERS) {
+                        batch.buffer.clear();
+                        spareBuffers.addLast(batch.buffer);
+                    }
+                }
+                notifyAll();
+            }
+            completeAcks(acks, null);
+        }
+    }
+    
+    private boolean isForceDue() {
+        return forceRequestedLsn > forcedLsn && writtenLsn >= forceRequestedLsn ||
+               durability == Durability.INTERVAL && forcedLsn < writtenLsn && System.currentTimeMillis() >= nextForceAt;
+    }
+    
+    /**
+     * Writes batches in order. A batch that ends a segment forces and closes it.
+     * @return LSN of the last record written
+     */
+    private long writeBatches(List<Batch> batches) throws IOException {
+        long lsn = 0;
+        for (Batch batch : batches) {
+            ByteBuffer buffer = batch.buffer;
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                batch.segment.channel.write(buffer);
+            }
+            if (batch.closesSegment) {
+                batch.segment.channel.force(false);
+                batch.segment.channel.close();
+                batch.segment.channel = null;
+            }
+            lsn = batch.lastLsn;
+        }
+        return lsn;
+    }
+    
+    private void fail(IOException e) {
+        List<PendingAck> acks;
+        synchronized (this) {
+            if (failure == null) {
+                failure = e;
+            }
+            running = false;
+            acks = new ArrayList<>(pendingAcks);
+            pendingAcks.clear();
+            notifyAll();
+        }
+        completeAcks(acks, e);
+    }
+    
+    private static void completeAcks(List<PendingAck> acks, IOException failure) {
+        for (PendingAck ack : acks) {
+            if (failure == null) {
+                ack.future.complete(null);
+            } else {
+                ack.future.completeExceptionally(new IOException("Saga log failed", failure));
+            }
+        }
+    }
+    
+    private ByteBuffer encode(byte type, String sagaId, SagaStateManager.SagaSnapshot snapshot) {
+        while (true) {
+            ByteBuffer buffer = recordBuffer;
+            buffer.clear();
+            try {
+                buffer.position(RECORD_HEADER_BYTES);
+                buffer.put(type);
+                putString(buffer, sagaId);
+                if (type == SNAPSHOT) {
+                    putSnapshot(buffer, snapshot);
+                }
+                int bodyLength = buffer.position() - RECORD_HEADER_BYTES;
+                buffer.putInt(0, bodyLength);
+                buffer.putInt(Integer.BYTES, checksumOf(buffer, RECORD_HEADER_BYTES, bodyLength));
+                buffer.flip();
+                return buffer;
+            } catch (java.nio.BufferOverflowException e) {
+                recordBuffer = ByteBuffer.allocate(buffer.capacity() * 2);
+            }
+        }
+    }
+    
+    private static void putSnapshot(ByteBuffer buffer, SagaStateManager.SagaSnapshot snapshot) {
+        putString(buffer, snapshot.getOrderId());
+        buffer.put(snapshot.getCurrentState() != null ? (byte) snapshot.getCurrentState().ordinal() : -1);
+        buffer.putLong(snapshot.getLastUpdated()).putLong(snapshot.getCreatedAt());
+        
+        List<SagaStateManager.CompensationActionSnapshot> actions = snapshot.getCompensationActions();
+        buffer.putShort((short) actions.size());
+        for (SagaStateManager.CompensationActionSnapshot action : actions) {
+            putString(buffer, action.getSellerId());
+            putString(buffer, action.getReservationId());
+            putString(buffer, action.getActionType());
+            buffer.putLong(action.getTimestamp());
+        }
+        
+        Map<String, String> reservationIds = snapshot.getReservationIds();
+        buffer.putShort((short) reservationIds.size());
+        for (Map.Entry<String, String> entry : reservationIds.entrySet()) {
+            putString(buffer, entry.getKey());
+            putString(buffer, entry.getValue());
+        }
+    }
+    
+    private static SagaStateManager.SagaSnapshot readSnapshot(String sagaId, ByteBuffer buffer) {
+        String orderId = readString(buffer);
+        byte state = buffer.get();
+        long lastUpdated = buffer.getLong();
+        long createdAt = buffer.getLong();
+        
+        int actionCount = buffer.getShort() & 0xFFFF;
+        List<SagaStateManager.CompensationActionSnapshot> actions = new ArrayList<>(actionCount);
+        for (int i = 0; i < actionCount; i++) {
+            String sellerId = readString(buffer);
+            String reservationId = readString(buffer);
+            String actionType = readString(buffer);
+            actions.add(new SagaStateManager.CompensationActionSnapshot(sellerId, reservationId, actionType,
+                                                                         buffer.getLong()));
+        }
+        
+        int reservationCount = buffer.getShort() & 0xFFFF;
+        Map<String, String> reservationIds = new ConcurrentHashMap<>();
+        for (int i = 0; i < reservationCount; i++) {
+            String sellerId = readString(buffer);
+            reservationIds.put(sellerId, readString(buffer));
+        }
+        return new SagaStateManager.SagaSnapshot(sagaId, orderId, state >= 0 && state < STATES.length ? STATES[state] : null,
+                                                 actions, reservationIds, lastUpdated, createdAt);
+    }
+    
+    private int checksumOf(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(offset + length).position(offset);
+        crc.reset();
+        crc.update(slice);
+        return (int) crc.getValue();
+    }
+    
+    private Segment openSegment(long id) throws IOException {
+        Path file = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+        Segment segment = new Segment(id, file);
+        segment.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                           StandardOpenOption.TRUNCATE_EXISTING);
+        return segment;
+    }
+    
+    private List<Path> listSegments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : stream) {
+                segments.add(file);
+            }
+        }
+        // Zero-padded segment IDs sort lexicographically
+        Collections.sort(segments);
+        return segments;
+    }
+    
+    private static long segmentId(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+    
+    private static void putString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.putShort((short) NULL_LENGTH);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length >= NULL_LENGTH) {
+            throw new IllegalArgumentException("String too long for the saga log: " + bytes.length + " bytes");
+        }
+        buffer.putShort((short) bytes.length).put(bytes);
+    }
+    
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    private static class Segment {
+        private final long id;
+        private final Path path;
+        // Written only by the flusher, or by close() once the flusher has stopped
+        private FileChannel channel;
+        private long bytes;
+        private int records;
+        // Unfinished sagas whose latest record is in this segment
+        private int live;
+        
+        Segment(long id, Path path) {
+            this.id = id;
+            this.path = path;
+        }
+    }
+    
+    private static class Batch {
+        private final Segment segment;
+        private ByteBuffer buffer;
+        private long lastLsn;
+        private boolean closesSegment;
+        
+        Batch(Segment segment, ByteBuffer buffer) {
+            this.segment = segment;
+            this.buffer = buffer;
+        }
+    }
+    
+    private static class PendingAck {
+        private final long lsn;
+        private final CompletableFuture<Void> future;
+        
+        PendingAck(long lsn, CompletableFuture<Void> future) {
+            this.lsn = lsn;
+            this.future = future;
+        }
+    }
+    
+    private static class Located {
+        private final SagaStateManager.SagaSnapshot snapshot;
+        private final Segment segment;
+        
+        Located(SagaStateManager.SagaSnapshot snapshot, Segment segment) {
+            this.snapshot = snapshot;
+            this.segment = segment;
+        }
+    }
+}
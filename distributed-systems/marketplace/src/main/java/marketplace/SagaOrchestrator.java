@@ -5,230 +5,465 @@ import common.OrderStatus;
 import common.SagaState;
 import common.RetryManager;
 import common.CircuitBreaker;
+import common.HashedWheelTimer;
+import common.IdGenerators;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 public class SagaOrchestrator {
+    // Upper bound for one round of reservations or confirmations
+    private static final long STEP_TIMEOUT_SECONDS = 10;
+    private static final long COMPENSATION_TIMEOUT_SECONDS = 5;
+    
     private final String marketplaceId;
     private final AsyncMessageBroker messageBroker;
     private final ExecutorService sagaExecutor;
     private final int sagaTimeoutSeconds;
+    private final HashedWheelTimer deadlineTimer = new HashedWheelTimer("SagaOrchestrator-Deadlines", 100, TimeUnit.MILLISECONDS, 512);
     private final RetryManager retryManager;
     private final SagaStateManager stateManager;
+    private final CompensationRetryQueue compensationRetryQueue;
     private final Map<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
     
     // Active sagas tracking
     private final Map<String, SagaInstance> activeSagas = new ConcurrentHashMap<>();
     
+    // Sagas a previous run left unfinished, taken before any new saga is started
+    private final Queue<SagaStateManager.SagaSnapshot> sagasToRecover = new ConcurrentLinkedQueue<>();
+    private final int recoveryParallelism;
+    private final AtomicInteger recoveryRemaining = new AtomicInteger();
+    private volatile long recoveryTimeMs = -1;
+    
     public SagaOrchestrator(String marketplaceId, AsyncMessageBroker messageBroker, Properties config) {
         this.marketplaceId = marketplaceId;
         this.messageBroker = messageBroker;
         this.sagaTimeoutSeconds = Integer.parseInt(config.getProperty("saga.timeout.seconds", "60"));
+        this.recoveryParallelism = Integer.parseInt(config.getProperty("saga.recovery.parallelism", "64"));
+        // Saga steps never block, so this pool only runs their continuations
         this.sagaExecutor = Executors.newFixedThreadPool(
-            Integer.parseInt(config.getProperty("saga.processing.threads", "20"))
+            Integer.parseInt(config.getProperty("saga.processing.threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors())))
         );
         this.retryManager = new RetryManager(
             Integer.parseInt(config.getProperty("retry.max.attempts", "3")),
             Long.parseLong(config.getProperty("retry.base.delay.ms", "1000")),
             Double.parseDouble(config.getProperty("retry.backoff.multiplier", "2.0")),
-            Long.parseLong(config.getProperty("retry.max.delay.ms", "30000"))
+            Long.parseLong(config.getProperty("retry.max.delay.ms", "30000")),
+            messageBroker.getRetryBudget()
         );
+        String stateDirectory = config.getProperty("saga.state.directory", "./saga-states");
         this.stateManager = new SagaStateManager(
-            config.getProperty("saga.state.directory", "./saga-states")
+            stateDirectory,
+            Long.parseLong(config.getProperty("saga.persistence.interval.ms", "10000")),
+            SagaLog.Durability.parse(config.getProperty("saga.log.durability", "batch")),
+            Long.parseLong(config.getProperty("saga.log.fsync.interval.ms", "100"))
+        );
+        this.compensationRetryQueue = new CompensationRetryQueue(
+            stateDirectory + "/compensation-retries",
+            Long.parseLong(config.getProperty("compensation.retry.base.delay.ms", "1000")),
+            Long.parseLong(config.getProperty("compensation.retry.max.delay.ms", "60000")),
+            (sellerId, reservationId) -> new CancelReservationAction(sellerId, reservationId).execute(messageBroker)
         );
         
-        // Recover any incomplete sagas on startup
-        recoverIncompleteSagas();
+        // Reservations that land after their saga gave up on them are released right away
+        messageBroker.setLateResponseHandler(this::onLateResponse);
+        
+        // Collect incomplete sagas now; startRecovery() resumes them once the broker is running
+        collectIncompleteSagas();
         
         System.out.println("SagaOrchestrator initialized for " + marketplaceId);
     }
     
-    private void recoverIncompleteSagas() {
-        List<String> activeSagaIds = stateManager.getActiveSagaIds();
-        for (String sagaId : activeSagaIds) {
-            try {
-                SagaStateManager.SagaSnapshot snapshot = stateManager.getSagaState(sagaId);
-                if (snapshot != null && !isTerminalState(snapshot.getCurrentState())) {
-                    // TODO: Implement saga recovery logic
-                    System.out.println("Found incomplete saga to recover: " + sagaId + " in state " + snapshot.getCurrentState());
-                }
-            } catch (Exception e) {
-                System.err.println("Error recovering saga " + sagaId + ": " + e.getMessage());
+    private void collectIncompleteSagas() {
+        for (String sagaId : stateManager.getActiveSagaIds()) {
+            SagaStateManager.SagaSnapshot snapshot = stateManager.getSagaState(sagaId);
+            if (snapshot == null) {
+                continue;
+            }
+            if (isTerminalState(snapshot.getCurrentState())) {
+                stateManager.removeSagaState(sagaId);
+            } else {
+                sagasToRecover.add(snapshot);
             }
         }
+        recoveryRemaining.set(sagasToRecover.size());
+        if (!sagasToRecover.isEmpty()) {
+            System.out.println("Found " + sagasToRecover.size() + " incomplete sagas to recover");
+        }
     }
     
-    private boolean isTerminalState(SagaState state) {
-        return state == SagaState.COMPLETED || state == SagaState.FAILED || state == SagaState.COMPENSATION_COMPLETED;
+    /**
+     * Resumes or compensates the sagas a previous run left unfinished. Runs in the background next
+     * to new orders, with at most saga.recovery.parallelism sagas in recovery at a time. Sagas that
+     * had all products reserved are confirmed; all others are compensated.
+     * Call after the message broker has started.
+     */
+    public void startRecovery() {
+        int total = recoveryRemaining.get();
+        if (total == 0) {
+            recoveryTimeMs = 0;
+            return;
+        }
+        long startNanos = System.nanoTime();
+        int progressStep = Math.max(1, total / 10);
+        System.out.println("Recovering " + total + " sagas with parallelism " + recoveryParallelism);
+        for (int i = 0; i < Math.min(recoveryParallelism, total); i++) {
+            recoverNext(total, progressStep, startNanos);
+        }
     }
     
-    public Order processOrder(Order order) throws Exception {
-        String sagaId = UUID.randomUUID().toString();
-        SagaInstance saga = new SagaInstance(sagaId, order);
-        activeSagas.put(sagaId, saga);
-        
-        // Save initial saga state
-        stateManager.saveSagaState(sagaId, createSnapshot(saga));
-        
+    private void recoverNext(int total, int progressStep, long startNanos) {
+        SagaStateManager.SagaSnapshot snapshot = sagasToRecover.poll();
+        if (snapshot == null) {
+            return;
+        }
+        CompletableFuture<Void> recovery;
         try {
-            Order result = executeSaga(saga).get(sagaTimeoutSeconds, TimeUnit.SECONDS);
-            
-            // Clean up completed saga state
-            if (result.getStatus() == OrderStatus.COMPLETED) {
-                stateManager.removeSagaState(sagaId);
+            recovery = recoverSaga(snapshot);
+        } catch (RuntimeException e) {
+            recovery = CompletableFuture.failedFuture(e);
+        }
+        recovery.whenCompleteAsync((result, exception) -> {
+            if (exception != null) {
+                System.err.println("Error recovering saga " + snapshot.getSagaId() + ": " + unwrap(exception).getMessage());
             }
-            
-            return result;
-        } catch (TimeoutException e) {
-            System.err.println("SAGA timeout for order " + order.getOrderId());
-            compensateSaga(saga);
-            order.setStatus(OrderStatus.FAILED);
-            throw new RuntimeException("SAGA execution timeout", e);
-        } finally {
-            activeSagas.remove(sagaId);
+            int remaining = recoveryRemaining.decrementAndGet();
+            int done = total - remaining;
+            if (remaining == 0) {
+                recoveryTimeMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+                System.out.println("Saga recovery finished: " + total + " sagas in " + recoveryTimeMs + "ms");
+            } else if (done % progressStep == 0) {
+                System.out.println("Saga recovery progress: " + done + "/" + total);
+            }
+            recoverNext(total, progressStep, startNanos);
+        }, sagaExecutor);
+    }
+    
+    /**
+     * Recovers one saga from its snapshot. Reservations recorded after every seller reserved are
+     * confirmed again, falling back to compensation if a confirmation fails; sellers that confirmed
+     * before the crash answer "already confirmed", which counts as confirmed. A saga stopped earlier
+     * or during compensation has its recorded cancels run again.
+     * @param snapshot The persisted saga state
+     * @return Future that completes when the saga reached a terminal state
+     */
+    private CompletableFuture<Void> recoverSaga(SagaStateManager.SagaSnapshot snapshot) {
+        SagaState recordedState = snapshot.getCurrentState();
+        boolean resume = recordedState == SagaState.PRODUCTS_RESERVED ||
+                         recordedState == SagaState.CONFIRMING_RESERVATIONS;
+        // Start from the state before the recorded one, so the saga takes the same transitions as live
+        SagaInstance saga = new SagaInstance(snapshot.getSagaId(), new Order(snapshot.getOrderId(), null, marketplaceId),
+            resume ? SagaState.PRODUCTS_RESERVED : SagaState.RESERVING_PRODUCTS);
+        for (SagaStateManager.CompensationActionSnapshot action : snapshot.getCompensationActions()) {
+            if ("CANCEL".equals(action.getActionType())) {
+                saga.addCompensationAction(new CancelReservationAction(action.getSellerId(), action.getReservationId()));
+            }
+        }
+        snapshot.getReservationIds().forEach(saga::addReservation);
+        System.out.println("Recovering saga " + saga.getSagaId() + " from state " + recordedState + 
+                         (resume ? ": confirming" : ": compensating"));
+        
+        if (!resume) {
+            return compensateSaga(saga);
         }
+        return confirmReservations(saga)
+            .thenRun(() -> {
+                saga.transitionTo(SagaState.COMPLETED);
+                stateManager.removeSagaState(saga.getSagaId());
+            })
+            .handleAsync((result, exception) -> exception == null ?
+                CompletableFuture.<Void>completedFuture(null) : compensateSaga(saga), sagaExecutor)
+            .thenCompose(Function.identity());
     }
     
-    private CompletableFuture<Order> executeSaga(SagaInstance saga) {
-        return CompletableFuture.supplyAsync(() -> {
-            Order order = saga.getOrder();
-            
-            try {
-                // Phase 1: Reserve all products
-                if (!saga.transitionTo(SagaState.RESERVING_PRODUCTS)) {
-                    throw new IllegalStateException("Cannot start reservation phase");
-                }
-                order.setStatus(OrderStatus.RESERVING_PRODUCTS);
-                
-                Map<String, CompletableFuture<ReservationResult>> reservationFutures = new HashMap<>();
-                
-                // Send all reservation requests in parallel
-                for (Order.OrderItem item : order.getItems()) {
-                    String correlationId = UUID.randomUUID().toString();
-                    CompletableFuture<ReservationResult> future = reserveProduct(
-                        item.getSellerId(), 
-                        item.getProductId(), 
-                        item.getQuantity(),
-                        correlationId
-                    );
-                    reservationFutures.put(item.getProductId() + "@" + item.getSellerId(), future);
-                }
-                
-                // Wait for all reservations to complete
-                Map<String, ReservationResult> reservations = new HashMap<>();
-                boolean allSuccessful = true;
-                
-                for (Map.Entry<String, CompletableFuture<ReservationResult>> entry : reservationFutures.entrySet()) {
-                    try {
-                        ReservationResult result = entry.getValue().get(10, TimeUnit.SECONDS);
-                        reservations.put(entry.getKey(), result);
-                        
-                        if (!result.isSuccess()) {
-                            allSuccessful = false;
-                            System.out.println("Reservation failed for " + entry.getKey() + 
-                                             ": " + result.getErrorMessage());
-                        } else {
-                            saga.addCompensationAction(new CancelReservationAction(
-                                result.getSellerId(), 
-                                result.getReservationId()
-                            ));
-                        }
-                    } catch (Exception e) {
-                        allSuccessful = false;
-                        System.err.println("Error reserving " + entry.getKey() + ": " + e.getMessage());
-                    }
-                }
-                
-                if (!allSuccessful) {
-                    throw new RuntimeException("Not all products could be reserved");
-                }
-                
-                // Phase 2: Confirm all reservations
-                if (!saga.transitionTo(SagaState.PRODUCTS_RESERVED)) {
-                    throw new IllegalStateException("Cannot transition to products reserved");
-                }
-                order.setStatus(OrderStatus.ALL_RESERVED);
-                
-                if (!saga.transitionTo(SagaState.CONFIRMING_RESERVATIONS)) {
-                    throw new IllegalStateException("Cannot start confirmation phase");
-                }
-                order.setStatus(OrderStatus.CONFIRMING_PRODUCTS);
-                
-                // Confirm all reservations in parallel
-                List<CompletableFuture<Boolean>> confirmationFutures = new ArrayList<>();
-                
-                for (ReservationResult reservation : reservations.values()) {
-                    if (reservation.isSuccess()) {
-                        CompletableFuture<Boolean> confirmFuture = confirmReservation(
-                            reservation.getSellerId(),
-                            reservation.getReservationId()
-                        );
-                        confirmationFutures.add(confirmFuture);
+    /**
+     * Gets the number of sagas from the previous run that are not recovered yet.
+     * @return Sagas waiting for or in recovery
+     */
+    public int getPendingRecoveryCount() {
+        return recoveryRemaining.get();
+    }
+    
+    /**
+     * Gets how long the last recovery took.
+     * @return Milliseconds from startRecovery() to the last recovered saga, or -1 while it runs
+     */
+    public long getRecoveryTimeMs() {
+        return recoveryTimeMs;
+    }
+    
+    private boolean isTerminalState(SagaState state) {
+        return state == SagaState.COMPLETED || state == SagaState.FAILED || state == SagaState.COMPENSATION_COMPLETED;
+    }
+    
+    /**
+     * Runs the saga for an order without blocking the caller. Every step is a stage on the futures
+     * returned by the message broker, so no thread waits for a seller and the number of sagas in
+     * flight is not bounded by a thread pool.
+     * @param order The order to process
+     * @return Future with the processed order; completes exceptionally if the saga failed or timed
+     *         out, after compensation has finished
+     */
+    public CompletableFuture<Order> processOrderAsync(Order order) {
+        String sagaId = IdGenerators.next();
+        SagaInstance saga = new SagaInstance(sagaId, order,
+            System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(sagaTimeoutSeconds));
+        activeSagas.put(sagaId, saga);
+        
+        // The deadline completes the saga future with a TimeoutException
+        CompletableFuture<Order> execution = deadlineTimer.failAfter(executeSaga(saga), sagaTimeoutSeconds,
+            TimeUnit.SECONDS, "SAGA " + sagaId + " exceeded " + sagaTimeoutSeconds + "s");
+        
+        return execution
+            .handleAsync((result, exception) -> {
+                if (exception == null) {
+                    // Clean up completed saga state
+                    if (result.getStatus() == OrderStatus.COMPLETED) {
+                        stateManager.removeSagaState(sagaId);
                     }
+                    return CompletableFuture.completedFuture(result);
                 }
                 
-                // Wait for all confirmations
-                CompletableFuture<Void> allConfirmations = CompletableFuture.allOf(
-                    confirmationFutures.toArray(new CompletableFuture[0])
-                );
-                
-                allConfirmations.get(10, TimeUnit.SECONDS);
-                
-                // Check if all confirmations succeeded
-                boolean allConfirmed = confirmationFutures.stream()
-                    .map(CompletableFuture::join)
-                    .allMatch(Boolean::booleanValue);
-                
-                if (!allConfirmed) {
-                    throw new RuntimeException("Not all reservations could be confirmed");
+                Throwable cause = unwrap(exception);
+                if (!(cause instanceof TimeoutException)) {
+                    return CompletableFuture.<Order>failedFuture(cause);
                 }
-                
+                System.err.println("SAGA timeout for order " + order.getOrderId());
+                return compensateSaga(saga).<Order>thenApply(v -> {
+                    order.setStatus(OrderStatus.FAILED);
+                    throw new CompletionException(new RuntimeException("SAGA execution timeout", cause));
+                });
+            }, sagaExecutor)
+            .thenCompose(Function.identity())
+            .whenComplete((result, exception) -> activeSagas.remove(sagaId));
+    }
+    
+    private CompletableFuture<Order> executeSaga(SagaInstance saga) {
+        Order order = saga.getOrder();
+        
+        // Save initial saga state; nothing is sent before it is durable
+        return stateManager.saveSagaState(saga.getSagaId(), createSnapshot(saga))
+            .thenComposeAsync(v -> reserveAll(saga), sagaExecutor)
+            .thenComposeAsync(reservations -> confirmAll(saga), sagaExecutor)
+            .thenApply(v -> {
                 // Success!
                 if (!saga.transitionTo(SagaState.COMPLETED)) {
                     throw new IllegalStateException("Cannot complete SAGA");
                 }
                 order.setStatus(OrderStatus.COMPLETED);
-                
                 return order;
+            })
+            .handleAsync((result, exception) -> {
+                if (exception == null) {
+                    return CompletableFuture.completedFuture(result);
+                }
                 
-            } catch (Exception e) {
-                System.err.println("SAGA failed for order " + order.getOrderId() + ": " + e.getMessage());
-                compensateSaga(saga);
-                order.setStatus(OrderStatus.FAILED);
-                throw new RuntimeException("SAGA execution failed", e);
+                Throwable cause = unwrap(exception);
+                System.err.println("SAGA failed for order " + order.getOrderId() + ": " + cause.getMessage());
+                return compensateSaga(saga).<Order>thenApply(v -> {
+                    order.setStatus(OrderStatus.FAILED);
+                    throw new CompletionException(new RuntimeException("SAGA execution failed", cause));
+                });
+            }, sagaExecutor)
+            .thenCompose(Function.identity());
+    }
+    
+    /**
+     * Phase 1: sends all reservation requests in parallel. The first refusal, error or the step
+     * timeout fails the phase at once instead of waiting for the other sellers.
+     * @param saga The saga
+     * @return Future with the reservations by seller; fails unless every seller reserved its items
+     */
+    private CompletableFuture<Map<String, ReservationResult>> reserveAll(SagaInstance saga) {
+        Order order = saga.getOrder();
+        if (!saga.transitionTo(SagaState.RESERVING_PRODUCTS)) {
+            throw new IllegalStateException("Cannot start reservation phase");
+        }
+        order.setStatus(OrderStatus.RESERVING_PRODUCTS);
+        markDirty(saga);
+        
+        // One request per seller: several items from the same seller go out as one RESERVE_BATCH
+        Map<String, List<Order.OrderItem>> itemsBySeller = new LinkedHashMap<>();
+        for (Order.OrderItem item : order.getItems()) {
+            itemsBySeller.computeIfAbsent(item.getSellerId(), id -> new ArrayList<>()).add(item);
+        }
+        
+        // Sellers drop reservations that arrive after the saga or this step gave up on them
+        long deadline = Math.min(saga.getDeadline(),
+            System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(STEP_TIMEOUT_SECONDS));
+        ReservationRound round = new ReservationRound(saga, itemsBySeller.size(), deadline);
+        for (Map.Entry<String, List<Order.OrderItem>> entry : itemsBySeller.entrySet()) {
+            if (round.isDecided()) {
+                // An earlier seller already refused; don't ask the rest
+                break;
             }
-        }, sagaExecutor);
+            String sellerId = entry.getKey();
+            String correlationId = IdGenerators.next();
+            List<Order.OrderItem> items = entry.getValue();
+            CompletableFuture<Message> request;
+            if (items.size() == 1) {
+                request = reserveProduct(
+                    sellerId, 
+                    items.get(0).getProductId(), 
+                    items.get(0).getQuantity(),
+                    correlationId,
+                    deadline
+                );
+            } else {
+                request = reserveProducts(sellerId, items, correlationId, deadline);
+            }
+            round.track(sellerId, request);
+        }
+        return round.getResult();
+    }
+    
+    /**
+     * Phase 2: confirms all reservations in parallel.
+     * @param saga The saga, with the reservations from phase 1
+     * @return Future that fails unless every reservation was confirmed
+     */
+    private CompletableFuture<Void> confirmAll(SagaInstance saga) {
+        if (!saga.transitionTo(SagaState.PRODUCTS_RESERVED)) {
+            throw new IllegalStateException("Cannot transition to products reserved");
+        }
+        saga.getOrder().setStatus(OrderStatus.ALL_RESERVED);
+        return confirmReservations(saga);
+    }
+    
+    /**
+     * Sends a CONFIRM for every reservation of a saga whose products are all reserved.
+     * @param saga The saga, in state PRODUCTS_RESERVED
+     * @return Future that fails unless every reservation was confirmed
+     */
+    private CompletableFuture<Void> confirmReservations(SagaInstance saga) {
+        if (!saga.transitionTo(SagaState.CONFIRMING_RESERVATIONS)) {
+            throw new IllegalStateException("Cannot start confirmation phase");
+        }
+        saga.getOrder().setStatus(OrderStatus.CONFIRMING_PRODUCTS);
+        // From here on a restart confirms these reservations instead of cancelling them, so the
+        // state must be durable before the first CONFIRM goes out
+        return stateManager.saveSagaState(saga.getSagaId(), createSnapshot(saga))
+            .thenComposeAsync(v -> sendConfirmations(saga), sagaExecutor);
+    }
+    
+    private CompletableFuture<Void> sendConfirmations(SagaInstance saga) {
+        List<CompletableFuture<Boolean>> confirmationFutures = new ArrayList<>();
+        for (Map.Entry<String, String> reservation : saga.getReservationIds().entrySet()) {
+            confirmationFutures.add(confirmReservation(reservation.getKey(), reservation.getValue()));
+        }
+        
+        CompletableFuture<Void> allConfirmations = deadlineTimer.failAfter(
+            CompletableFuture.allOf(confirmationFutures.toArray(new CompletableFuture<?>[0])),
+            STEP_TIMEOUT_SECONDS, TimeUnit.SECONDS, "Confirmations for SAGA " + saga.getSagaId() + " timed out");
+        
+        return allConfirmations.thenApply(v -> {
+            // Check if all confirmations succeeded
+            boolean allConfirmed = confirmationFutures.stream()
+                .map(CompletableFuture::join)
+                .allMatch(Boolean::booleanValue);
+            
+            if (!allConfirmed) {
+                throw new RuntimeException("Not all reservations could be confirmed");
+            }
+            return null;
+        });
     }
     
-    private void compensateSaga(SagaInstance saga) {
+    /**
+     * Runs the compensation actions of all sellers in parallel; each seller's own actions run in
+     * reverse order. A failed or timed-out action is handed to the retry queue, so compensation
+     * takes as long as the slowest seller.
+     * @param saga The saga to compensate
+     * @return Future that completes when compensation is done; it never fails
+     */
+    private CompletableFuture<Void> compensateSaga(SagaInstance saga) {
         if (!saga.transitionTo(SagaState.COMPENSATING)) {
             System.err.println("Cannot start compensation for SAGA " + saga.getSagaId());
-            return;
+            return CompletableFuture.completedFuture(null);
         }
         
         saga.getOrder().setStatus(OrderStatus.COMPENSATING);
-        
+        // A restart runs these cancels again rather than confirming anything. Cancels still go out
+        // if the state can't be saved: holding stock is worse than a repeated cancel
+        return stateManager.saveSagaState(saga.getSagaId(), createSnapshot(saga))
+            .handleAsync((v, exception) -> runCompensationActions(saga), sagaExecutor)
+            .thenCompose(Function.identity());
+    }
+    
+    private CompletableFuture<Void> runCompensationActions(SagaInstance saga) {
         List<CompensationAction> actions = saga.getCompensationActions();
         Collections.reverse(actions); // Execute in reverse order
         
+        Map<String, CompletableFuture<Void>> chainsBySeller = new LinkedHashMap<>();
         for (CompensationAction action : actions) {
-            try {
-                action.execute(messageBroker).get(5, TimeUnit.SECONDS);
-                System.out.println("Compensation executed: " + action.getDescription());
-            } catch (Exception e) {
-                System.err.println("Compensation failed: " + action.getDescription() + 
-                                 " - " + e.getMessage());
-            }
+            CompletableFuture<Void> chain = chainsBySeller.get(action.getSellerId());
+            chainsBySeller.put(action.getSellerId(), chain == null ? compensate(action) :
+                chain.thenCompose(v -> compensate(action)));
         }
         
-        saga.transitionTo(SagaState.COMPENSATION_COMPLETED);
-        saga.getOrder().setStatus(OrderStatus.CANCELLED);
+        return CompletableFuture.allOf(chainsBySeller.values().toArray(new CompletableFuture<?>[0])).thenRun(() -> {
+            saga.transitionTo(SagaState.COMPENSATION_COMPLETED);
+            saga.getOrder().setStatus(OrderStatus.CANCELLED);
+            // Cancels that failed are in the retry queue, so the saga needs no recovery
+            stateManager.removeSagaState(saga.getSagaId());
+        });
+    }
+    
+    /**
+     * Executes one compensation action, queueing it for retry if the seller doesn't answer in time.
+     * @param action The action
+     * @return Future that completes when the action succeeded or was queued; it never fails
+     */
+    private CompletableFuture<Void> compensate(CompensationAction action) {
+        return deadlineTimer.failAfter(action.execute(messageBroker),
+                COMPENSATION_TIMEOUT_SECONDS, TimeUnit.SECONDS, "Compensation timed out")
+            .handle((result, exception) -> {
+                if (exception == null) {
+                    System.out.println("Compensation executed: " + action.getDescription());
+                    return null;
+                }
+                System.err.println("Compensation failed: " + action.getDescription() + 
+                                 " - " + unwrap(exception).getMessage());
+                if (action instanceof CancelReservationAction) {
+                    CancelReservationAction cancelAction = (CancelReservationAction) action;
+                    compensationRetryQueue.enqueue(cancelAction.getSellerId(), cancelAction.getReservationId());
+                }
+                return null;
+            });
+    }
+    
+    private static String failureReason(Message response) {
+        if (response == null || response.getData() == null) {
+            return "No response";
+        }
+        return response.getData().getOrDefault("error", "Unknown error");
+    }
+    
+    /**
+     * Checks whether a seller's failure reason for a CANCEL is final, so retrying cannot change it.
+     * @param reason The reason from the seller's reply
+     * @return true if the reservation is gone, confirmed or already released
+     */
+    private static boolean isSettled(String reason) {
+        return Message.REASON_NOT_FOUND.equals(reason) || Message.REASON_ALREADY_CONFIRMED.equals(reason) ||
+               Message.REASON_ALREADY_RELEASED.equals(reason);
+    }
+    
+    private static Throwable unwrap(Throwable exception) {
+        while ((exception instanceof CompletionException || exception instanceof ExecutionException) &&
+               exception.getCause() != null) {
+            exception = exception.getCause();
+        }
+        return exception;
     }
     
-    private CompletableFuture<ReservationResult> reserveProduct(String sellerId, String productId, 
-                                                               int quantity, String correlationId) {
+    private CompletableFuture<Message> reserveProduct(String sellerId, String productId, 
+                                                     int quantity, String correlationId, long deadline) {
         Message request = new Message();
         request.setType("RESERVE");
         request.setData(Map.of(
@@ -237,24 +472,71 @@ public class SagaOrchestrator {
         ));
         request.setCorrelationId(correlationId);
         request.setSenderId(marketplaceId);
+        request.setDeadline(deadline);
         
         return messageBroker.sendAsyncRequestWithRetry(sellerId, request, 
-                "Reserve " + quantity + "x " + productId + " from " + sellerId)
-            .thenApply(response -> {
-                if (response != null && "SUCCESS".equals(response.getType())) {
-                    return new ReservationResult(
-                        true,
-                        sellerId,
-                        response.getData().get("reservationId"),
-                        null
-                    );
-                } else {
-                    String error = response != null ? 
-                        response.getData().getOrDefault("error", "Unknown error") : 
-                        "No response";
-                    return new ReservationResult(false, sellerId, null, error);
-                }
-            });
+                "Reserve " + quantity + "x " + productId + " from " + sellerId);
+    }
+    
+    /**
+     * Reserves several products from one seller in a single all-or-nothing request.
+     * The returned reservation ID is the seller's group ID, which CONFIRM and CANCEL accept like
+     * a single reservation ID.
+     */
+    private CompletableFuture<Message> reserveProducts(String sellerId, List<Order.OrderItem> items,
+                                                      String correlationId, long deadline) {
+        // "productId:quantity" lines separated by commas; SKUs never contain commas
+        StringBuilder encodedItems = new StringBuilder();
+        for (Order.OrderItem item : items) {
+            if (encodedItems.length() > 0) {
+                encodedItems.append(',');
+            }
+            encodedItems.append(item.getProductId()).append(':').append(item.getQuantity());
+        }
+        
+        Message request = new Message();
+        request.setType("RESERVE_BATCH");
+        request.setData(Map.of("items", encodedItems.toString()));
+        request.setCorrelationId(correlationId);
+        request.setSenderId(marketplaceId);
+        request.setDeadline(deadline);
+        
+        return messageBroker.sendAsyncRequestWithRetry(sellerId, request, 
+                "Reserve " + items.size() + " products from " + sellerId);
+    }
+    
+    private ReservationResult toReservationResult(String sellerId, Message response) {
+        if (response != null && "SUCCESS".equals(response.getType())) {
+            return new ReservationResult(
+                true,
+                sellerId,
+                response.getData().get("reservationId"),
+                null
+            );
+        } else {
+            String error = response != null ? 
+                response.getData().getOrDefault("error", "Unknown error") : 
+                "No response";
+            return new ReservationResult(false, sellerId, null, error);
+        }
+    }
+    
+    // A reservation that lands after its request was cancelled or timed out is stock held for a
+    // saga that no longer wants it
+    private void onLateResponse(String sellerId, String requestType, Message response) {
+        boolean reserve = "RESERVE".equals(requestType) || "RESERVE_BATCH".equals(requestType);
+        if (reserve && "SUCCESS".equals(response.getType()) && response.getData() != null) {
+            String reservationId = response.getData().get("reservationId");
+            if (reservationId != null) {
+                releaseLateReservation(sellerId, reservationId);
+            }
+        }
+    }
+    
+    private void releaseLateReservation(String sellerId, String reservationId) {
+        CompensationAction action = new CancelReservationAction(sellerId, reservationId);
+        System.out.println("Releasing late reservation: " + action.getDescription());
+        compensate(action);
     }
     
     private CompletableFuture<Boolean> confirmReservation(String sellerId, String reservationId) {
@@ -265,11 +547,23 @@ public class SagaOrchestrator {
         
         return messageBroker.sendAsyncRequestWithRetry(sellerId, request, 
                 "Confirm reservation " + reservationId + " from " + sellerId)
-            .thenApply(response -> response != null && "SUCCESS".equals(response.getType()));
+            .thenApply(response -> {
+                if (response != null && "SUCCESS".equals(response.getType())) {
+                    return true;
+                }
+                // A saga recovered while confirming sends CONFIRM again to sellers that already confirmed
+                if (Message.REASON_ALREADY_CONFIRMED.equals(failureReason(response))) {
+                    System.out.println("Reservation " + reservationId + " at " + sellerId + " was already confirmed");
+                    return true;
+                }
+                return false;
+            });
     }
     
     public void shutdown() {
         sagaExecutor.shutdown();
+        compensationRetryQueue.shutdown();
+        deadlineTimer.stop();
         retryManager.shutdown();
         stateManager.shutdown();
         
@@ -284,7 +578,18 @@ public class SagaOrchestrator {
         System.out.println("SagaOrchestrator shut down");
     }
     
+    /**
+     * Has the next periodic flush save a change that doesn't need to be durable before the saga
+     * goes on.
+     * @param saga The changed saga
+     */
+    private void markDirty(SagaInstance saga) {
+        stateManager.markDirty(saga.getSagaId(), () -> createSnapshot(saga));
+    }
+    
     private SagaStateManager.SagaSnapshot createSnapshot(SagaInstance saga) {
+        // Taken before the state is read, so a capture that starts after a transition outranks any before it
+        long version = saga.nextSnapshotVersion();
         List<SagaStateManager.CompensationActionSnapshot> actionSnapshots = new ArrayList<>();
         
         for (CompensationAction action : saga.getCompensationActions()) {
@@ -303,7 +608,8 @@ public class SagaOrchestrator {
             saga.getOrder().getOrderId(),
             saga.getState(),
             actionSnapshots,
-            saga.getReservationIds()
+            saga.getReservationIds(),
+            version
         );
     }
     
@@ -311,6 +617,14 @@ public class SagaOrchestrator {
         return activeSagas.size();
     }
     
+    /**
+     * Gets the number of reservation cancels waiting in the retry queue.
+     * @return Retry queue depth
+     */
+    public int getCompensationRetryQueueDepth() {
+        return compensationRetryQueue.size();
+    }
+    
     public Map<String, String> getCircuitBreakerStats() {
         Map<String, String> stats = new HashMap<>();
         circuitBreakers.forEach((sellerId, cb) -> stats.put(sellerId, cb.getStats()));
@@ -324,10 +638,28 @@ public class SagaOrchestrator {
         private final AtomicReference<SagaState> state = new AtomicReference<>(SagaState.STARTED);
         private final List<CompensationAction> compensationActions = new CopyOnWriteArrayList<>();
         private final Map<String, String> reservationIds = new ConcurrentHashMap<>();
+        private final AtomicLong snapshotVersion = new AtomicLong();
+        // Epoch milliseconds at which the saga times out; 0 for recovered sagas, which reserve nothing
+        private final long deadline;
         
-        public SagaInstance(String sagaId, Order order) {
+        public SagaInstance(String sagaId, Order order, long deadline) {
+            this(sagaId, order, SagaState.STARTED, deadline);
+        }
+        
+        // Recovered sagas continue from the state they were persisted in
+        public SagaInstance(String sagaId, Order order, SagaState state) {
+            this(sagaId, order, state, 0);
+        }
+        
+        private SagaInstance(String sagaId, Order order, SagaState state, long deadline) {
             this.sagaId = sagaId;
             this.order = order;
+            this.state.set(state);
+            this.deadline = deadline;
+        }
+        
+        public long nextSnapshotVersion() {
+            return snapshotVersion.incrementAndGet();
         }
         
         public boolean transitionTo(SagaState newState) {
@@ -349,6 +681,7 @@ public class SagaOrchestrator {
         public String getSagaId() { return sagaId; }
         public Order getOrder() { return order; }
         public SagaState getState() { return state.get(); }
+        public long getDeadline() { return deadline; }
         public List<CompensationAction> getCompensationActions() { 
             return new ArrayList<>(compensationActions); 
         }
@@ -360,6 +693,7 @@ public class SagaOrchestrator {
     private interface CompensationAction {
         CompletableFuture<Void> execute(AsyncMessageBroker broker);
         String getDescription();
+        String getSellerId();
     }
     
     private class CancelReservationAction implements CompensationAction {
@@ -381,11 +715,16 @@ public class SagaOrchestrator {
             return broker.sendAsyncRequestWithRetry(sellerId, request, 
                     "Cancel reservation " + reservationId + " from " + sellerId)
                 .thenAccept(response -> {
-                    if (response == null || !"SUCCESS".equals(response.getType())) {
-                        System.err.println("Failed to cancel reservation " + reservationId);
-                    } else {
+                    if (response != null && "SUCCESS".equals(response.getType())) {
                         System.out.println("Successfully cancelled reservation " + reservationId);
+                        return;
                     }
+                    String reason = failureReason(response);
+                    if (!isSettled(reason)) {
+                        // Fails the compensation, so it is queued for retry instead of holding the stock until expiry
+                        throw new RuntimeException("Failed to cancel reservation " + reservationId + ": " + reason);
+                    }
+                    System.out.println("Reservation " + reservationId + " needs no cancel: " + reason);
                 });
         }
         
@@ -395,10 +734,119 @@ public class SagaOrchestrator {
         }
         
         // Expose fields for snapshot creation
+        @Override
         public String getSellerId() { return sellerId; }
         public String getReservationId() { return reservationId; }
     }
     
+    /**
+     * Collects the replies of one reservation phase. The first refusal, error or the step timeout
+     * decides it: outstanding requests are cancelled, and reservations that succeed afterwards are
+     * released as they land instead of being added to the saga.
+     */
+    private class ReservationRound {
+        private final SagaInstance saga;
+        private final Map<String, ReservationResult> reservations = new ConcurrentHashMap<>();
+        private final CompletableFuture<Map<String, ReservationResult>> result = new CompletableFuture<>();
+        private final HashedWheelTimer.Timeout timeout;
+        // Guarded by this. Once decided, no reply becomes a compensation action of the saga, so
+        // compensation always sees every reservation that was accepted into it
+        private final List<CompletableFuture<Message>> requests = new ArrayList<>();
+        private int remaining;
+        private boolean decided;
+        
+        ReservationRound(SagaInstance saga, int sellerCount, long deadline) {
+            this.saga = saga;
+            this.remaining = sellerCount;
+            this.timeout = deadlineTimer.newTimeout(() -> fail(new TimeoutException(
+                "Reservations for SAGA " + saga.getSagaId() + " timed out")),
+                Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        }
+        
+        synchronized boolean isDecided() {
+            return decided;
+        }
+        
+        CompletableFuture<Map<String, ReservationResult>> getResult() {
+            return result;
+        }
+        
+        void track(String sellerId, CompletableFuture<Message> request) {
+            boolean cancel;
+            synchronized (this) {
+                cancel = decided;
+                if (!cancel) {
+                    requests.add(request);
+                }
+            }
+            if (cancel) {
+                request.cancel(false);
+            }
+            request.whenComplete((response, exception) -> onReply(sellerId, response, exception));
+        }
+        
+        private void onReply(String sellerId, Message response, Throwable exception) {
+            if (exception != null) {
+                Throwable cause = unwrap(exception);
+                if (!(cause instanceof CancellationException)) {
+                    System.err.println("Error reserving " + sellerId + ": " + cause.getMessage());
+                    fail(new RuntimeException("Reservation at " + sellerId + " failed: " + cause.getMessage()));
+                }
+                return;
+            }
+            
+            ReservationResult reservation = toReservationResult(sellerId, response);
+            if (!reservation.isSuccess()) {
+                System.out.println("Reservation failed for " + sellerId + 
+                                 ": " + reservation.getErrorMessage());
+                fail(new RuntimeException("Reservation at " + sellerId + " failed: " + reservation.getErrorMessage()));
+                return;
+            }
+            
+            boolean late;
+            boolean complete = false;
+            synchronized (this) {
+                late = decided;
+                if (!late) {
+                    reservations.put(sellerId, reservation);
+                    saga.addReservation(sellerId, reservation.getReservationId());
+                    saga.addCompensationAction(new CancelReservationAction(
+                        reservation.getSellerId(), 
+                        reservation.getReservationId()
+                    ));
+                    // Lets a restart cancel this reservation instead of waiting for it to expire
+                    markDirty(saga);
+                    complete = --remaining == 0;
+                    decided = complete;
+                }
+            }
+            if (late) {
+                releaseLateReservation(sellerId, reservation.getReservationId());
+            } else if (complete) {
+                timeout.cancel();
+                result.complete(reservations);
+            }
+        }
+        
+        private void fail(Throwable cause) {
+            List<CompletableFuture<Message>> outstanding;
+            synchronized (this) {
+                if (decided) {
+                    return;
+                }
+                decided = true;
+                outstanding = new ArrayList<>(requests);
+            }
+            timeout.cancel();
+            // Queued requests are dropped before they reach the seller; replies to ones already sent
+            // go to the late-response handler
+            for (CompletableFuture<Message> request : outstanding) {
+                request.cancel(false);
+            }
+            result.completeExceptionally(cause);
+        }
+    }
+    
     private static class ReservationResult {
         private final boolean success;
         private final String sellerId;
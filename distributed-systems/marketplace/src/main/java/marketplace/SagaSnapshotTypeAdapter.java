@@ -0,0 +1,222 @@
+package marketplace;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import common.JsonBytes;
+import common.SagaState;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hand-written JSON adapter for {@link SagaStateManager.SagaSnapshot} and its compensation actions.
+ * Writes the same fields in the same order as Gson's reflective adapter, so existing state files
+ * stay readable and newly written ones look the same.
+ */
+public final class SagaSnapshotTypeAdapter extends TypeAdapter<SagaStateManager.SagaSnapshot> {
+    public static final SagaSnapshotTypeAdapter INSTANCE = new SagaSnapshotTypeAdapter();
+    
+    /** Adapter for a single compensation action, in the same format as inside a snapshot. */
+    public static final TypeAdapter<SagaStateManager.CompensationActionSnapshot> ACTION_ADAPTER =
+        new TypeAdapter<SagaStateManager.CompensationActionSnapshot>() {
+            @Override
+            public void write(JsonWriter out, SagaStateManager.CompensationActionSnapshot action) throws IOException {
+                writeAction(out, action);
+            }
+            
+            @Override
+            public SagaStateManager.CompensationActionSnapshot read(JsonReader in) throws IOException {
+                return readAction(in);
+            }
+        };
+    
+    private SagaSnapshotTypeAdapter() {
+    }
+    
+    @Override
+    public void write(JsonWriter out, SagaStateManager.SagaSnapshot snapshot) throws IOException {
+        if (snapshot == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("sagaId").value(snapshot.getSagaId());
+        out.name("orderId").value(snapshot.getOrderId());
+        out.name("currentState").value(snapshot.getCurrentState() != null ? snapshot.getCurrentState().name() : null);
+        out.name("compensationActions");
+        writeActions(out, snapshot.getCompensationActions());
+        out.name("reservationIds");
+        writeReservationIds(out, snapshot.getReservationIds());
+        out.name("lastUpdated").value(snapshot.getLastUpdated());
+        out.name("createdAt").value(snapshot.getCreatedAt());
+        out.endObject();
+    }
+    
+    private static void writeActions(JsonWriter out, List<SagaStateManager.CompensationActionSnapshot> actions)
+            throws IOException {
+        if (actions == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginArray();
+        for (SagaStateManager.CompensationActionSnapshot action : actions) {
+            writeAction(out, action);
+        }
+        out.endArray();
+    }
+    
+    private static void writeAction(JsonWriter out, SagaStateManager.CompensationActionSnapshot action)
+            throws IOException {
+        if (action == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("sellerId").value(action.getSellerId());
+        out.name("reservationId").value(action.getReservationId());
+        out.name("actionType").value(action.getActionType());
+        out.name("timestamp").value(action.getTimestamp());
+        out.endObject();
+    }
+    
+    private static void writeReservationIds(JsonWriter out, Map<String, String> reservationIds) throws IOException {
+        if (reservationIds == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        for (Map.Entry<String, String> entry : reservationIds.entrySet()) {
+            out.name(entry.getKey()).value(entry.getValue());
+        }
+        out.endObject();
+    }
+    
+    @Override
+    public SagaStateManager.SagaSnapshot read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        
+        // Fields missing from the file stay null or 0, as with Gson
+        String sagaId = null;
+        String orderId = null;
+        SagaState currentState = null;
+        List<SagaStateManager.CompensationActionSnapshot> compensationActions = null;
+        Map<String, String> reservationIds = null;
+        long lastUpdated = 0;
+        long createdAt = 0;
+        
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "sagaId":
+                    sagaId = JsonBytes.readString(in);
+                    break;
+                case "orderId":
+                    orderId = JsonBytes.readString(in);
+                    break;
+                case "currentState":
+                    currentState = parseState(in.nextString());
+                    break;
+                case "compensationActions":
+                    compensationActions = readActions(in);
+                    break;
+                case "reservationIds":
+                    reservationIds = readReservationIds(in);
+                    break;
+                case "lastUpdated":
+                    lastUpdated = in.nextLong();
+                    break;
+                case "createdAt":
+                    createdAt = in.nextLong();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return new SagaStateManager.SagaSnapshot(sagaId, orderId, currentState, compensationActions,
+                                                 reservationIds, lastUpdated, createdAt);
+    }
+    
+    private static List<SagaStateManager.CompensationActionSnapshot> readActions(JsonReader in) throws IOException {
+        List<SagaStateManager.CompensationActionSnapshot> actions = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            actions.add(readAction(in));
+        }
+        in.endArray();
+        return actions;
+    }
+    
+    private static SagaStateManager.CompensationActionSnapshot readAction(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        String sellerId = null;
+        String reservationId = null;
+        String actionType = null;
+        long timestamp = 0;
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "sellerId":
+                    sellerId = JsonBytes.readString(in);
+                    break;
+                case "reservationId":
+                    reservationId = JsonBytes.readString(in);
+                    break;
+                case "actionType":
+                    actionType = JsonBytes.readString(in);
+                    break;
+                case "timestamp":
+                    timestamp = in.nextLong();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return new SagaStateManager.CompensationActionSnapshot(sellerId, reservationId, actionType, timestamp);
+    }
+    
+    private static Map<String, String> readReservationIds(JsonReader in) throws IOException {
+        Map<String, String> reservationIds = new ConcurrentHashMap<>();
+        in.beginObject();
+        while (in.hasNext()) {
+            String key = in.nextName();
+            String value = JsonBytes.readString(in);
+            if (value != null) {
+                reservationIds.put(key, value);
+            }
+        }
+        in.endObject();
+        return reservationIds;
+    }
+    
+    // Unknown names map to null, like Gson's enum adapter
+    private static SagaState parseState(String name) {
+        try {
+            return SagaState.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -1,31 +1,38 @@
 package marketplace;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import common.JsonBytes;
 import common.SagaState;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 /**
  * Manages saga state persistence and recovery for distributed transactions.
- * Ensures saga durability across system failures and restarts.
+ * Ensures saga durability across system failures and restarts. States are appended to a
+ * {@link SagaLog} in the state directory.
  */
 public class SagaStateManager {
-    private final Map<String, SagaSnapshot> sagaSnapshots = new ConcurrentHashMap<>();
+    private static final long SEGMENT_BYTES = 16L * 1024 * 1024;
+    // Unfinished sagas appended again per segment so compaction can delete it
+    private static final int MAX_RELOCATED_PER_SEGMENT = 1024;
+    
+    private final SagaLog sagaLog;
+    // Sagas changed since they were last saved, with a way to capture their current state
+    private final Map<String, Supplier<SagaSnapshot>> dirtySagas = new ConcurrentHashMap<>();
     private final ScheduledExecutorService persistenceExecutor = Executors.newSingleThreadScheduledExecutor();
     private final String stateDirectory;
-    private final Gson gson;
     private final long persistenceIntervalMs;
     
     /**
@@ -42,39 +49,68 @@ public class SagaStateManager {
      * @param persistenceIntervalMs Interval for periodic persistence in milliseconds
      */
     public SagaStateManager(String stateDirectory, long persistenceIntervalMs) {
+        this(stateDirectory, persistenceIntervalMs, SagaLog.Durability.BATCH, 0);
+    }
+    
+    /**
+     * Creates a saga state manager with custom settings.
+     * @param stateDirectory Directory to store saga state files
+     * @param persistenceIntervalMs Interval for periodic persistence in milliseconds
+     * @param durability When saved states are acknowledged
+     * @param fsyncIntervalMs How often the log is forced in INTERVAL mode
+     */
+    public SagaStateManager(String stateDirectory, long persistenceIntervalMs,
+                            SagaLog.Durability durability, long fsyncIntervalMs) {
         this.stateDirectory = stateDirectory;
         this.persistenceIntervalMs = persistenceIntervalMs;
-        this.gson = new GsonBuilder().setPrettyPrinting().create();
-        
-        // Create state directory if it doesn't exist
-        File dir = new File(stateDirectory);
-        if (!dir.exists()) {
-            dir.mkdirs();
-        }
         
         // Recover existing saga states
-        recoverSagaStates();
+        try {
+            sagaLog = new SagaLog(Paths.get(stateDirectory), SEGMENT_BYTES, durability, fsyncIntervalMs);
+            sagaLog.recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open saga log in " + stateDirectory, e);
+        }
+        migrateJsonStates();
         
         // Start periodic persistence
         persistenceExecutor.scheduleAtFixedRate(
-            this::persistAllStates, 
+            this::persistDirtyStates, 
             persistenceIntervalMs, 
             persistenceIntervalMs, 
             TimeUnit.MILLISECONDS
         );
         
-        System.out.println("SagaStateManager initialized with " + sagaSnapshots.size() + " recovered sagas");
+        System.out.println("SagaStateManager initialized with " + sagaLog.size() + " recovered sagas (" +
+                         durability.name().toLowerCase() + " durability)");
     }
     
     /**
-     * Saves saga state immediately.
+     * Saves saga state. It is visible to getSagaState right away and is written by the saga log's
+     * next batch.
      * @param sagaId The saga identifier
      * @param snapshot The saga state snapshot
+     * @return Future that completes once the state is as durable as the configured mode requires;
+     *         completes on the log's flusher thread
+     */
+    public CompletableFuture<Void> saveSagaState(String sagaId, SagaSnapshot snapshot) {
+        // Cleared first, so a change marked while this is written is flushed later
+        dirtySagas.remove(sagaId);
+        return sagaLog.append(snapshot).whenComplete((result, exception) -> {
+            if (exception != null) {
+                System.err.println("Failed to persist saga state " + sagaId + ": " + exception.getMessage());
+            }
+        });
+    }
+    
+    /**
+     * Marks a saga as changed without saving it now. The next periodic flush captures and saves
+     * its state once, however often it was marked.
+     * @param sagaId The saga identifier
+     * @param snapshot Captures the saga's state at flush time
      */
-    public void saveSagaState(String sagaId, SagaSnapshot snapshot) {
-        sagaSnapshots.put(sagaId, snapshot);
-        // Immediate persistence for critical state changes
-        persistSagaState(sagaId, snapshot);
+    public void markDirty(String sagaId, Supplier<SagaSnapshot> snapshot) {
+        dirtySagas.put(sagaId, snapshot);
     }
     
     /**
@@ -83,7 +119,7 @@ public class SagaStateManager {
      * @return The saga state snapshot or null if not found
      */
     public SagaSnapshot getSagaState(String sagaId) {
-        return sagaSnapshots.get(sagaId);
+        return sagaLog.get(sagaId);
     }
     
     /**
@@ -91,11 +127,12 @@ public class SagaStateManager {
      * @param sagaId The saga identifier
      */
     public void removeSagaState(String sagaId) {
-        sagaSnapshots.remove(sagaId);
-        File stateFile = new File(stateDirectory + "/" + sagaId + ".json");
-        if (stateFile.exists()) {
-            stateFile.delete();
-        }
+        dirtySagas.remove(sagaId);
+        sagaLog.appendRemove(sagaId).whenComplete((result, exception) -> {
+            if (exception != null) {
+                System.err.println("Failed to remove saga state " + sagaId + ": " + exception.getMessage());
+            }
+        });
     }
     
     /**
@@ -103,7 +140,7 @@ public class SagaStateManager {
      * @return List of active saga IDs
      */
     public List<String> getActiveSagaIds() {
-        return new ArrayList<>(sagaSnapshots.keySet());
+        return sagaLog.getSagaIds();
     }
     
     /**
@@ -111,63 +148,74 @@ public class SagaStateManager {
      * @return Number of active sagas
      */
     public int getActiveSagaCount() {
-        return sagaSnapshots.size();
+        return sagaLog.size();
     }
     
     /**
-     * Persists a single saga state to disk.
-     * @param sagaId The saga identifier
-     * @param snapshot The saga state snapshot
+     * Saves the sagas marked dirty since the last flush and compacts the log.
      */
-    private void persistSagaState(String sagaId, SagaSnapshot snapshot) {
-        try {
-            String json = gson.toJson(snapshot);
-            Files.write(Paths.get(stateDirectory + "/" + sagaId + ".json"), 
-                       json.getBytes(StandardCharsets.UTF_8));
-            System.out.println("Persisted saga state: " + sagaId);
-        } catch (IOException e) {
-            System.err.println("Failed to persist saga state " + sagaId + ": " + e.getMessage());
-        }
-    }
-    
-    /**
-     * Persists all saga states to disk.
-     */
-    private void persistAllStates() {
+    private void persistDirtyStates() {
         int persistedCount = 0;
-        for (Map.Entry<String, SagaSnapshot> entry : sagaSnapshots.entrySet()) {
+        for (String sagaId : dirtySagas.keySet()) {
+            Supplier<SagaSnapshot> snapshot = dirtySagas.remove(sagaId);
+            if (snapshot == null) {
+                continue;
+            }
             try {
-                persistSagaState(entry.getKey(), entry.getValue());
-                persistedCount++;
+                // Skips sagas removed since they were marked or saved in a newer state
+                if (sagaLog.appendIfPresent(snapshot.get())) {
+                    persistedCount++;
+                }
             } catch (Exception e) {
-                System.err.println("Error persisting saga " + entry.getKey() + ": " + e.getMessage());
+                System.err.println("Error persisting saga " + sagaId + ": " + e.getMessage());
             }
         }
         if (persistedCount > 0) {
             System.out.println("Persisted " + persistedCount + " saga states");
         }
+        
+        try {
+            int deleted = sagaLog.compact(MAX_RELOCATED_PER_SEGMENT);
+            if (deleted > 0) {
+                System.out.println("Compacted saga log: deleted " + deleted + " segments, " +
+                                 sagaLog.getSegmentCount() + " left");
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to compact saga log: " + e.getMessage());
+        }
     }
     
     /**
-     * Recovers saga states from disk on startup.
+     * Moves saga states stored as one JSON file per saga by earlier versions into the log.
      */
-    private void recoverSagaStates() {
+    private void migrateJsonStates() {
         File directory = new File(stateDirectory);
         File[] files = directory.listFiles((dir, name) -> name.endsWith(".json"));
         
-        if (files != null) {
-            for (File file : files) {
-                try {
-                    String json = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
-                    SagaSnapshot snapshot = gson.fromJson(json, SagaSnapshot.class);
-                    String sagaId = file.getName().replace(".json", "");
-                    sagaSnapshots.put(sagaId, snapshot);
-                    System.out.println("Recovered saga state: " + sagaId + " in state " + snapshot.getCurrentState());
-                } catch (IOException e) {
-                    System.err.println("Failed to recover saga state from " + file.getName() + ": " + e.getMessage());
+        if (files == null || files.length == 0) {
+            return;
+        }
+        List<File> migrated = new ArrayList<>();
+        for (File file : files) {
+            try {
+                SagaSnapshot snapshot = JsonBytes.read(SagaSnapshotTypeAdapter.INSTANCE, Files.readAllBytes(file.toPath()));
+                // The log is keyed by the snapshot's own ID
+                if (snapshot != null && snapshot.getSagaId() != null && sagaLog.get(snapshot.getSagaId()) == null) {
+                    sagaLog.append(snapshot);
+                    System.out.println("Recovered saga state: " + snapshot.getSagaId() + " in state " + snapshot.getCurrentState());
                 }
+                migrated.add(file);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Failed to recover saga state from " + file.getName() + ": " + e.getMessage());
             }
         }
+        try {
+            // The files are the only copy until the log is on disk
+            sagaLog.sync();
+            migrated.forEach(File::delete);
+        } catch (IOException e) {
+            System.err.println("Keeping saga state files, the saga log could not be forced: " + e.getMessage());
+        }
     }
     
     /**
@@ -177,7 +225,7 @@ public class SagaStateManager {
         persistenceExecutor.shutdown();
         try {
             // Final persistence before shutdown
-            persistAllStates();
+            persistDirtyStates();
             
             if (!persistenceExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
                 persistenceExecutor.shutdownNow();
@@ -185,6 +233,11 @@ public class SagaStateManager {
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
+        try {
+            sagaLog.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close saga log: " + e.getMessage());
+        }
         
         System.out.println("SagaStateManager shut down");
     }
@@ -200,17 +253,47 @@ public class SagaStateManager {
         private final Map<String, String> reservationIds;
         private final long lastUpdated;
         private final long createdAt;
+        // Per-saga capture order; the log drops a snapshot older than the one it holds
+        private final long version;
         
         public SagaSnapshot(String sagaId, String orderId, SagaState currentState,
                            List<CompensationActionSnapshot> compensationActions,
                            Map<String, String> reservationIds) {
+            this(sagaId, orderId, currentState, compensationActions, reservationIds, 0);
+        }
+        
+        /**
+         * Creates a versioned snapshot.
+         * @param version Taken from a per-saga counter before the saga's state was read
+         */
+        public SagaSnapshot(String sagaId, String orderId, SagaState currentState,
+                           List<CompensationActionSnapshot> compensationActions,
+                           Map<String, String> reservationIds, long version) {
+            this(sagaId, orderId, currentState,
+                 compensationActions != null ? compensationActions : new ArrayList<>(),
+                 reservationIds != null ? reservationIds : new ConcurrentHashMap<>(),
+                 System.currentTimeMillis(), System.currentTimeMillis(), version);
+        }
+        
+        // Restores a persisted snapshot with its original timestamps; any new snapshot replaces it
+        SagaSnapshot(String sagaId, String orderId, SagaState currentState,
+                     List<CompensationActionSnapshot> compensationActions,
+                     Map<String, String> reservationIds, long lastUpdated, long createdAt) {
+            this(sagaId, orderId, currentState, compensationActions, reservationIds, lastUpdated, createdAt, 0);
+        }
+        
+        private SagaSnapshot(String sagaId, String orderId, SagaState currentState,
+                             List<CompensationActionSnapshot> compensationActions,
+                             Map<String, String> reservationIds, long lastUpdated, long createdAt,
+                             long version) {
             this.sagaId = sagaId;
             this.orderId = orderId;
             this.currentState = currentState;
-            this.compensationActions = compensationActions != null ? compensationActions : new ArrayList<>();
-            this.reservationIds = reservationIds != null ? reservationIds : new ConcurrentHashMap<>();
-            this.lastUpdated = System.currentTimeMillis();
-            this.createdAt = System.currentTimeMillis();
+            this.compensationActions = compensationActions;
+            this.reservationIds = reservationIds;
+            this.lastUpdated = lastUpdated;
+            this.createdAt = createdAt;
+            this.version = version;
         }
         
         // Getters
@@ -221,6 +304,7 @@ public class SagaStateManager {
         public Map<String, String> getReservationIds() { return reservationIds; }
         public long getLastUpdated() { return lastUpdated; }
         public long getCreatedAt() { return createdAt; }
+        public long getVersion() { return version; }
         
         public boolean isExpired(long timeoutMs) {
             return System.currentTimeMillis() - lastUpdated > timeoutMs;
@@ -243,10 +327,14 @@ public class SagaStateManager {
         private final long timestamp;
         
         public CompensationActionSnapshot(String sellerId, String reservationId, String actionType) {
+            this(sellerId, reservationId, actionType, System.currentTimeMillis());
+        }
+        
+        CompensationActionSnapshot(String sellerId, String reservationId, String actionType, long timestamp) {
             this.sellerId = sellerId;
             this.reservationId = reservationId;
             this.actionType = actionType;
-            this.timestamp = System.currentTimeMillis();
+            this.timestamp = timestamp;
         }
         
         // Getters
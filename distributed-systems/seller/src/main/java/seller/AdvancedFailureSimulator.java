@@ -2,7 +2,6 @@ package seller;
 
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Properties;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -14,68 +13,60 @@ import java.util.concurrent.atomic.AtomicLong;
  */
 public class AdvancedFailureSimulator {
     private final Random random = new Random();
-    private final Map<String, Double> failureProbabilities;
-    private final Map<String, FailurePattern> patterns;
+    // Replaced as a whole when the configuration is reloaded
+    private volatile SellerConfig config;
+    private volatile Map<String, FailurePattern> patterns;
     private final AtomicInteger consecutiveFailures = new AtomicInteger(0);
     private final AtomicLong lastFailureTime = new AtomicLong(0);
     private final AtomicInteger successCount = new AtomicInteger(0);
     
     /**
      * Creates an advanced failure simulator with configuration.
-     * @param config Configuration properties
+     * @param config Configuration snapshot
      */
-    public AdvancedFailureSimulator(Properties config) {
-        this.failureProbabilities = new HashMap<>();
-        this.patterns = new HashMap<>();
-        
-        // Load failure probabilities
-        failureProbabilities.put("no_response", 
-            Double.parseDouble(config.getProperty("failure.no.response", "0.05")));
-        failureProbabilities.put("processing_failure", 
-            Double.parseDouble(config.getProperty("failure.processing", "0.10")));
-        failureProbabilities.put("out_of_stock", 
-            Double.parseDouble(config.getProperty("failure.out.of.stock", "0.15")));
-        failureProbabilities.put("network_partition", 
-            Double.parseDouble(config.getProperty("failure.network.partition", "0.02")));
-        failureProbabilities.put("slow_response", 
-            Double.parseDouble(config.getProperty("failure.slow.response", "0.20")));
-        failureProbabilities.put("corruption", 
-            Double.parseDouble(config.getProperty("failure.corruption", "0.01")));
-        
-        // Initialize failure patterns
-        initializeFailurePatterns(config);
+    public AdvancedFailureSimulator(SellerConfig config) {
+        this.config = config;
+        this.patterns = createFailurePatterns(config);
         
         System.out.println("Advanced failure simulator initialized with " + patterns.size() + " patterns");
     }
     
     /**
-     * Initializes failure patterns based on configuration.
-     * @param config Configuration properties
+     * Switches to a new configuration snapshot. Probabilities take effect for the next decision;
+     * patterns are only recreated (and lose their state) if their settings changed.
+     * @param newConfig Configuration snapshot
      */
-    private void initializeFailurePatterns(Properties config) {
+    public void applyConfig(SellerConfig newConfig) {
+        if (!newConfig.samePatterns(config)) {
+            patterns = createFailurePatterns(newConfig);
+        }
+        config = newConfig;
+    }
+    
+    /**
+     * Creates failure patterns based on configuration.
+     * @param config Configuration snapshot
+     * @return Patterns by name
+     */
+    private Map<String, FailurePattern> createFailurePatterns(SellerConfig config) {
+        Map<String, FailurePattern> created = new HashMap<>();
+        
         // Cascading failure pattern - failures increase probability of more failures
-        patterns.put("cascading", new CascadingFailurePattern(
-            Double.parseDouble(config.getProperty("pattern.cascading.multiplier", "2.0")),
-            Integer.parseInt(config.getProperty("pattern.cascading.max.consecutive", "5"))
-        ));
+        created.put("cascading", new CascadingFailurePattern(
+            config.getCascadingMultiplier(), config.getCascadingMaxConsecutive()));
         
         // Periodic failure pattern - simulates maintenance windows
-        patterns.put("periodic", new PeriodicFailurePattern(
-            Long.parseLong(config.getProperty("pattern.periodic.interval.ms", "3600000")), // 1 hour
-            Long.parseLong(config.getProperty("pattern.periodic.duration.ms", "300000"))   // 5 minutes
-        ));
+        created.put("periodic", new PeriodicFailurePattern(
+            config.getPeriodicIntervalMs(), config.getPeriodicDurationMs()));
         
         // Burst failure pattern - sudden spikes in failures
-        patterns.put("burst", new BurstFailurePattern(
-            Double.parseDouble(config.getProperty("pattern.burst.probability", "0.8")),
-            Long.parseLong(config.getProperty("pattern.burst.duration.ms", "30000"))
-        ));
+        created.put("burst", new BurstFailurePattern(
+            config.getBurstProbability(), config.getBurstDurationMs()));
         
         // Recovery pattern - gradual improvement after failures
-        patterns.put("recovery", new RecoveryPattern(
-            Double.parseDouble(config.getProperty("pattern.recovery.improvement.factor", "0.9")),
-            Integer.parseInt(config.getProperty("pattern.recovery.success.threshold", "10"))
-        ));
+        created.put("recovery", new RecoveryPattern(
+            config.getRecoveryImprovementFactor(), config.getRecoverySuccessThreshold()));
+        return created;
     }
     
     /**
@@ -84,11 +75,12 @@ public class AdvancedFailureSimulator {
      * @return FailureDecision indicating if and how to fail
      */
     public FailureDecision shouldSimulateFailure(String operationType) {
+        double baseProbability = config.getFailureProbability(operationType);
+        
         // Check patterns first
         for (FailurePattern pattern : patterns.values()) {
             if (pattern.isActive()) {
-                double modifiedProbability = pattern.modifyProbability(
-                    failureProbabilities.getOrDefault(operationType, 0.0));
+                double modifiedProbability = pattern.modifyProbability(baseProbability);
                 if (random.nextDouble() < modifiedProbability) {
                     recordFailure();
                     return createFailureDecision(operationType, pattern);
@@ -97,7 +89,6 @@ public class AdvancedFailureSimulator {
         }
         
         // Normal failure simulation
-        double baseProbability = failureProbabilities.getOrDefault(operationType, 0.0);
         if (random.nextDouble() < baseProbability) {
             recordFailure();
             return createFailureDecision(operationType, null);
@@ -0,0 +1,158 @@
+package seller;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Streams a product catalog into a {@link StockTable}.
+ * Two formats are supported, chosen by file extension (.ndjson, .jsonl, .json) or by sniffing the
+ * first character:
+ * <ul>
+ *   <li>CSV: one "sku,quantity" line per product; an optional header line, blank lines and lines
+ *       starting with '#' are skipped</li>
+ *   <li>NDJSON: one {"sku": "...", "quantity": n} object per line; "productId" and "stock" are
+ *       accepted as field aliases</li>
+ * </ul>
+ * Lines are processed one at a time, so the file is never held in memory.
+ */
+public class CatalogLoader {
+    
+    private CatalogLoader() {
+    }
+    
+    /**
+     * Loads a catalog file into a stock table. A SKU that appears twice keeps the last quantity.
+     * @param file The catalog file
+     * @param stock The table to fill
+     * @return Number of catalog entries read
+     * @throws IOException if the file cannot be read or contains a malformed entry
+     */
+    public static int load(Path file, StockTable stock) throws IOException {
+        long startTime = System.currentTimeMillis();
+        int sizeBefore = stock.size();
+        int entries;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            entries = isJson(file, reader) ? loadJson(file, reader, stock) : loadCsv(file, reader, stock);
+        }
+        
+        int duplicates = entries - (stock.size() - sizeBefore);
+        System.out.println("Loaded catalog " + file + ": " + entries + " entries" +
+                         (duplicates > 0 ? " (" + duplicates + " duplicate SKUs)" : "") +
+                         " in " + (System.currentTimeMillis() - startTime) + "ms");
+        return entries;
+    }
+    
+    private static boolean isJson(Path file, BufferedReader reader) throws IOException {
+        String name = file.getFileName().toString().toLowerCase();
+        if (name.endsWith(".ndjson") || name.endsWith(".jsonl") || name.endsWith(".json")) {
+            return true;
+        }
+        if (name.endsWith(".csv")) {
+            return false;
+        }
+        
+        // Unknown extension: peek at the first non-whitespace character
+        reader.mark(4096);
+        int c;
+        do {
+            c = reader.read();
+        } while (c != -1 && Character.isWhitespace(c));
+        reader.reset();
+        return c == '{';
+    }
+    
+    private static int loadCsv(Path file, BufferedReader reader, StockTable stock) throws IOException {
+        int entries = 0;
+        long lineNumber = 0;
+        boolean firstLine = true;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.charAt(0) == '#') {
+                continue;
+            }
+            
+            boolean header = firstLine;
+            firstLine = false;
+            
+            int comma = line.indexOf(',');
+            if (comma <= 0) {
+                throw new IOException("Malformed catalog line " + lineNumber + " in " + file + ": " + line);
+            }
+            String sku = line.substring(0, comma).trim();
+            String quantity = line.substring(comma + 1).trim();
+            int next = quantity.indexOf(',');
+            if (next >= 0) {
+                // Extra columns are ignored
+                quantity = quantity.substring(0, next).trim();
+            }
+            
+            int parsed;
+            try {
+                parsed = Integer.parseInt(quantity);
+            } catch (NumberFormatException e) {
+                if (header) {
+                    continue;
+                }
+                throw new IOException("Invalid quantity on catalog line " + lineNumber + " in " + file + ": " + line);
+            }
+            if (parsed < 0) {
+                throw new IOException("Negative quantity on catalog line " + lineNumber + " in " + file + ": " + line);
+            }
+            stock.put(sku, parsed);
+            entries++;
+        }
+        return entries;
+    }
+    
+    private static int loadJson(Path file, BufferedReader reader, StockTable stock) throws IOException {
+        int entries = 0;
+        long lineNumber = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            
+            String sku = null;
+            int quantity = -1;
+            try {
+                JsonReader json = new JsonReader(new StringReader(line));
+                json.beginObject();
+                while (json.hasNext()) {
+                    String name = json.nextName();
+                    if ("sku".equals(name) || "productId".equals(name)) {
+                        sku = json.nextString();
+                    } else if ("quantity".equals(name) || "stock".equals(name)) {
+                        quantity = json.nextInt();
+                    } else {
+                        json.skipValue();
+                    }
+                }
+                json.endObject();
+                if (json.peek() != JsonToken.END_DOCUMENT) {
+                    throw new IOException("More than one object");
+                }
+            } catch (IOException | IllegalStateException | NumberFormatException e) {
+                throw new IOException("Malformed catalog line " + lineNumber + " in " + file + ": " + e.getMessage());
+            }
+            
+            if (sku == null || quantity < 0) {
+                throw new IOException("Catalog line " + lineNumber + " in " + file +
+                                    " needs a sku and a non-negative quantity: " + line);
+            }
+            stock.put(sku, quantity);
+            entries++;
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,262 @@
+package seller;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only, time-partitioned archive of confirmed reservations.
+ * Entries are packed into primitive arrays per partition so that confirmed orders cost a few
+ * bytes each instead of a full reservation object, and whole partitions are dropped once they
+ * fall out of the retention window. Each partition keeps an open-addressing index over its keys,
+ * so a lookup costs one probe sequence per partition.
+ */
+public class ConfirmedReservationArchive {
+    private static final int INITIAL_PARTITION_CAPACITY = 1024;
+    
+    private final long retentionMs;
+    private final long partitionMs;
+    private final Deque<Partition> partitions = new ArrayDeque<>();
+    private final List<String> productIds = new ArrayList<>();
+    private final Map<String, Integer> productIndex = new HashMap<>();
+    private long size = 0;
+    
+    /**
+     * Creates an archive.
+     * @param retentionMs How long confirmed reservations stay queryable
+     * @param partitionMs Time span covered by one partition
+     */
+    public ConfirmedReservationArchive(long retentionMs, long partitionMs) {
+        if (partitionMs <= 0 || partitionMs > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Partition span must be between 1ms and Integer.MAX_VALUE ms: " + partitionMs);
+        }
+        this.retentionMs = retentionMs;
+        this.partitionMs = partitionMs;
+    }
+    
+    /**
+     * Appends a confirmed reservation.
+     * @param reservationKey Numeric key of the reservation
+     * @param productId The product identifier
+     * @param quantity The confirmed quantity
+     * @param confirmedAt Confirmation time in epoch milliseconds
+     */
+    public synchronized void append(long reservationKey, String productId, int quantity, long confirmedAt) {
+        Partition partition = partitions.peekLast();
+        long partitionStart = confirmedAt - Math.floorMod(confirmedAt, partitionMs);
+        if (partition == null || partition.startTime < partitionStart) {
+            partition = new Partition(partitionStart);
+            partitions.addLast(partition);
+        }
+        partition.add(reservationKey, indexOf(productId), quantity, confirmedAt);
+        size++;
+    }
+    
+    /**
+     * Looks up a confirmed reservation that is still within the retention window.
+     * @param reservationKey Numeric key of the reservation
+     * @return The archived reservation or null if unknown or already dropped
+     */
+    public synchronized ArchivedReservation find(long reservationKey) {
+        // Newest first: recently confirmed reservations are the ones queried again
+        Iterator<Partition> iterator = partitions.descendingIterator();
+        while (iterator.hasNext()) {
+            Partition partition = iterator.next();
+            int slot = partition.indexOf(reservationKey);
+            if (slot >= 0) {
+                return new ArchivedReservation(
+                    reservationKey,
+                    productIds.get(partition.products[slot]),
+                    partition.quantities[slot],
+                    partition.startTime + partition.confirmedOffsets[slot]
+                );
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Copies every archived reservation, oldest partition first, so that appending them in order
+     * to an empty archive rebuilds the same partitions.
+     * @return The archived reservations
+     */
+    public synchronized List<ArchivedReservation> snapshot() {
+        List<ArchivedReservation> entries = new ArrayList<>((int) Math.min(size, Integer.MAX_VALUE));
+        for (Partition partition : partitions) {
+            for (int slot = 0; slot < partition.count; slot++) {
+                entries.add(new ArchivedReservation(
+                    partition.keys[slot],
+                    productIds.get(partition.products[slot]),
+                    partition.quantities[slot],
+                    partition.startTime + partition.confirmedOffsets[slot]
+                ));
+            }
+        }
+        return entries;
+    }
+    
+    /**
+     * Drops partitions that lie entirely outside the retention window.
+     * @param now Current time in epoch milliseconds
+     * @return Number of archived reservations dropped
+     */
+    public synchronized int expire(long now) {
+        long cutoff = now - retentionMs;
+        int dropped = 0;
+        Partition oldest;
+        while ((oldest = partitions.peekFirst()) != null && oldest.startTime + partitionMs <= cutoff) {
+            partitions.pollFirst();
+            dropped += oldest.count;
+        }
+        size -= dropped;
+        return dropped;
+    }
+    
+    /**
+     * Gets the number of archived reservations.
+     * @return Archived reservation count
+     */
+    public synchronized long size() {
+        return size;
+    }
+    
+    /**
+     * Gets the number of live partitions.
+     * @return Partition count
+     */
+    public synchronized int getPartitionCount() {
+        return partitions.size();
+    }
+    
+    /**
+     * Estimates the bytes held by partition arrays.
+     * @return Approximate retained size in bytes
+     */
+    public synchronized long getRetainedBytes() {
+        long bytes = 0;
+        for (Partition partition : partitions) {
+            bytes += (long) partition.keys.length * Partition.BYTES_PER_ENTRY +
+                     (long) partition.index.length * Integer.BYTES;
+        }
+        return bytes;
+    }
+    
+    private int indexOf(String productId) {
+        Integer index = productIndex.get(productId);
+        if (index == null) {
+            index = productIds.size();
+            productIds.add(productId);
+            productIndex.put(productId, index);
+        }
+        return index;
+    }
+    
+    /**
+     * One time slice of confirmed reservations stored column-wise.
+     */
+    private static class Partition {
+        static final int BYTES_PER_ENTRY = Long.BYTES + 3 * Integer.BYTES;
+        
+        private final long startTime;
+        private long[] keys = new long[INITIAL_PARTITION_CAPACITY];
+        private int[] products = new int[INITIAL_PARTITION_CAPACITY];
+        private int[] quantities = new int[INITIAL_PARTITION_CAPACITY];
+        private int[] confirmedOffsets = new int[INITIAL_PARTITION_CAPACITY];
+        // Slot + 1 of each key, 0 for empty; kept at most half full
+        private int[] index = new int[INITIAL_PARTITION_CAPACITY * 2];
+        private int count = 0;
+        private long minKey = Long.MAX_VALUE;
+        private long maxKey = Long.MIN_VALUE;
+        
+        Partition(long startTime) {
+            this.startTime = startTime;
+        }
+        
+        void add(long key, int product, int quantity, long confirmedAt) {
+            if (count == keys.length) {
+                int capacity = keys.length * 2;
+                keys = Arrays.copyOf(keys, capacity);
+                products = Arrays.copyOf(products, capacity);
+                quantities = Arrays.copyOf(quantities, capacity);
+                confirmedOffsets = Arrays.copyOf(confirmedOffsets, capacity);
+            }
+            keys[count] = key;
+            products[count] = product;
+            quantities[count] = quantity;
+            confirmedOffsets[count] = (int) (confirmedAt - startTime);
+            count++;
+            if (count * 2 > index.length) {
+                index = new int[index.length * 2];
+                for (int i = 0; i < count; i++) {
+                    insert(keys[i], i);
+                }
+            } else {
+                insert(key, count - 1);
+            }
+            minKey = Math.min(minKey, key);
+            maxKey = Math.max(maxKey, key);
+        }
+        
+        int indexOf(long key) {
+            if (key < minKey || key > maxKey) {
+                return -1;
+            }
+            int mask = index.length - 1;
+            for (int i = hash(key) & mask; index[i] != 0; i = (i + 1) & mask) {
+                if (keys[index[i] - 1] == key) {
+                    return index[i] - 1;
+                }
+            }
+            return -1;
+        }
+        
+        // A key confirmed twice points at its latest slot
+        private void insert(long key, int slot) {
+            int mask = index.length - 1;
+            int i = hash(key) & mask;
+            while (index[i] != 0 && keys[index[i] - 1] != key) {
+                i = (i + 1) & mask;
+            }
+            index[i] = slot + 1;
+        }
+        
+        private static int hash(long key) {
+            // Reservation keys are mostly sequential; spread them over the table
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+    
+    /**
+     * Read-only view of an archived confirmed reservation.
+     */
+    public static class ArchivedReservation {
+        private final long reservationKey;
+        private final String productId;
+        private final int quantity;
+        private final long confirmedAt;
+        
+        public ArchivedReservation(long reservationKey, String productId, int quantity, long confirmedAt) {
+            this.reservationKey = reservationKey;
+            this.productId = productId;
+            this.quantity = quantity;
+            this.confirmedAt = confirmedAt;
+        }
+        
+        public long getReservationKey() { return reservationKey; }
+        public String getProductId() { return productId; }
+        public int getQuantity() { return quantity; }
+        public long getConfirmedAt() { return confirmedAt; }
+        
+        @Override
+        public String toString() {
+            return String.format("ArchivedReservation{key=%d, productId='%s', quantity=%d, confirmedAt=%d}",
+                               reservationKey, productId, quantity, confirmedAt);
+        }
+    }
+}
@@ -1,15 +1,24 @@
 package seller;
 
-import java.util.Iterator;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.concurrent.locks.Lock;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Properties;
 
 /**
@@ -17,14 +26,43 @@ import java.util.Properties;
  * Prevents race conditions and ensures consistent inventory state across distributed operations.
  */
 public class EnhancedInventory {
+    
+    /**
+     * How reserve, confirm and cancel are synchronized.
+     */
+    public enum ConcurrencyMode {
+        GLOBAL_LOCK, // Every mutation takes the inventory-wide write lock
+        LOCK_FREE    // Stock is taken with CAS per product, reservations change state with CAS
+    }
+    
+    private static final int STATUS_PRODUCT_LIMIT = 20;
+    private static final int MAX_GROUP_LINES = 1000;
+    private static final int GROUP_LOCK_STRIPES = 64;
+    
     private final String sellerId;
-    private final Map<String, AtomicInteger> stock;
+    private final StockTable stock;
     private final Map<String, TimedReservation> reservations;
-    private final AtomicInteger reservationCounter = new AtomicInteger(0);
+    // All reservations share one timeout, so insertion order is expiry order
+    private final Deque<TimedReservation> expiryQueue = new ConcurrentLinkedDeque<>();
+    private final ConfirmedReservationArchive confirmedArchive;
+    private final AtomicLong reservationCounter = new AtomicLong(0);
+    private final String reservationPrefix;
+    private final String groupPrefix;
     private final ReentrantReadWriteLock inventoryLock = new ReentrantReadWriteLock();
+    private final ConcurrencyMode concurrencyMode;
+    private final Lock writeLock;
+    private final Lock readLock;
+    // Serialize the state changes of a group's lines, so a group confirm never has to undo one
+    private final Object[] groupLocks = new Object[GROUP_LOCK_STRIPES];
     private final ScheduledExecutorService cleanupExecutor = Executors.newSingleThreadScheduledExecutor();
     private final long reservationTimeoutMs;
-    private final int cleanupIntervalSeconds;
+    private final long expiryCheckIntervalMs;
+    
+    // Durable mode: mutations hold the shared side while appending to the journal,
+    // checkpoints hold the exclusive side while capturing a consistent snapshot
+    private final InventoryJournal journal;
+    private final ReentrantReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+    private final Lock journalLock;
     
     /**
      * Creates an enhanced inventory with default settings.
@@ -33,27 +71,237 @@ public class EnhancedInventory {
      */
     public EnhancedInventory(String sellerId, Properties config) {
         this.sellerId = sellerId;
-        this.stock = new ConcurrentHashMap<>();
+        this.reservationPrefix = sellerId + "-R";
+        this.groupPrefix = sellerId + "-G";
+        this.stock = new StockTable(Integer.parseInt(config.getProperty("inventory.catalog.expected.skus", "1024")));
         this.reservations = new ConcurrentHashMap<>();
         this.reservationTimeoutMs = Long.parseLong(config.getProperty("reservation.timeout.ms", "300000")); // 5 minutes
-        this.cleanupIntervalSeconds = Integer.parseInt(config.getProperty("cleanup.interval.seconds", "60"));
+        this.expiryCheckIntervalMs = Long.parseLong(config.getProperty("reservation.expiry.check.ms", "1000"));
+        this.confirmedArchive = new ConfirmedReservationArchive(
+            Long.parseLong(config.getProperty("reservation.archive.retention.ms", "3600000")), // 1 hour
+            Long.parseLong(config.getProperty("reservation.archive.partition.ms", "60000"))
+        );
+        for (int i = 0; i < GROUP_LOCK_STRIPES; i++) {
+            groupLocks[i] = new Object();
+        }
+        this.concurrencyMode = parseConcurrencyMode(config.getProperty("inventory.concurrency.mode", "global"));
+        if (concurrencyMode == ConcurrencyMode.GLOBAL_LOCK) {
+            this.writeLock = inventoryLock.writeLock();
+            this.readLock = inventoryLock.readLock();
+        } else {
+            this.writeLock = NoOpLock.INSTANCE;
+            this.readLock = NoOpLock.INSTANCE;
+        }
         
-        // Initialize stock
-        int initialStock = Integer.parseInt(config.getProperty("seller.inventory.size", "50"));
-        for (int i = 1; i <= 3; i++) {
-            stock.put("P" + i, new AtomicInteger(initialStock));
+        if (Boolean.parseBoolean(config.getProperty("inventory.persistence.enabled", "false"))) {
+            String dataDirectory = config.getProperty("inventory.data.directory", "./inventory-data");
+            try {
+                this.journal = new InventoryJournal(Paths.get(dataDirectory),
+                    Boolean.parseBoolean(config.getProperty("inventory.wal.fsync", "true")));
+                recoverFromJournal(config);
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot open inventory journal in " + dataDirectory, e);
+            }
+            this.journalLock = checkpointLock.readLock();
+            
+            // Checkpoint right away so the replayed log can be dropped, then periodically
+            long checkpointIntervalMs = Long.parseLong(config.getProperty("inventory.checkpoint.interval.ms", "60000"));
+            cleanupExecutor.scheduleWithFixedDelay(this::checkpoint, 0, checkpointIntervalMs, TimeUnit.MILLISECONDS);
+        } else {
+            this.journal = null;
+            this.journalLock = NoOpLock.INSTANCE;
+            initializeStock(config);
         }
         
-        // Start cleanup task
+        // Start expiry task
         cleanupExecutor.scheduleAtFixedRate(
             this::cleanupExpiredReservations, 
-            cleanupIntervalSeconds, 
-            cleanupIntervalSeconds, 
-            TimeUnit.SECONDS
+            expiryCheckIntervalMs, 
+            expiryCheckIntervalMs, 
+            TimeUnit.MILLISECONDS
         );
         
         System.out.println("Enhanced inventory initialized for " + sellerId + 
-                         " with " + stock.size() + " products and " + reservationTimeoutMs + "ms reservation timeout");
+                         " with " + stock.size() + " products, " + reservationTimeoutMs + "ms reservation timeout and " +
+                         concurrencyMode + " concurrency");
+    }
+    
+    /**
+     * Fills the stock table from the configured catalog file, or with the default products P1..P3.
+     * @param config Configuration properties
+     */
+    private void initializeStock(Properties config) {
+        String catalogFile = config.getProperty("inventory.catalog.file", "").trim();
+        if (!catalogFile.isEmpty()) {
+            try {
+                CatalogLoader.load(Paths.get(catalogFile), stock);
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot load catalog " + catalogFile + ": " + e.getMessage(), e);
+            }
+            return;
+        }
+        
+        int initialStock = Integer.parseInt(config.getProperty("seller.inventory.size", "50"));
+        for (int i = 1; i <= 3; i++) {
+            stock.put("P" + i, initialStock);
+        }
+    }
+    
+    /**
+     * Restores stock and open reservations from the last checkpoint plus the journal records after it,
+     * then opens the journal for new records. The catalog is only read when there is no checkpoint yet.
+     * @param config Configuration properties
+     * @throws IOException if the checkpoint or journal cannot be read
+     */
+    private void recoverFromJournal(Properties config) throws IOException {
+        long startTime = System.currentTimeMillis();
+        
+        InventoryJournal.Checkpoint checkpoint = journal.loadCheckpoint(stock);
+        long checkpointLsn = 0;
+        if (checkpoint != null) {
+            checkpointLsn = checkpoint.getLsn();
+            for (InventoryJournal.ReservationRecord record : checkpoint.getReservations()) {
+                restoreReservation(record);
+            }
+            // A CONFIRM re-sent after a restart must still find its reservation confirmed
+            for (ConfirmedReservationArchive.ArchivedReservation confirmed : checkpoint.getConfirmed()) {
+                confirmedArchive.append(confirmed.getReservationKey(), confirmed.getProductId(),
+                                        confirmed.getQuantity(), confirmed.getConfirmedAt());
+                reservationCounter.accumulateAndGet(confirmed.getReservationKey(), Math::max);
+            }
+        } else {
+            initializeStock(config);
+        }
+        
+        long lastLsn = journal.replay(checkpointLsn, new InventoryJournal.RecordHandler() {
+            @Override
+            public void onReserve(long lsn, InventoryJournal.ReservationRecord reservation) {
+                int productIndex = restoreReservation(reservation);
+                stock.addAndGet(productIndex, -reservation.getQuantity());
+            }
+            
+            @Override
+            public void onTransition(byte type, long lsn, long sequence, long timestamp) {
+                replayTransition(type, sequence, timestamp);
+            }
+        });
+        
+        // Restored holds may have been created in any order; queue them by deadline
+        List<TimedReservation> restored = new ArrayList<>(reservations.values());
+        restored.sort(Comparator.comparingLong(TimedReservation::getExpiryTime));
+        expiryQueue.addAll(restored);
+        
+        journal.open(lastLsn + 1);
+        System.out.println("Recovered inventory for " + sellerId + ": " + stock.size() + " products, " +
+                         reservations.size() + " open reservations, " + (lastLsn - checkpointLsn) +
+                         " journal records replayed in " + (System.currentTimeMillis() - startTime) + "ms");
+    }
+    
+    /**
+     * Applies a replayed confirm, cancel or expire record to the in-memory state.
+     */
+    private void replayTransition(byte type, long sequence, long timestamp) {
+        TimedReservation reservation = reservations.remove(reservationPrefix + sequence);
+        if (reservation == null) {
+            return;
+        }
+        if (type == InventoryJournal.CONFIRM) {
+            reservation.markConfirmed();
+            confirmedArchive.append(sequence, reservation.getProductId(), reservation.getQuantity(), timestamp);
+        } else if (reservation.markReleased()) {
+            stock.addAndGet(reservation.getProductIndex(), reservation.getQuantity());
+        }
+    }
+    
+    private int restoreReservation(InventoryJournal.ReservationRecord record) {
+        int productIndex = stock.indexOf(record.getProductId());
+        if (productIndex == StockTable.NOT_FOUND) {
+            // Product dropped from the catalog while holds were open; keep it so their stock balances
+            productIndex = stock.put(record.getProductId(), 0);
+        }
+        String reservationId = reservationPrefix + record.getSequence();
+        reservations.put(reservationId, new TimedReservation(reservationId, record.getSequence(), record.getProductId(),
+                                                             productIndex, record.getQuantity(), record.getExpiryTime(),
+                                                             record.getGroupStart(), record.getGroupSize()));
+        // Never hand out a sequence that is already in use
+        reservationCounter.accumulateAndGet(record.getSequence(), Math::max);
+        return productIndex;
+    }
+    
+    /**
+     * Writes a checkpoint of the stock table and open reservations and drops the journal it covers.
+     */
+    private void checkpoint() {
+        long startTime = System.currentTimeMillis();
+        long lsn;
+        int[] quantities;
+        int productCount;
+        List<InventoryJournal.ReservationRecord> open = new ArrayList<>();
+        List<ConfirmedReservationArchive.ArchivedReservation> confirmed;
+        
+        Lock exclusive = checkpointLock.writeLock();
+        exclusive.lock();
+        try {
+            lsn = journal.rollSegment();
+            // Product keys never change once loaded, only the quantities need copying
+            productCount = stock.size();
+            quantities = stock.snapshotQuantities(productCount);
+            for (TimedReservation reservation : reservations.values()) {
+                if (reservation.isActive()) {
+                    open.add(new InventoryJournal.ReservationRecord(reservation.getSequence(),
+                        reservation.getProductId(), reservation.getQuantity(), reservation.getExpiryTime(),
+                        reservation.getGroupStart(), reservation.getGroupSize()));
+                }
+            }
+            // Confirms append to the archive under the shared side, so it matches the LSN too
+            confirmed = confirmedArchive.snapshot();
+        } catch (IOException e) {
+            System.err.println("Inventory checkpoint failed: " + e.getMessage());
+            return;
+        } finally {
+            exclusive.unlock();
+        }
+        
+        try {
+            journal.writeCheckpoint(lsn, stock, quantities, productCount, open, confirmed);
+            System.out.println("Inventory checkpoint at LSN " + lsn + ": " + productCount + " products, " +
+                             open.size() + " open reservations, " + confirmed.size() + " confirmed in " +
+                             (System.currentTimeMillis() - startTime) + "ms");
+        } catch (IOException e) {
+            System.err.println("Inventory checkpoint failed: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Waits until a journal record is durable. No-op when persistence is disabled.
+     * @param lsn The record's LSN, 0 if nothing was journaled
+     */
+    private void awaitDurable(long lsn) {
+        if (journal == null || lsn == 0) {
+            return;
+        }
+        try {
+            journal.awaitDurable(lsn);
+        } catch (IOException e) {
+            throw new IllegalStateException("Inventory journal write failed: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Parses the concurrency mode setting.
+     * @param value "global" or "lock-free"
+     * @return The matching concurrency mode
+     */
+    private static ConcurrencyMode parseConcurrencyMode(String value) {
+        switch (value.trim().toLowerCase(Locale.ROOT)) {
+            case "global":
+                return ConcurrencyMode.GLOBAL_LOCK;
+            case "lock-free":
+            case "lockfree":
+                return ConcurrencyMode.LOCK_FREE;
+            default:
+                throw new IllegalArgumentException("Unknown inventory.concurrency.mode: " + value);
+        }
     }
     
     /**
@@ -68,110 +316,519 @@ public class EnhancedInventory {
             return null;
         }
         
-        Lock writeLock = inventoryLock.writeLock();
+        String reservationId;
+        int newStock;
+        long lsn = 0;
         writeLock.lock();
+        journalLock.lock();
         try {
-            // Clean up expired reservations first
-            cleanupExpiredReservations();
-            
-            AtomicInteger available = stock.get(productId);
-            if (available == null) {
+            int productIndex = stock.indexOf(productId);
+            if (productIndex == StockTable.NOT_FOUND) {
                 System.out.println("Product " + productId + " not found");
                 return null;
             }
             
-            int currentStock = available.get();
-            if (currentStock >= quantity) {
-                // Reduce stock atomically
-                int newStock = currentStock - quantity;
-                if (available.compareAndSet(currentStock, newStock)) {
-                    // Create reservation
-                    String reservationId = sellerId + "-R" + reservationCounter.incrementAndGet();
-                    long expiryTime = System.currentTimeMillis() + reservationTimeoutMs;
-                    TimedReservation reservation = new TimedReservation(
-                        reservationId, productId, quantity, expiryTime);
-                    reservations.put(reservationId, reservation);
-                    
-                    System.out.println("Reserved " + quantity + "x " + productId + 
-                                     " (ID: " + reservationId + ") - remaining stock: " + newStock);
-                    return reservationId;
-                } else {
-                    // Stock changed between check and update, retry
-                    System.out.println("Stock changed during reservation, retrying...");
-                    return reserve(productId, quantity);
+            newStock = stock.tryTake(productIndex, quantity);
+            if (newStock < 0) {
+                System.out.println("Insufficient stock for " + productId + ": " + stock.get(productIndex) + " < " + quantity);
+                return null;
+            }
+            
+            // Create reservation
+            long sequence = reservationCounter.incrementAndGet();
+            reservationId = reservationPrefix + sequence;
+            long expiryTime = System.currentTimeMillis() + reservationTimeoutMs;
+            TimedReservation reservation = new TimedReservation(
+                reservationId, sequence, productId, productIndex, quantity, expiryTime, 0, 0);
+            if (journal != null) {
+                try {
+                    lsn = journal.appendReserve(sequence, productId, quantity, expiryTime, 0, 0);
+                } catch (RuntimeException e) {
+                    // Nothing was recorded, so the stock goes back
+                    stock.addAndGet(productIndex, quantity);
+                    throw e;
                 }
             }
+            reservations.put(reservationId, reservation);
+            expiryQueue.add(reservation);
             
-            System.out.println("Insufficient stock for " + productId + ": " + currentStock + " < " + quantity);
+        } finally {
+            journalLock.unlock();
+            writeLock.unlock();
+        }
+        
+        // Only hand out the ID once the reservation survives a restart
+        awaitDurable(lsn);
+        System.out.println("Reserved " + quantity + "x " + productId + 
+                         " (ID: " + reservationId + ") - remaining stock: " + newStock);
+        return reservationId;
+    }
+    
+    /**
+     * Reserves several products at once, all or nothing, under a single lock acquisition.
+     * Each line becomes its own reservation with a consecutive sequence and remembers its group, so
+     * the group ID ({@code <seller>-G<first>x<count>}) resolves to its members by sequence and
+     * survives restarts. In lock-free mode a line taken before a later line fails is briefly
+     * unavailable to other callers until it is rolled back.
+     * @param items Quantities per product, reserved in iteration order
+     * @return Reservation group ID if every line was reserved, null otherwise
+     */
+    public String reserveAll(Map<String, Integer> items) {
+        if (items == null || items.isEmpty() || items.size() > MAX_GROUP_LINES) {
+            System.out.println("Invalid reservation group size: " + (items == null ? 0 : items.size()));
             return null;
+        }
+        
+        int lineCount = items.size();
+        String[] productIds = new String[lineCount];
+        int[] quantities = new int[lineCount];
+        int line = 0;
+        for (Map.Entry<String, Integer> item : items.entrySet()) {
+            productIds[line] = item.getKey();
+            quantities[line] = item.getValue() != null ? item.getValue() : 0;
+            if (quantities[line] <= 0) {
+                System.out.println("Invalid quantity for " + item.getKey() + ": " + item.getValue());
+                return null;
+            }
+            line++;
+        }
+        
+        String groupId;
+        long lsn = 0;
+        writeLock.lock();
+        journalLock.lock();
+        try {
+            int[] productIndexes = new int[lineCount];
+            for (int i = 0; i < lineCount; i++) {
+                productIndexes[i] = stock.indexOf(productIds[i]);
+                if (productIndexes[i] == StockTable.NOT_FOUND) {
+                    System.out.println("Product " + productIds[i] + " not found");
+                    return null;
+                }
+            }
             
+            for (int i = 0; i < lineCount; i++) {
+                if (stock.tryTake(productIndexes[i], quantities[i]) < 0) {
+                    System.out.println("Insufficient stock for " + productIds[i] + ": " +
+                                     stock.get(productIndexes[i]) + " < " + quantities[i]);
+                    // Put back the lines already taken
+                    for (int j = 0; j < i; j++) {
+                        stock.addAndGet(productIndexes[j], quantities[j]);
+                    }
+                    return null;
+                }
+            }
+            
+            long firstSequence = reservationCounter.getAndAdd(lineCount) + 1;
+            groupId = groupPrefix + firstSequence + "x" + lineCount;
+            long expiryTime = System.currentTimeMillis() + reservationTimeoutMs;
+            for (int i = 0; i < lineCount; i++) {
+                long sequence = firstSequence + i;
+                String reservationId = reservationPrefix + sequence;
+                TimedReservation reservation = new TimedReservation(reservationId, sequence, productIds[i],
+                    productIndexes[i], quantities[i], expiryTime, firstSequence, lineCount);
+                if (journal != null) {
+                    try {
+                        lsn = journal.appendReserve(sequence, productIds[i], quantities[i], expiryTime,
+                                                    firstSequence, lineCount);
+                    } catch (RuntimeException e) {
+                        // Give back the lines not recorded; the recorded ones expire as usual
+                        for (int j = i; j < lineCount; j++) {
+                            stock.addAndGet(productIndexes[j], quantities[j]);
+                        }
+                        throw e;
+                    }
+                }
+                reservations.put(reservationId, reservation);
+                expiryQueue.add(reservation);
+            }
         } finally {
+            journalLock.unlock();
             writeLock.unlock();
         }
+        
+        awaitDurable(lsn);
+        System.out.println("Reserved " + lineCount + " lines (ID: " + groupId + ")");
+        return groupId;
     }
     
     /**
-     * Confirms a reservation, making it permanent.
-     * @param reservationId The reservation identifier
+     * Confirms a reservation or reservation group, making it permanent.
+     * Confirmed reservations leave the active map and move to the confirmed archive.
+     * @param reservationId The reservation or reservation group identifier
      * @return true if confirmation was successful
      */
     public boolean confirm(String reservationId) {
-        Lock writeLock = inventoryLock.writeLock();
+        if (isGroupId(reservationId)) {
+            return confirmGroup(reservationId);
+        }
+        
+        long lsn = 0;
         writeLock.lock();
+        journalLock.lock();
         try {
             TimedReservation reservation = reservations.get(reservationId);
-            if (reservation != null && !reservation.isExpired() && !reservation.isConfirmed()) {
-                reservation.setConfirmed(true);
-                System.out.println("Confirmed reservation: " + reservationId);
-                return true;
+            if (reservation == null || reservation.isExpired() || !markConfirmed(reservation)) {
+                logConfirmFailure(reservationId, reservation);
+                return false;
             }
             
-            if (reservation == null) {
-                System.out.println("Reservation not found: " + reservationId);
-            } else if (reservation.isExpired()) {
-                System.out.println("Reservation expired: " + reservationId);
-            } else if (reservation.isConfirmed()) {
-                System.out.println("Reservation already confirmed: " + reservationId);
+            long confirmedAt = System.currentTimeMillis();
+            if (journal != null) {
+                try {
+                    lsn = journal.appendTransition(InventoryJournal.CONFIRM, reservation.getSequence(), confirmedAt);
+                } catch (RuntimeException e) {
+                    // Nothing was recorded, so the reservation stays active and can still expire
+                    undoTransition(reservation);
+                    throw e;
+                }
             }
-            
+            reservations.remove(reservationId, reservation);
+            confirmedArchive.append(reservation.getSequence(), reservation.getProductId(),
+                                    reservation.getQuantity(), confirmedAt);
+        } finally {
+            journalLock.unlock();
+            writeLock.unlock();
+        }
+        
+        awaitDurable(lsn);
+        System.out.println("Confirmed reservation: " + reservationId);
+        return true;
+    }
+    
+    /**
+     * Confirms every line of a reservation group, or none if any line is missing, expired or released.
+     * @param groupId The reservation group identifier
+     * @return true if the whole group was confirmed
+     */
+    private boolean confirmGroup(String groupId) {
+        long[] range = parseGroup(groupId);
+        if (range == null) {
+            System.out.println("Reservation group not found: " + groupId);
             return false;
+        }
+        
+        long lsn = 0;
+        writeLock.lock();
+        journalLock.lock();
+        try {
+            List<TimedReservation> members = new ArrayList<>((int) range[1]);
+            // No line can change state while the group lock is held, so every line checked active
+            // can be confirmed and no other thread ever sees a line confirmed that is then undone
+            synchronized (groupLock(range[0])) {
+                for (long sequence = range[0]; sequence < range[0] + range[1]; sequence++) {
+                    String reservationId = reservationPrefix + sequence;
+                    TimedReservation reservation = memberOf(reservations.get(reservationId), range);
+                    if (reservation == null || reservation.isExpired() || !reservation.isActive()) {
+                        System.out.println("Cannot confirm reservation group " + groupId);
+                        logConfirmFailure(reservationId, reservation);
+                        return false;
+                    }
+                    members.add(reservation);
+                }
+                for (TimedReservation reservation : members) {
+                    reservation.markConfirmed();
+                }
+            }
+            
+            long confirmedAt = System.currentTimeMillis();
+            for (int i = 0; i < members.size(); i++) {
+                TimedReservation reservation = members.get(i);
+                if (journal != null) {
+                    try {
+                        lsn = journal.appendTransition(InventoryJournal.CONFIRM, reservation.getSequence(), confirmedAt);
+                    } catch (RuntimeException e) {
+                        // Lines already recorded stay confirmed; the rest go back to active and expire as usual
+                        for (int j = i; j < members.size(); j++) {
+                            undoTransition(members.get(j));
+                        }
+                        throw e;
+                    }
+                }
+                reservations.remove(reservation.getId(), reservation);
+                confirmedArchive.append(reservation.getSequence(), reservation.getProductId(),
+                                        reservation.getQuantity(), confirmedAt);
+            }
         } finally {
+            journalLock.unlock();
             writeLock.unlock();
         }
+        
+        awaitDurable(lsn);
+        System.out.println("Confirmed reservation group: " + groupId);
+        return true;
     }
     
     /**
-     * Cancels a reservation and returns stock to inventory.
-     * @param reservationId The reservation identifier
+     * Cancels a reservation or reservation group and returns stock to inventory.
+     * @param reservationId The reservation or reservation group identifier
      * @return true if cancellation was successful
      */
     public boolean cancel(String reservationId) {
-        Lock writeLock = inventoryLock.writeLock();
+        if (isGroupId(reservationId)) {
+            return cancelGroup(reservationId);
+        }
+        
+        long lsn = 0;
         writeLock.lock();
+        journalLock.lock();
         try {
-            TimedReservation reservation = reservations.remove(reservationId);
-            if (reservation != null && !reservation.isConfirmed()) {
-                // Return stock to inventory
-                AtomicInteger available = stock.get(reservation.getProductId());
-                if (available != null) {
-                    int newStock = available.addAndGet(reservation.getQuantity());
-                    System.out.println("Cancelled reservation: " + reservationId + 
-                                     " - returned " + reservation.getQuantity() + "x " + 
-                                     reservation.getProductId() + " - new stock: " + newStock);
+            TimedReservation reservation = reservations.get(reservationId);
+            // Only the caller that moves the reservation out of ACTIVE returns its stock
+            if (reservation != null && markReleased(reservation)) {
+                if (journal != null) {
+                    try {
+                        lsn = journal.appendTransition(InventoryJournal.CANCEL, reservation.getSequence(),
+                                                       System.currentTimeMillis());
+                    } catch (RuntimeException e) {
+                        // Nothing was recorded; the hold stays active until it is cancelled again or expires
+                        undoTransition(reservation);
+                        throw e;
+                    }
                 }
-                return true;
-            }
-            
-            if (reservation == null) {
-                System.out.println("Reservation not found for cancellation: " + reservationId);
-            } else if (reservation.isConfirmed()) {
-                System.out.println("Cannot cancel confirmed reservation: " + reservationId);
+                reservations.remove(reservationId, reservation);
+                // Return stock to inventory
+                int newStock = stock.addAndGet(reservation.getProductIndex(), reservation.getQuantity());
+                System.out.println("Cancelled reservation: " + reservationId + 
+                                 " - returned " + reservation.getQuantity() + "x " + 
+                                 reservation.getProductId() + " - new stock: " + newStock);
+            } else {
+                logCancelFailure(reservationId, reservation);
+                return false;
             }
-            
+        } finally {
+            journalLock.unlock();
+            writeLock.unlock();
+        }
+        
+        awaitDurable(lsn);
+        return true;
+    }
+    
+    /**
+     * Releases every still-active line of a reservation group.
+     * @param groupId The reservation group identifier
+     * @return true if this call released at least one line
+     */
+    private boolean cancelGroup(String groupId) {
+        long[] range = parseGroup(groupId);
+        if (range == null) {
+            System.out.println("Reservation group not found for cancellation: " + groupId);
             return false;
+        }
+        
+        int released = 0;
+        long lsn = 0;
+        writeLock.lock();
+        journalLock.lock();
+        try {
+            long cancelledAt = System.currentTimeMillis();
+            for (long sequence = range[0]; sequence < range[0] + range[1]; sequence++) {
+                TimedReservation reservation = memberOf(reservations.get(reservationPrefix + sequence), range);
+                if (reservation != null && markReleased(reservation)) {
+                    if (journal != null) {
+                        try {
+                            lsn = journal.appendTransition(InventoryJournal.CANCEL, sequence, cancelledAt);
+                        } catch (RuntimeException e) {
+                            // Lines already released keep their returned stock; this one stays active
+                            undoTransition(reservation);
+                            throw e;
+                        }
+                    }
+                    reservations.remove(reservation.getId(), reservation);
+                    stock.addAndGet(reservation.getProductIndex(), reservation.getQuantity());
+                    released++;
+                }
+            }
         } finally {
+            journalLock.unlock();
             writeLock.unlock();
         }
+        
+        if (released == 0) {
+            System.out.println("Reservation group already confirmed or released: " + groupId);
+            return false;
+        }
+        awaitDurable(lsn);
+        System.out.println("Cancelled reservation group: " + groupId + " - released " + released + " lines");
+        return true;
+    }
+    
+    private Object groupLock(long groupStart) {
+        return groupLocks[(int) (groupStart % GROUP_LOCK_STRIPES)];
+    }
+    
+    /**
+     * Moves an active reservation to CONFIRMED, under its group's lock if it belongs to a group.
+     * @param reservation The reservation
+     * @return true if this call confirmed it
+     */
+    private boolean markConfirmed(TimedReservation reservation) {
+        if (reservation.getGroupSize() == 0) {
+            return reservation.markConfirmed();
+        }
+        synchronized (groupLock(reservation.getGroupStart())) {
+            return reservation.markConfirmed();
+        }
+    }
+    
+    /**
+     * Moves an active reservation to RELEASED, under its group's lock if it belongs to a group.
+     * @param reservation The reservation
+     * @return true if this call released it and must return its stock
+     */
+    private boolean markReleased(TimedReservation reservation) {
+        if (reservation.getGroupSize() == 0) {
+            return reservation.markReleased();
+        }
+        synchronized (groupLock(reservation.getGroupStart())) {
+            return reservation.markReleased();
+        }
+    }
+    
+    /**
+     * Moves a reservation back to ACTIVE after its transition could not be journaled.
+     * @param reservation A reservation this thread just confirmed or released
+     */
+    private void undoTransition(TimedReservation reservation) {
+        if (reservation.getGroupSize() == 0) {
+            reservation.reactivate();
+            return;
+        }
+        synchronized (groupLock(reservation.getGroupStart())) {
+            reservation.reactivate();
+        }
+    }
+    
+    private static TimedReservation memberOf(TimedReservation reservation, long[] range) {
+        // A group ID that does not match the group the lines were reserved in must not touch them
+        if (reservation == null || reservation.getGroupStart() != range[0] || reservation.getGroupSize() != range[1]) {
+            return null;
+        }
+        return reservation;
+    }
+    
+    private boolean isGroupId(String reservationId) {
+        return reservationId != null && reservationId.startsWith(groupPrefix);
+    }
+    
+    /**
+     * Parses a reservation group ID issued by this inventory.
+     * @param groupId The reservation group identifier
+     * @return {first sequence, line count} or null if the ID is malformed
+     */
+    private long[] parseGroup(String groupId) {
+        int separator = groupId.indexOf('x', groupPrefix.length());
+        if (separator < 0) {
+            return null;
+        }
+        try {
+            long first = Long.parseLong(groupId.substring(groupPrefix.length(), separator));
+            int count = Integer.parseInt(groupId.substring(separator + 1));
+            if (first <= 0 || count <= 0 || count > MAX_GROUP_LINES) {
+                return null;
+            }
+            return new long[] {first, count};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+    
+    private void logConfirmFailure(String reservationId, TimedReservation reservation) {
+        if (reservation == null && isArchived(reservationId)) {
+            System.out.println("Reservation already confirmed: " + reservationId);
+        } else if (reservation == null) {
+            System.out.println("Reservation not found: " + reservationId);
+        } else if (reservation.isExpired()) {
+            System.out.println("Reservation expired: " + reservationId);
+        } else if (reservation.isConfirmed()) {
+            System.out.println("Reservation already confirmed: " + reservationId);
+        } else {
+            System.out.println("Reservation already released: " + reservationId);
+        }
+    }
+    
+    private void logCancelFailure(String reservationId, TimedReservation reservation) {
+        if (reservation == null && isArchived(reservationId)) {
+            System.out.println("Cannot cancel confirmed reservation: " + reservationId);
+        } else if (reservation == null) {
+            System.out.println("Reservation not found for cancellation: " + reservationId);
+        } else if (reservation.isConfirmed()) {
+            System.out.println("Cannot cancel confirmed reservation: " + reservationId);
+        } else {
+            System.out.println("Reservation already released: " + reservationId);
+        }
+    }
+    
+    /**
+     * Looks up a confirmed reservation that is still within the archive retention window.
+     * @param reservationId The reservation identifier
+     * @return The archived reservation or null if unknown or no longer retained
+     */
+    public ConfirmedReservationArchive.ArchivedReservation findConfirmed(String reservationId) {
+        long sequence = parseSequence(reservationId);
+        return sequence < 0 ? null : confirmedArchive.find(sequence);
+    }
+    
+    /**
+     * Explains from its current state why a confirm or cancel of a reservation or group failed.
+     * @param reservationId The reservation or reservation group identifier
+     * @return One of the common.Message REASON_ constants, or null if the reservation is active
+     */
+    public String getFailureReason(String reservationId) {
+        if (!isGroupId(reservationId)) {
+            return lineFailureReason(reservationId, reservations.get(reservationId));
+        }
+        long[] range = parseGroup(reservationId);
+        if (range == null) {
+            return common.Message.REASON_NOT_FOUND;
+        }
+        // A group counts as confirmed only if every line is; otherwise the first failed line explains it
+        String reason = common.Message.REASON_ALREADY_CONFIRMED;
+        for (long sequence = range[0]; sequence < range[0] + range[1]; sequence++) {
+            String lineId = reservationPrefix + sequence;
+            String lineReason = lineFailureReason(lineId, memberOf(reservations.get(lineId), range));
+            if (!common.Message.REASON_ALREADY_CONFIRMED.equals(lineReason)) {
+                if (lineReason != null) {
+                    return lineReason;
+                }
+                reason = null;
+            }
+        }
+        return reason;
+    }
+    
+    private String lineFailureReason(String reservationId, TimedReservation reservation) {
+        if (reservation == null) {
+            return isArchived(reservationId) ? common.Message.REASON_ALREADY_CONFIRMED : common.Message.REASON_NOT_FOUND;
+        }
+        if (reservation.isConfirmed()) {
+            return common.Message.REASON_ALREADY_CONFIRMED;
+        }
+        if (!reservation.isActive()) {
+            return common.Message.REASON_ALREADY_RELEASED;
+        }
+        return reservation.isExpired() ? common.Message.REASON_EXPIRED : null;
+    }
+    
+    private boolean isArchived(String reservationId) {
+        return findConfirmed(reservationId) != null;
+    }
+    
+    /**
+     * Extracts the numeric sequence from a reservation ID issued by this inventory.
+     * @param reservationId The reservation identifier
+     * @return The sequence or -1 if the ID was not issued by this inventory
+     */
+    private long parseSequence(String reservationId) {
+        if (reservationId == null || !reservationId.startsWith(reservationPrefix)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(reservationId.substring(reservationPrefix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
     }
     
     /**
@@ -179,12 +836,12 @@ public class EnhancedInventory {
      * @return Map of product IDs to available quantities
      */
     public Map<String, Integer> getInventoryStatus() {
-        Lock readLock = inventoryLock.readLock();
         readLock.lock();
         try {
-            Map<String, Integer> status = new HashMap<>();
-            for (Map.Entry<String, AtomicInteger> entry : stock.entrySet()) {
-                status.put(entry.getKey(), entry.getValue().get());
+            int productCount = stock.size();
+            Map<String, Integer> status = new HashMap<>(productCount * 4 / 3 + 1);
+            for (int i = 0; i < productCount; i++) {
+                status.put(stock.skuAt(i), stock.get(i));
             }
             return status;
         } finally {
@@ -197,7 +854,6 @@ public class EnhancedInventory {
      * @return Map of reservation information
      */
     public Map<String, Object> getReservationStatus() {
-        Lock readLock = inventoryLock.readLock();
         readLock.lock();
         try {
             Map<String, Object> status = new HashMap<>();
@@ -219,7 +875,10 @@ public class EnhancedInventory {
             
             status.put("activeReservations", activeReservations);
             status.put("expiredReservations", expiredReservations);
-            status.put("confirmedReservations", confirmedReservations);
+            status.put("confirmedReservations", confirmedReservations + confirmedArchive.size());
+            status.put("archivedPartitions", confirmedArchive.getPartitionCount());
+            status.put("archivedBytes", confirmedArchive.getRetainedBytes());
+            status.put("concurrencyMode", concurrencyMode.name());
             
             return status;
         } finally {
@@ -232,35 +891,61 @@ public class EnhancedInventory {
      * @return String representation of inventory status
      */
     public String getStatus() {
-        Map<String, Integer> status = getInventoryStatus();
+        // Large catalogs are summarized instead of printing every SKU
+        int productCount = stock.size();
+        int shown = Math.min(productCount, STATUS_PRODUCT_LIMIT);
         StringBuilder sb = new StringBuilder();
-        for (Map.Entry<String, Integer> entry : status.entrySet()) {
-            sb.append(entry.getKey()).append(":").append(entry.getValue()).append(" ");
+        for (int i = 0; i < shown; i++) {
+            sb.append(stock.skuAt(i)).append(":").append(stock.get(i)).append(" ");
+        }
+        if (shown < productCount) {
+            sb.append("... (").append(productCount).append(" products)");
         }
         return sb.toString().trim();
     }
     
     /**
-     * Cleans up expired reservations and returns stock to inventory.
+     * Gets the number of products in the catalog.
+     * @return Product count
+     */
+    public int getProductCount() {
+        return stock.size();
+    }
+    
+    /**
+     * Releases expired reservations and returns their stock to inventory.
+     * Walks the expiry queue from the oldest deadline and stops at the first one still pending,
+     * so the cost is proportional to the number of expired entries, not to all reservations.
      */
     private void cleanupExpiredReservations() {
-        Lock writeLock = inventoryLock.writeLock();
         writeLock.lock();
+        journalLock.lock();
         try {
-            Iterator<Map.Entry<String, TimedReservation>> iterator = reservations.entrySet().iterator();
+            long now = System.currentTimeMillis();
             int cleanedCount = 0;
+            RuntimeException appendFailure = null;
             
-            while (iterator.hasNext()) {
-                Map.Entry<String, TimedReservation> entry = iterator.next();
-                TimedReservation reservation = entry.getValue();
+            TimedReservation reservation;
+            while ((reservation = expiryQueue.peek()) != null && reservation.getExpiryTime() < now) {
+                expiryQueue.poll();
                 
-                if (reservation.isExpired() && !reservation.isConfirmed()) {
-                    // Return stock to inventory
-                    AtomicInteger available = stock.get(reservation.getProductId());
-                    if (available != null) {
-                        available.addAndGet(reservation.getQuantity());
+                // Confirmed or cancelled reservations are skipped; their stock is already settled
+                if (markReleased(reservation)) {
+                    // Not awaited: a lost EXPIRE record only means the hold is released again after restart
+                    if (journal != null) {
+                        try {
+                            journal.appendTransition(InventoryJournal.EXPIRE, reservation.getSequence(), now);
+                        } catch (RuntimeException e) {
+                            // Kept active at the head of the queue, so the next sweep retries it
+                            undoTransition(reservation);
+                            expiryQueue.addFirst(reservation);
+                            appendFailure = e;
+                            break;
+                        }
                     }
-                    iterator.remove();
+                    // Return stock to inventory
+                    stock.addAndGet(reservation.getProductIndex(), reservation.getQuantity());
+                    reservations.remove(reservation.getId(), reservation);
                     cleanedCount++;
                 }
             }
@@ -268,7 +953,19 @@ public class EnhancedInventory {
             if (cleanedCount > 0) {
                 System.out.println("Cleaned up " + cleanedCount + " expired reservations");
             }
+            if (appendFailure != null) {
+                System.err.println("Stopped expiring reservations, journal append failed: " + appendFailure.getMessage());
+            }
+            
+            int archivedDropped = confirmedArchive.expire(now);
+            if (archivedDropped > 0) {
+                System.out.println("Dropped " + archivedDropped + " confirmed reservations past retention");
+            }
+        } catch (RuntimeException e) {
+            // Keep the scheduled task alive
+            System.err.println("Error cleaning up expired reservations: " + e.getMessage());
         } finally {
+            journalLock.unlock();
             writeLock.unlock();
         }
     }
@@ -289,24 +986,52 @@ public class EnhancedInventory {
             Thread.currentThread().interrupt();
         }
         
+        if (journal != null) {
+            // A fresh checkpoint keeps the next start from replaying the log
+            checkpoint();
+            try {
+                journal.close();
+            } catch (IOException e) {
+                System.err.println("Error closing inventory journal: " + e.getMessage());
+            }
+        }
+        
         System.out.println("Enhanced inventory shut down for " + sellerId);
     }
     
+    /**
+     * Lifecycle of a reservation. Only ACTIVE reservations hold stock that can be returned.
+     */
+    private enum ReservationState {
+        ACTIVE,
+        CONFIRMED,
+        RELEASED
+    }
+    
     /**
      * Represents a timed reservation with expiry and confirmation state.
      */
     private static class TimedReservation {
         private final String id;
+        private final long sequence;
         private final String productId;
+        private final int productIndex;
         private final int quantity;
         private final long expiryTime;
-        private volatile boolean confirmed = false;
+        private final long groupStart;
+        private final int groupSize;
+        private final AtomicReference<ReservationState> state = new AtomicReference<>(ReservationState.ACTIVE);
         
-        public TimedReservation(String id, String productId, int quantity, long expiryTime) {
+        public TimedReservation(String id, long sequence, String productId, int productIndex, int quantity,
+                                long expiryTime, long groupStart, int groupSize) {
             this.id = id;
+            this.sequence = sequence;
             this.productId = productId;
+            this.productIndex = productIndex;
             this.quantity = quantity;
             this.expiryTime = expiryTime;
+            this.groupStart = groupStart;
+            this.groupSize = groupSize;
         }
         
         public boolean isExpired() {
@@ -315,16 +1040,60 @@ public class EnhancedInventory {
         
         // Getters and setters
         public String getId() { return id; }
+        public long getSequence() { return sequence; }
         public String getProductId() { return productId; }
+        public int getProductIndex() { return productIndex; }
         public int getQuantity() { return quantity; }
         public long getExpiryTime() { return expiryTime; }
-        public boolean isConfirmed() { return confirmed; }
-        public void setConfirmed(boolean confirmed) { this.confirmed = confirmed; }
+        public long getGroupStart() { return groupStart; }
+        public int getGroupSize() { return groupSize; }
+        public boolean isConfirmed() { return state.get() == ReservationState.CONFIRMED; }
+        public boolean isActive() { return state.get() == ReservationState.ACTIVE; }
+        
+        /**
+         * Moves an active reservation to CONFIRMED.
+         * @return true if this call confirmed it
+         */
+        public boolean markConfirmed() {
+            return state.compareAndSet(ReservationState.ACTIVE, ReservationState.CONFIRMED);
+        }
+        
+        /**
+         * Moves an active reservation to RELEASED; the winner must return the stock.
+         * @return true if this call released it
+         */
+        public boolean markReleased() {
+            return state.compareAndSet(ReservationState.ACTIVE, ReservationState.RELEASED);
+        }
+        
+        /**
+         * Moves a confirmed or released reservation back to ACTIVE.
+         * Only the caller that made the transition may undo it.
+         */
+        public void reactivate() {
+            state.set(ReservationState.ACTIVE);
+        }
         
         @Override
         public String toString() {
-            return String.format("TimedReservation{id='%s', productId='%s', quantity=%d, confirmed=%s, expired=%s}", 
-                               id, productId, quantity, confirmed, isExpired());
+            return String.format("TimedReservation{id='%s', productId='%s', quantity=%d, state=%s, expired=%s}", 
+                               id, productId, quantity, state.get(), isExpired());
+        }
+    }
+    
+    /**
+     * Lock that does nothing, used in place of the inventory lock in lock-free mode.
+     */
+    private static final class NoOpLock implements Lock {
+        static final NoOpLock INSTANCE = new NoOpLock();
+        
+        @Override public void lock() { }
+        @Override public void lockInterruptibly() { }
+        @Override public boolean tryLock() { return true; }
+        @Override public boolean tryLock(long time, TimeUnit unit) { return true; }
+        @Override public void unlock() { }
+        @Override public Condition newCondition() {
+            throw new UnsupportedOperationException("NoOpLock does not support conditions");
         }
     }
 }
\ No newline at end of file
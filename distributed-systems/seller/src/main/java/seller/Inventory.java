@@ -1,24 +1,35 @@
 package seller;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
 
 public class Inventory {
     private final String sellerId;
-    private final Map<String, AtomicInteger> stock;
+    private final StockTable stock;
     private final Map<String, Reservation> reservations;
     private int reservationCounter = 0;
 
     public Inventory(String sellerId, java.util.Properties config) {
         this.sellerId = sellerId;
-        this.stock = new ConcurrentHashMap<>();
+        this.stock = new StockTable(Integer.parseInt(config.getProperty("inventory.catalog.expected.skus", "1024")));
         this.reservations = new ConcurrentHashMap<>();
+        String catalogFile = config.getProperty("inventory.catalog.file", "").trim();
+        if (!catalogFile.isEmpty()) {
+            // Katalog mit Lagerbestand aus Datei laden
+            try {
+                CatalogLoader.load(Paths.get(catalogFile), stock);
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot load catalog " + catalogFile + ": " + e.getMessage(), e);
+            }
+            return;
+        }
         int initialStock = Integer.parseInt(config.getProperty("seller.inventory.size", "50"));
         // Initialisiere Lagerbestand für einige Produkte
-        stock.put("P1", new AtomicInteger(initialStock));
-        stock.put("P2", new AtomicInteger(initialStock));
-        stock.put("P3", new AtomicInteger(initialStock));
+        stock.put("P1", initialStock);
+        stock.put("P2", initialStock);
+        stock.put("P3", initialStock);
     }
 
     /**
@@ -26,17 +37,17 @@ public class Inventory {
      * Gibt die Reservierungs-ID zurück, wenn erfolgreich, sonst null.
      */
     public synchronized String reserve(String productId, int quantity) {
-        AtomicInteger available = stock.get(productId);
+        int productIndex = stock.indexOf(productId);
         
-        if (available == null) {
+        if (productIndex == StockTable.NOT_FOUND) {
             System.out.println("Product " + productId + " not found");
             return null;
         }
         
-        int currentStock = available.get();
+        int currentStock = stock.get(productIndex);
         if (currentStock >= quantity) {
             // Reduziere Bestand
-            available.addAndGet(-quantity);
+            stock.addAndGet(productIndex, -quantity);
             
             // Erstelle Reservierung
             String reservationId = sellerId + "-R" + (++reservationCounter);
@@ -69,9 +80,9 @@ public class Inventory {
         Reservation reservation = reservations.remove(reservationId);
         if (reservation != null && !reservation.isConfirmed()) {
             // Bestand zurückgeben, wenn noch nicht bestätigt
-            AtomicInteger available = stock.get(reservation.getProductId());
-            if (available != null) {
-                available.addAndGet(reservation.getQuantity());
+            int productIndex = stock.indexOf(reservation.getProductId());
+            if (productIndex != StockTable.NOT_FOUND) {
+                stock.addAndGet(productIndex, reservation.getQuantity());
             }
             return true;
         }
@@ -83,8 +94,8 @@ public class Inventory {
      */
     public String getStatus() {
         StringBuilder sb = new StringBuilder();
-        for (Map.Entry<String, AtomicInteger> entry : stock.entrySet()) {
-            sb.append(entry.getKey()).append(":").append(entry.getValue().get()).append(" ");
+        for (int i = 0; i < stock.size(); i++) {
+            sb.append(stock.skuAt(i)).append(":").append(stock.get(i)).append(" ");
         }
         return sb.toString().trim();
     }
@@ -0,0 +1,606 @@
+package seller;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Write-ahead log and checkpoint store for {@link EnhancedInventory}.
+ * Every reserve, confirm, cancel and expire is appended as a CRC-protected record. A background
+ * flusher writes and forces whatever has accumulated since its last pass, so concurrent callers
+ * share one fsync (group commit). Checkpoints write the stock table, the open reservations and the
+ * confirmed reservations still within retention to a memory-mapped file and delete the log segments
+ * they cover, which keeps replay at startup bounded.
+ */
+public class InventoryJournal implements Closeable {
+    public static final byte RESERVE = 1;
+    public static final byte CONFIRM = 2;
+    public static final byte CANCEL = 3;
+    public static final byte EXPIRE = 4;
+    
+    private static final int CHECKPOINT_MAGIC = 0x494E5643; // "INVC"
+    // Version 2 added reservation group fields, version 3 the confirmed reservation archive
+    private static final int CHECKPOINT_VERSION = 3;
+    private static final String CHECKPOINT_FILE = "checkpoint.dat";
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int RECORD_HEADER_BYTES = 2 * Integer.BYTES;
+    private static final int INITIAL_BUFFER_BYTES = 1 << 20;
+    
+    private final Path directory;
+    private final boolean fsync;
+    // Held while bytes are written to a segment so a segment roll never races the flusher
+    private final ReentrantLock ioLock = new ReentrantLock();
+    private final CRC32C crc = new CRC32C();
+    
+    // Guarded by this
+    private ByteBuffer activeBuffer = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+    private ByteBuffer flushBuffer = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+    private FileChannel segment;
+    private long nextLsn;
+    private long appendedLsn;
+    private long durableLsn;
+    private IOException failure;
+    private boolean running = false;
+    private Thread flusher;
+    
+    /**
+     * Creates a journal over a data directory. Nothing is written until {@link #open(long)}.
+     * @param directory Directory holding the checkpoint and log segments
+     * @param fsync Whether each group of records is forced to disk before it is acknowledged
+     * @throws IOException if the directory cannot be created
+     */
+    public InventoryJournal(Path directory, boolean fsync) throws IOException {
+        this.directory = directory;
+        this.fsync = fsync;
+        Files.createDirectories(directory);
+    }
+    
+    /**
+     * Loads the latest checkpoint, putting its stock table into the given table.
+     * @param stock Table that receives the checkpointed products and quantities
+     * @return The checkpoint or null if none has been written yet
+     * @throws IOException if the checkpoint exists but cannot be read
+     */
+    public Checkpoint loadCheckpoint(StockTable stock) throws IOException {
+        Path file = directory.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int magic = buffer.getInt();
+            int version = buffer.getInt();
+            if (magic != CHECKPOINT_MAGIC || version < 1 || version > CHECKPOINT_VERSION) {
+                throw new IOException("Unrecognized checkpoint format in " + file);
+            }
+            long lsn = buffer.getLong();
+            int productCount = buffer.getInt();
+            int reservationCount = buffer.getInt();
+            
+            // Keys are copied straight from the mapping; no String per product
+            byte[] key = new byte[0xFFFF];
+            for (int i = 0; i < productCount; i++) {
+                int length = buffer.getShort() & 0xFFFF;
+                buffer.get(key, 0, length);
+                stock.put(key, 0, length, buffer.getInt());
+            }
+            
+            List<ReservationRecord> reservations = new ArrayList<>(reservationCount);
+            for (int i = 0; i < reservationCount; i++) {
+                long sequence = buffer.getLong();
+                String productId = readString(buffer);
+                int quantity = buffer.getInt();
+                long expiryTime = buffer.getLong();
+                long groupStart = version >= 2 ? buffer.getLong() : 0;
+                int groupSize = version >= 2 ? buffer.getInt() : 0;
+                reservations.add(new ReservationRecord(sequence, productId, quantity, expiryTime, groupStart, groupSize));
+            }
+            
+            int confirmedCount = version >= 3 ? buffer.getInt() : 0;
+            List<ConfirmedReservationArchive.ArchivedReservation> confirmed = new ArrayList<>(confirmedCount);
+            for (int i = 0; i < confirmedCount; i++) {
+                long reservationKey = buffer.getLong();
+                String productId = readString(buffer);
+                int quantity = buffer.getInt();
+                confirmed.add(new ConfirmedReservationArchive.ArchivedReservation(reservationKey, productId, quantity,
+                                                                                  buffer.getLong()));
+            }
+            return new Checkpoint(lsn, productCount, reservations, confirmed);
+        }
+    }
+    
+    /**
+     * Replays log records newer than a checkpoint, in log order.
+     * Stops at the first torn or corrupt record and truncates the segment there.
+     * @param afterLsn Records with an LSN up to and including this one are skipped
+     * @param handler Receives each record
+     * @return The highest LSN found in the log, or afterLsn if there is none newer
+     * @throws IOException if a segment cannot be read
+     */
+    public long replay(long afterLsn, RecordHandler handler) throws IOException {
+        long lastLsn = afterLsn;
+        for (Path file : listSegments()) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                int validEnd = 0;
+                
+                while (buffer.remaining() >= RECORD_HEADER_BYTES) {
+                    int start = buffer.position();
+                    int length = buffer.getInt();
+                    int checksum = buffer.getInt();
+                    if (length <= 0 || length > buffer.remaining() || checksumOf(buffer, buffer.position(), length) != checksum) {
+                        buffer.position(start);
+                        break;
+                    }
+                    
+                    int recordEnd = buffer.position() + length;
+                    byte type = buffer.get();
+                    long lsn = buffer.getLong();
+                    long sequence = buffer.getLong();
+                    long timestamp = buffer.getLong();
+                    if (lsn > afterLsn) {
+                        if (type == RESERVE) {
+                            String productId = readString(buffer);
+                            int quantity = buffer.getInt();
+                            // Group fields are only present for lines of a reservation group
+                            boolean grouped = buffer.position() < recordEnd;
+                            long groupStart = grouped ? buffer.getLong() : 0;
+                            int groupSize = grouped ? buffer.getInt() : 0;
+                            handler.onReserve(lsn, new ReservationRecord(sequence, productId, quantity, timestamp,
+                                                                         groupStart, groupSize));
+                        } else {
+                            handler.onTransition(type, lsn, sequence, timestamp);
+                        }
+                    }
+                    lastLsn = Math.max(lastLsn, lsn);
+                    buffer.position(recordEnd);
+                    validEnd = recordEnd;
+                }
+                
+                if (validEnd < channel.size()) {
+                    System.out.println("Truncating torn journal tail in " + file.getFileName() +
+                                     " at byte " + validEnd + " of " + channel.size());
+                    channel.truncate(validEnd);
+                    // Anything after a torn record was never acknowledged
+                    break;
+                }
+            }
+        }
+        return lastLsn;
+    }
+    
+    /**
+     * Opens a fresh log segment and starts the group-commit flusher.
+     * @param firstLsn LSN assigned to the next appended record
+     * @throws IOException if the segment cannot be created
+     */
+    public synchronized void open(long firstLsn) throws IOException {
+        if (running) {
+            throw new IllegalStateException("Journal already open");
+        }
+        this.nextLsn = firstLsn;
+        this.appendedLsn = firstLsn - 1;
+        this.durableLsn = firstLsn - 1;
+        this.segment = openSegment(firstLsn);
+        this.running = true;
+        
+        flusher = new Thread(this::flushLoop, "InventoryJournal-Flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+    
+    /**
+     * Appends a reservation record.
+     * @param sequence The reservation sequence
+     * @param productId The reserved product
+     * @param quantity The reserved quantity
+     * @param expiryTime Expiry time in epoch milliseconds
+     * @param groupStart First sequence of the reservation group, 0 if not grouped
+     * @param groupSize Number of lines in the reservation group, 0 if not grouped
+     * @return The record's LSN
+     */
+    public long appendReserve(long sequence, String productId, int quantity, long expiryTime,
+                              long groupStart, int groupSize) {
+        return append(RESERVE, sequence, expiryTime, productId.getBytes(StandardCharsets.UTF_8), quantity,
+                      groupStart, groupSize);
+    }
+    
+    /**
+     * Appends a confirmation, cancellation or expiry record.
+     * @param type One of CONFIRM, CANCEL or EXPIRE
+     * @param sequence The reservation sequence
+     * @param timestamp Time of the transition in epoch milliseconds
+     * @return The record's LSN
+     */
+    public long appendTransition(byte type, long sequence, long timestamp) {
+        if (type == RESERVE) {
+            throw new IllegalArgumentException("Use appendReserve for RESERVE records");
+        }
+        return append(type, sequence, timestamp, null, 0, 0, 0);
+    }
+    
+    private synchronized long append(byte type, long sequence, long timestamp, byte[] productId, int quantity,
+                                     long groupStart, int groupSize) {
+        if (!running) {
+            throw new IllegalStateException("Journal is not open");
+        }
+        
+        int bodyLength = 1 + 3 * Long.BYTES + (productId != null ? Short.BYTES + productId.length + Integer.BYTES : 0) +
+                         (groupSize > 0 ? Long.BYTES + Integer.BYTES : 0);
+        ensureCapacity(RECORD_HEADER_BYTES + bodyLength);
+        
+        long lsn = nextLsn++;
+        int start = activeBuffer.position();
+        activeBuffer.putInt(bodyLength).putInt(0);
+        activeBuffer.put(type).putLong(lsn).putLong(sequence).putLong(timestamp);
+        if (productId != null) {
+            activeBuffer.putShort((short) productId.length).put(productId).putInt(quantity);
+        }
+        if (groupSize > 0) {
+            activeBuffer.putLong(groupStart).putInt(groupSize);
+        }
+        activeBuffer.putInt(start + Integer.BYTES, checksumOf(activeBuffer, start + RECORD_HEADER_BYTES, bodyLength));
+        
+        appendedLsn = lsn;
+        notifyAll();
+        return lsn;
+    }
+    
+    /**
+     * Blocks until a record has been written (and forced, if fsync is enabled).
+     * @param lsn The record's LSN
+     * @throws IOException if the journal failed before the record became durable
+     */
+    public synchronized void awaitDurable(long lsn) throws IOException {
+        while (durableLsn < lsn) {
+            if (failure != null) {
+                throw new IOException("Inventory journal failed", failure);
+            }
+            if (!running) {
+                throw new IOException("Inventory journal closed before LSN " + lsn + " was durable");
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for LSN " + lsn);
+            }
+        }
+    }
+    
+    /**
+     * Flushes pending records and starts a new segment. Callers must make sure no record is being
+     * appended concurrently if they need an exact boundary.
+     * @return The last LSN stored in the previous segments
+     * @throws IOException if the flush or the new segment fails
+     */
+    public long rollSegment() throws IOException {
+        ioLock.lock();
+        try {
+            synchronized (this) {
+                if (!running) {
+                    throw new IllegalStateException("Journal is not open");
+                }
+                writeFully(activeBuffer, segment);
+                activeBuffer.clear();
+                durableLsn = appendedLsn;
+                notifyAll();
+                
+                long boundary = nextLsn - 1;
+                segment.close();
+                segment = openSegment(nextLsn);
+                return boundary;
+            }
+        } finally {
+            ioLock.unlock();
+        }
+    }
+    
+    /**
+     * Writes a checkpoint and deletes the log segments it covers.
+     * @param lsn LSN of the last record reflected in the checkpoint, as returned by rollSegment
+     * @param stock Stock table supplying the product keys; keys must not change while writing
+     * @param quantities Available stock per product id, captured at the checkpoint
+     * @param productCount Number of products, ids 0 to productCount - 1
+     * @param reservations Open reservations at the checkpoint
+     * @param confirmed Confirmed reservations still within retention, oldest first
+     * @throws IOException if the checkpoint cannot be written
+     */
+    public void writeCheckpoint(long lsn, StockTable stock, int[] quantities, int productCount,
+                                List<ReservationRecord> reservations,
+                                List<ConfirmedReservationArchive.ArchivedReservation> confirmed) throws IOException {
+        long size = 2 * Integer.BYTES + Long.BYTES + 3 * Integer.BYTES;
+        for (int i = 0; i < productCount; i++) {
+            size += Short.BYTES + stock.keyLength(i) + Integer.BYTES;
+        }
+        for (ReservationRecord reservation : reservations) {
+            size += Long.BYTES + Short.BYTES + reservation.getProductId().getBytes(StandardCharsets.UTF_8).length +
+                    Integer.BYTES + Long.BYTES + Long.BYTES + Integer.BYTES;
+        }
+        for (ConfirmedReservationArchive.ArchivedReservation reservation : confirmed) {
+            size += Long.BYTES + Short.BYTES + reservation.getProductId().getBytes(StandardCharsets.UTF_8).length +
+                    Integer.BYTES + Long.BYTES;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Checkpoint of " + size + " bytes exceeds the mappable size");
+        }
+        
+        Path temp = directory.resolve(CHECKPOINT_FILE + ".tmp");
+        try (RandomAccessFile file = new RandomAccessFile(temp.toFile(), "rw");
+             FileChannel channel = file.getChannel()) {
+            file.setLength(size);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(CHECKPOINT_MAGIC).putInt(CHECKPOINT_VERSION).putLong(lsn);
+            buffer.putInt(productCount).putInt(reservations.size());
+            for (int i = 0; i < productCount; i++) {
+                buffer.putShort((short) stock.keyLength(i));
+                stock.copyKey(i, buffer);
+                buffer.putInt(quantities[i]);
+            }
+            for (ReservationRecord reservation : reservations) {
+                byte[] productId = reservation.getProductId().getBytes(StandardCharsets.UTF_8);
+                buffer.putLong(reservation.getSequence());
+                buffer.putShort((short) productId.length).put(productId);
+                buffer.putInt(reservation.getQuantity()).putLong(reservation.getExpiryTime());
+                buffer.putLong(reservation.getGroupStart()).putInt(reservation.getGroupSize());
+            }
+            buffer.putInt(confirmed.size());
+            for (ConfirmedReservationArchive.ArchivedReservation reservation : confirmed) {
+                byte[] productId = reservation.getProductId().getBytes(StandardCharsets.UTF_8);
+                buffer.putLong(reservation.getReservationKey());
+                buffer.putShort((short) productId.length).put(productId);
+                buffer.putInt(reservation.getQuantity()).putLong(reservation.getConfirmedAt());
+            }
+            buffer.force();
+        }
+        Files.move(temp, directory.resolve(CHECKPOINT_FILE),
+                   StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        
+        // Segments that start at or before the checkpoint LSN are fully covered by it
+        for (Path file : listSegments()) {
+            if (segmentStart(file) <= lsn) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+    
+    /**
+     * Flushes pending records, stops the flusher and closes the current segment.
+     */
+    @Override
+    public void close() throws IOException {
+        Thread flusherThread;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            notifyAll();
+            flusherThread = flusher;
+        }
+        try {
+            flusherThread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        
+        ioLock.lock();
+        try {
+            synchronized (this) {
+                writeFully(activeBuffer, segment);
+                activeBuffer.clear();
+                durableLsn = appendedLsn;
+                notifyAll();
+                segment.close();
+            }
+        } finally {
+            ioLock.unlock();
+        }
+    }
+    
+    /**
+     * Flusher loop: takes everything appended since the last pass and writes it as one batch.
+     */
+    private void flushLoop() {
+        while (true) {
+            synchronized (this) {
+                while (running && activeBuffer.position() == 0) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (!running) {
+                    return;
+                }
+            }
+            
+            ioLock.lock();
+            try {
+                FileChannel channel;
+                long batchLsn;
+                synchronized (this) {
+                    if (activeBuffer.position() == 0) {
+                        continue;
+                    }
+                    // Swap buffers so appends continue while this batch is written
+                    ByteBuffer batch = activeBuffer;
+                    activeBuffer = flushBuffer;
+                    flushBuffer = batch;
+                    batchLsn = appendedLsn;
+                    channel = segment;
+                }
+                
+                flushBuffer.flip();
+                while (flushBuffer.hasRemaining()) {
+                    channel.write(flushBuffer);
+                }
+                if (fsync) {
+                    channel.force(false);
+                }
+                flushBuffer.clear();
+                
+                synchronized (this) {
+                    durableLsn = Math.max(durableLsn, batchLsn);
+                    notifyAll();
+                }
+            } catch (IOException e) {
+                System.err.println("Inventory journal write failed: " + e.getMessage());
+                synchronized (this) {
+                    failure = e;
+                    running = false;
+                    notifyAll();
+                }
+                return;
+            } finally {
+                ioLock.unlock();
+            }
+        }
+    }
+    
+    private void writeFully(ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+    }
+    
+    private void ensureCapacity(int bytes) {
+        if (activeBuffer.remaining() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(activeBuffer.capacity() * 2, activeBuffer.position() + bytes));
+            activeBuffer.flip();
+            larger.put(activeBuffer);
+            activeBuffer = larger;
+        }
+    }
+    
+    private int checksumOf(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(offset + length).position(offset);
+        synchronized (crc) {
+            crc.reset();
+            crc.update(slice);
+            return (int) crc.getValue();
+        }
+    }
+    
+    private FileChannel openSegment(long firstLsn) throws IOException {
+        return FileChannel.open(directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstLsn, SEGMENT_SUFFIX)),
+                                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+    
+    private List<Path> listSegments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : stream) {
+                segments.add(file);
+            }
+        }
+        // Zero-padded start LSNs sort lexicographically
+        Collections.sort(segments);
+        return segments;
+    }
+    
+    private static long segmentStart(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+    
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Receives journal records during replay.
+     */
+    public interface RecordHandler {
+        /**
+         * @param lsn The record's LSN
+         * @param reservation The reservation as it was created
+         */
+        void onReserve(long lsn, ReservationRecord reservation);
+        
+        /**
+         * @param type CONFIRM, CANCEL or EXPIRE
+         * @param lsn The record's LSN
+         * @param sequence The reservation sequence
+         * @param timestamp Time of the transition in epoch milliseconds
+         */
+        void onTransition(byte type, long lsn, long sequence, long timestamp);
+    }
+    
+    /**
+     * Log position, open reservations and archived confirmations of a checkpoint; the stock table is
+     * loaded in place.
+     */
+    public static class Checkpoint {
+        private final long lsn;
+        private final int productCount;
+        private final List<ReservationRecord> reservations;
+        private final List<ConfirmedReservationArchive.ArchivedReservation> confirmed;
+        
+        public Checkpoint(long lsn, int productCount, List<ReservationRecord> reservations,
+                          List<ConfirmedReservationArchive.ArchivedReservation> confirmed) {
+            this.lsn = lsn;
+            this.productCount = productCount;
+            this.reservations = reservations;
+            this.confirmed = confirmed;
+        }
+        
+        public long getLsn() { return lsn; }
+        public int getProductCount() { return productCount; }
+        public List<ReservationRecord> getReservations() { return reservations; }
+        public List<ConfirmedReservationArchive.ArchivedReservation> getConfirmed() { return confirmed; }
+    }
+    
+    /**
+     * Open reservation as stored in a checkpoint or a RESERVE record.
+     */
+    public static class ReservationRecord {
+        private final long sequence;
+        private final String productId;
+        private final int quantity;
+        private final long expiryTime;
+        private final long groupStart;
+        private final int groupSize;
+        
+        public ReservationRecord(long sequence, String productId, int quantity, long expiryTime,
+                                 long groupStart, int groupSize) {
+            this.sequence = sequence;
+            this.productId = productId;
+            this.quantity = quantity;
+            this.expiryTime = expiryTime;
+            this.groupStart = groupStart;
+            this.groupSize = groupSize;
+        }
+        
+        public long getSequence() { return sequence; }
+        public String getProductId() { return productId; }
+        public int getQuantity() { return quantity; }
+        public long getExpiryTime() { return expiryTime; }
+        public long getGroupStart() { return groupStart; }
+        public int getGroupSize() { return groupSize; }
+    }
+}
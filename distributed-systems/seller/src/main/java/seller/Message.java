@@ -1,7 +1,9 @@
 package seller;
 
+import java.util.List;
+
 public class Message {
-    public enum Type { RESERVE, CONFIRM, CANCEL, HEARTBEAT }
+    public enum Type { RESERVE, RESERVE_BATCH, CONFIRM, CANCEL, HEARTBEAT }
     
     private Type type;
     private String messageId;
@@ -9,11 +11,17 @@ public class Message {
     private String orderId;
     private String productId;
     private int quantity;
+    // Lines of a RESERVE_BATCH request
+    private List<Item> items;
     private String sellerId;
     private String reservationId;
     private boolean success;
     private String reason;
     private long timestamp;
+    // Epoch milliseconds after which the marketplace no longer uses the reply; 0 for none
+    private long deadline;
+    // Highest binary codec version the sender accepts; only set on heartbeats
+    private Integer codecVersion;
     
     // Konstruktoren
     public Message() {
@@ -39,6 +47,9 @@ public class Message {
     public int getQuantity() { return quantity; }
     public void setQuantity(int quantity) { this.quantity = quantity; }
     
+    public List<Item> getItems() { return items; }
+    public void setItems(List<Item> items) { this.items = items; }
+    
     public String getSellerId() { return sellerId; }
     public void setSellerId(String sellerId) { this.sellerId = sellerId; }
     
@@ -53,4 +64,30 @@ public class Message {
     
     public long getTimestamp() { return timestamp; }
     public void setTimestamp(long timestamp) { this.timestamp = timestamp; }
+    
+    public long getDeadline() { return deadline; }
+    public void setDeadline(long deadline) { this.deadline = deadline; }
+    
+    public Integer getCodecVersion() { return codecVersion; }
+    public void setCodecVersion(Integer codecVersion) { this.codecVersion = codecVersion; }
+    
+    // Eine Position einer Sammelreservierung
+    public static class Item {
+        private String productId;
+        private int quantity;
+        
+        public Item() {
+        }
+        
+        public Item(String productId, int quantity) {
+            this.productId = productId;
+            this.quantity = quantity;
+        }
+        
+        public String getProductId() { return productId; }
+        public void setProductId(String productId) { this.productId = productId; }
+        
+        public int getQuantity() { return quantity; }
+        public void setQuantity(int quantity) { this.quantity = quantity; }
+    }
 }
@@ -0,0 +1,200 @@
+package seller;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import common.JsonBytes;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hand-written JSON adapter for the seller's {@link Message}, replacing Gson's reflection-based one.
+ * Produces the same bytes as the reflective adapter: fields in declaration order, nulls omitted,
+ * primitives always written.
+ */
+public final class MessageTypeAdapter extends TypeAdapter<Message> {
+    public static final MessageTypeAdapter INSTANCE = new MessageTypeAdapter();
+    
+    private MessageTypeAdapter() {
+    }
+    
+    /**
+     * Serializes a message to UTF-8 JSON.
+     * @param message The message
+     * @return JSON bytes
+     */
+    public static byte[] toJsonBytes(Message message) {
+        return JsonBytes.write(INSTANCE, message);
+    }
+    
+    /**
+     * Parses a message from UTF-8 JSON.
+     * @param json JSON bytes
+     * @return The message, or null for an empty document
+     * @throws com.google.gson.JsonSyntaxException if the JSON is malformed
+     */
+    public static Message fromJsonBytes(byte[] json) {
+        return JsonBytes.read(INSTANCE, json);
+    }
+    
+    @Override
+    public void write(JsonWriter out, Message message) throws IOException {
+        if (message == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("type").value(message.getType() != null ? message.getType().name() : null);
+        out.name("messageId").value(message.getMessageId());
+        out.name("correlationId").value(message.getCorrelationId());
+        out.name("orderId").value(message.getOrderId());
+        out.name("productId").value(message.getProductId());
+        out.name("quantity").value(message.getQuantity());
+        out.name("items");
+        writeItems(out, message.getItems());
+        out.name("sellerId").value(message.getSellerId());
+        out.name("reservationId").value(message.getReservationId());
+        out.name("success").value(message.isSuccess());
+        out.name("reason").value(message.getReason());
+        out.name("timestamp").value(message.getTimestamp());
+        out.name("deadline").value(message.getDeadline());
+        out.name("codecVersion").value(message.getCodecVersion());
+        out.endObject();
+    }
+    
+    private static void writeItems(JsonWriter out, List<Message.Item> items) throws IOException {
+        if (items == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginArray();
+        for (Message.Item item : items) {
+            if (item == null) {
+                out.nullValue();
+                continue;
+            }
+            out.beginObject();
+            out.name("productId").value(item.getProductId());
+            out.name("quantity").value(item.getQuantity());
+            out.endObject();
+        }
+        out.endArray();
+    }
+    
+    @Override
+    public Message read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        
+        Message message = new Message();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            // Fields start out null, and a null for a primitive keeps its default like Gson does
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "type":
+                    message.setType(parseType(in.nextString()));
+                    break;
+                case "messageId":
+                    message.setMessageId(JsonBytes.readString(in));
+                    break;
+                case "correlationId":
+                    message.setCorrelationId(JsonBytes.readString(in));
+                    break;
+                case "orderId":
+                    message.setOrderId(JsonBytes.readString(in));
+                    break;
+                case "productId":
+                    message.setProductId(JsonBytes.readString(in));
+                    break;
+                case "quantity":
+                    message.setQuantity(in.nextInt());
+                    break;
+                case "items":
+                    message.setItems(readItems(in));
+                    break;
+                case "sellerId":
+                    message.setSellerId(JsonBytes.readString(in));
+                    break;
+                case "reservationId":
+                    message.setReservationId(JsonBytes.readString(in));
+                    break;
+                case "success":
+                    message.setSuccess(readBoolean(in));
+                    break;
+                case "reason":
+                    message.setReason(JsonBytes.readString(in));
+                    break;
+                case "timestamp":
+                    message.setTimestamp(in.nextLong());
+                    break;
+                case "deadline":
+                    message.setDeadline(in.nextLong());
+                    break;
+                case "codecVersion":
+                    message.setCodecVersion(in.nextInt());
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return message;
+    }
+    
+    private static List<Message.Item> readItems(JsonReader in) throws IOException {
+        List<Message.Item> items = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                items.add(null);
+                continue;
+            }
+            Message.Item item = new Message.Item();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                } else if ("productId".equals(name)) {
+                    item.setProductId(JsonBytes.readString(in));
+                } else if ("quantity".equals(name)) {
+                    item.setQuantity(in.nextInt());
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            items.add(item);
+        }
+        in.endArray();
+        return items;
+    }
+    
+    // Gson's boolean adapter also accepts "true"/"false" as strings
+    private static boolean readBoolean(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.STRING) {
+            return Boolean.parseBoolean(in.nextString());
+        }
+        return in.nextBoolean();
+    }
+    
+    // Unknown names map to null, like Gson's enum adapter
+    private static Message.Type parseType(String name) {
+        try {
+            return Message.Type.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
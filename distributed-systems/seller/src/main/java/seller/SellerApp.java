@@ -4,32 +4,53 @@ import org.zeromq.SocketType;
 import org.zeromq.ZContext;
 import org.zeromq.ZMQ;
 
-import com.google.gson.Gson;
+import common.ConfigWatcher;
 import common.IdempotencyManager;
+import common.MessageCodec;
 
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.util.Properties;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class SellerApp {
     private static final String CONFIG_FILE = "config.properties";
+    private static final String WORKER_ENDPOINT = "inproc://seller-workers";
+    private static final byte[] WORKER_READY = "READY".getBytes(ZMQ.CHARSET);
     
     private String sellerId;
     private String marketplaceEndpoint;
     private EnhancedInventory inventory;
     private AdvancedFailureSimulator failureSimulator;
     private IdempotencyManager idempotencyManager;
-    private final Gson gson = new Gson();
+    private final ConfigWatcher<SellerConfig> config;
+    private final int processingThreads;
+    // Requests dropped because the marketplace had given up on them
+    private final AtomicLong expiredRequests = new AtomicLong();
     private volatile boolean running = false;
     
     public SellerApp() {
         this.sellerId = System.getenv().getOrDefault("SELLER_ID", "seller1");
         this.marketplaceEndpoint = System.getenv().getOrDefault("MARKETPLACE_ENDPOINT", "tcp://localhost:5555");
-        Properties config = loadConfig();
-        this.inventory = new EnhancedInventory(sellerId, config);
-        this.failureSimulator = new AdvancedFailureSimulator(config);
+        this.config = new ConfigWatcher<>(Paths.get(CONFIG_FILE), SellerConfig.defaults(), SellerConfig::fromProperties);
+        SellerConfig initial = config.get();
+        this.inventory = new EnhancedInventory(sellerId, initial.toProperties());
+        this.failureSimulator = new AdvancedFailureSimulator(initial);
         this.idempotencyManager = new IdempotencyManager();
+        // The worker pool is sized once; delay and failure settings follow config changes
+        this.processingThreads = initial.getProcessingThreads();
+        config.addListener(failureSimulator::applyConfig);
+        try {
+            config.start();
+        } catch (IOException e) {
+            System.err.println("Config hot reload disabled: " + e.getMessage());
+        }
     }
     
     public static void main(String[] args) {
@@ -55,6 +76,12 @@ public class SellerApp {
             
             System.out.println("Seller " + sellerId + " connected and ready for requests");
             
+            if (processingThreads > 1) {
+                poller.close();
+                runWorkerPool(context, dealerSocket);
+                return;
+            }
+            
             while (running && !Thread.currentThread().isInterrupted()) {
                 // Poll for messages with timeout
                 if (poller.poll(1000) > 0) {
@@ -76,21 +103,139 @@ public class SellerApp {
         }
     }
     
+    /**
+     * Runs the front DEALER socket as a load-balancing proxy in front of a pool of workers.
+     * Requests are handed to idle workers over an inproc ROUTER backend and replies are
+     * forwarded to the marketplace as soon as each worker finishes, in any order.
+     * @param context The ZeroMQ context shared with the workers
+     * @param dealerSocket The front socket connected to the marketplace
+     */
+    private void runWorkerPool(ZContext context, ZMQ.Socket dealerSocket) {
+        ZMQ.Socket backendSocket = context.createSocket(SocketType.ROUTER);
+        backendSocket.bind(WORKER_ENDPOINT);
+        
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < processingThreads; i++) {
+            Thread worker = new Thread(() -> workerLoop(context), "Seller-Worker-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+        System.out.println("Seller " + sellerId + " processing requests with " + processingThreads + " workers");
+        
+        // Identities of workers waiting for a request (least recently used first)
+        Deque<byte[]> idleWorkers = new ArrayDeque<>();
+        
+        // Only poll the front socket while a worker is free; pending requests stay queued in ZMQ
+        ZMQ.Poller backendPoller = context.createPoller(1);
+        backendPoller.register(backendSocket, ZMQ.Poller.POLLIN);
+        ZMQ.Poller poller = context.createPoller(2);
+        poller.register(backendSocket, ZMQ.Poller.POLLIN);
+        poller.register(dealerSocket, ZMQ.Poller.POLLIN);
+        
+        while (running && !Thread.currentThread().isInterrupted()) {
+            ZMQ.Poller activePoller = idleWorkers.isEmpty() ? backendPoller : poller;
+            
+            if (activePoller.poll(1000) > 0) {
+                if (activePoller.pollin(0)) {
+                    forwardWorkerReply(backendSocket, dealerSocket, idleWorkers);
+                }
+                if (activePoller == poller && poller.pollin(1) && !idleWorkers.isEmpty()) {
+                    dispatchToWorker(dealerSocket, backendSocket, idleWorkers.poll());
+                }
+            }
+            
+            // Send heartbeat periodically
+            sendHeartbeat(dealerSocket);
+        }
+        
+        backendPoller.close();
+        poller.close();
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+    }
+    
+    /**
+     * Reads a worker message from the backend and forwards replies to the marketplace.
+     * @param backendSocket The inproc ROUTER socket the workers connect to
+     * @param dealerSocket The front socket connected to the marketplace
+     * @param idleWorkers Queue of idle worker identities
+     */
+    private void forwardWorkerReply(ZMQ.Socket backendSocket, ZMQ.Socket dealerSocket, Deque<byte[]> idleWorkers) {
+        // Worker message is [identity, READY] or [identity, empty, reply]
+        byte[] workerId = backendSocket.recv();
+        // READY or the empty delimiter
+        backendSocket.recv();
+        idleWorkers.add(workerId);
+        
+        if (backendSocket.hasReceiveMore()) {
+            byte[] reply = backendSocket.recv();
+            dealerSocket.send("", ZMQ.SNDMORE);
+            dealerSocket.send(reply, 0);
+        }
+    }
+    
+    /**
+     * Moves one request from the front socket to the given worker.
+     * @param dealerSocket The front socket connected to the marketplace
+     * @param backendSocket The inproc ROUTER socket the workers connect to
+     * @param workerId Identity of an idle worker
+     */
+    private void dispatchToWorker(ZMQ.Socket dealerSocket, ZMQ.Socket backendSocket, byte[] workerId) {
+        // Receive multipart message [empty, message]; the delimiter is discarded
+        dealerSocket.recv();
+        byte[] messageBytes = dealerSocket.recv();
+        
+        backendSocket.send(workerId, ZMQ.SNDMORE);
+        backendSocket.send("", ZMQ.SNDMORE);
+        backendSocket.send(messageBytes, 0);
+    }
+    
+    /**
+     * Worker loop: processes one request at a time on its own socket.
+     * @param context The ZeroMQ context shared with the front socket
+     */
+    private void workerLoop(ZContext context) {
+        ZMQ.Socket workerSocket = context.createSocket(SocketType.DEALER);
+        try {
+            workerSocket.connect(WORKER_ENDPOINT);
+            workerSocket.send(WORKER_READY, 0);
+            
+            while (running && !Thread.currentThread().isInterrupted()) {
+                // Receive multipart message [empty, message]; the delimiter is discarded
+                workerSocket.recv();
+                byte[] messageBytes = workerSocket.recv();
+                if (messageBytes == null) {
+                    break;
+                }
+                
+                byte[] reply = processFrame(messageBytes, "\n[" + Thread.currentThread().getName() + "] ");
+                
+                workerSocket.send("", ZMQ.SNDMORE);
+                workerSocket.send(reply, 0);
+            }
+        } catch (Exception e) {
+            if (running) {
+                System.err.println("Worker " + Thread.currentThread().getName() + " failed: " + e.getMessage());
+            }
+        } finally {
+            workerSocket.close();
+        }
+    }
+    
     private void processIncomingMessage(ZMQ.Socket dealerSocket) {
         try {
-            // Receive multipart message [empty, message]
-            byte[] empty = dealerSocket.recv();
+            // Receive multipart message [empty, message]; the delimiter is discarded
+            dealerSocket.recv();
             byte[] messageBytes = dealerSocket.recv();
             
             if (messageBytes != null) {
-                String jsonRequest = new String(messageBytes, ZMQ.CHARSET);
-                System.out.println("\nReceived request: " + jsonRequest);
-                
-                String jsonResponse = processRequest(jsonRequest);
+                byte[] reply = processFrame(messageBytes, "\n");
                 
                 // Send response back [empty, response]
                 dealerSocket.send("", ZMQ.SNDMORE);
-                dealerSocket.send(jsonResponse.getBytes(ZMQ.CHARSET), 0);
+                dealerSocket.send(reply, 0);
             }
         } catch (Exception e) {
             System.err.println("Error processing message: " + e.getMessage());
@@ -105,10 +250,13 @@ public class SellerApp {
                 Message heartbeat = new Message();
                 heartbeat.setType(Message.Type.HEARTBEAT);
                 heartbeat.setSellerId(sellerId);
+                // Tells the marketplace it may send binary frames
+                if (config.get().isBinaryCodecEnabled()) {
+                    heartbeat.setCodecVersion(MessageCodec.VERSION);
+                }
                 
-                String heartbeatJson = gson.toJson(heartbeat);
                 dealerSocket.send("", ZMQ.SNDMORE);
-                dealerSocket.send(heartbeatJson.getBytes(ZMQ.CHARSET), 0);
+                dealerSocket.send(MessageTypeAdapter.toJsonBytes(heartbeat), 0);
                 
                 lastHeartbeat = now;
             } catch (Exception e) {
@@ -117,117 +265,185 @@ public class SellerApp {
         }
     }
     
-    private String processRequest(String jsonRequest) {
+    /**
+     * Processes one request frame. The reply uses the request's encoding, so marketplaces that only
+     * speak JSON keep getting JSON.
+     * @param frame The request frame, JSON or binary
+     * @param logPrefix Prefix of the log line
+     * @return The reply frame
+     */
+    private byte[] processFrame(byte[] frame, String logPrefix) {
+        if (!MessageCodec.isBinary(frame)) {
+            return processJsonRequest(frame, logPrefix);
+        }
+        
+        Message response;
         try {
-            Message request = gson.fromJson(jsonRequest, Message.class);
-            
-            // Handle heartbeat messages
-            if (request.getType() == Message.Type.HEARTBEAT) {
-                Message response = new Message();
-                response.setType(Message.Type.HEARTBEAT);
-                response.setSellerId(sellerId);
-                response.setSuccess(true);
-                response.setCorrelationId(request.getCorrelationId());
-                response.setMessageId(request.getMessageId());
-                return gson.toJson(response);
-            }
-            
-            // Check for idempotency - if we already processed this message, return cached result
-            if (request.getMessageId() != null && idempotencyManager.isAlreadyProcessed(request.getMessageId())) {
-                System.out.println("Request " + request.getMessageId() + " already processed, returning cached result");
-                return idempotencyManager.getProcessedResult(request.getMessageId());
-            }
-            
-            // Check for various failure scenarios
-            AdvancedFailureSimulator.FailureDecision noResponseDecision = 
-                failureSimulator.shouldSimulateFailure("no_response");
-            if (noResponseDecision.shouldFail()) {
-                System.out.println("Simulating no response: " + noResponseDecision.getReason());
-                Message response = new Message();
-                response.setSuccess(false);
-                response.setReason(noResponseDecision.getReason());
-                response.setCorrelationId(request.getCorrelationId());
-                response.setMessageId(request.getMessageId());
-                return gson.toJson(response);
-            }
-            
-            // Check for slow response simulation
-            AdvancedFailureSimulator.FailureDecision slowResponseDecision = 
-                failureSimulator.shouldSimulateFailure("slow_response");
-            if (slowResponseDecision.shouldFail()) {
-                System.out.println("Simulating slow response: " + slowResponseDecision.getReason());
-                try {
-                    Thread.sleep(slowResponseDecision.getDelayMs());
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                }
-            } else {
-                // Normal processing delay
-                try {
-                    Thread.sleep(Integer.parseInt(loadConfig().getProperty("seller.processing.delay.ms", "200")));
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                }
+            Message request = WireAdapter.fromWire(MessageCodec.decode(frame));
+            System.out.println(logPrefix + "Received binary request: " + request.getType() +
+                               " " + request.getMessageId());
+            response = handleRequest(request);
+        } catch (Exception e) {
+            System.err.println("Error processing binary request: " + e.getMessage());
+            response = createErrorResponse("Internal processing error: " + e.getMessage());
+        }
+        return MessageCodec.encode(WireAdapter.toWire(response, sellerId));
+    }
+    
+    private byte[] processJsonRequest(byte[] frame, String logPrefix) {
+        try {
+            Message request = MessageTypeAdapter.fromJsonBytes(frame);
+            System.out.println(logPrefix + "Received request: " + request.getType() + " " + request.getMessageId());
+            return MessageTypeAdapter.toJsonBytes(handleRequest(request));
+        } catch (Exception e) {
+            System.err.println("Error processing request: " + e.getMessage());
+            e.printStackTrace();
+            Message errorResponse = createErrorResponse("Internal processing error: " + e.getMessage());
+            return MessageTypeAdapter.toJsonBytes(errorResponse);
+        }
+    }
+    
+    /**
+     * Handles a decoded request. Encoding-independent, so JSON and binary frames share it.
+     * @param request The request
+     * @return The response
+     */
+    private Message handleRequest(Message request) {
+        // Handle heartbeat messages
+        if (request.getType() == Message.Type.HEARTBEAT) {
+            Message response = new Message();
+            response.setType(Message.Type.HEARTBEAT);
+            response.setSellerId(sellerId);
+            response.setSuccess(true);
+            response.setCorrelationId(request.getCorrelationId());
+            response.setMessageId(request.getMessageId());
+            return response;
+        }
+        
+        String messageId = request.getMessageId();
+        if (messageId == null) {
+            return processRequest(request);
+        }
+        
+        // Check for idempotency - a retry may reach another worker while the first attempt still runs,
+        // so wait for that attempt and return its cached result
+        CompletableFuture<Object> owner;
+        while ((owner = idempotencyManager.claim(messageId)) != null) {
+            Object result = owner.join();
+            if (result instanceof Message) {
+                System.out.println("Request " + messageId + " already processed, returning cached result");
+                return (Message) result;
             }
-            
-            // Check for processing failure
-            AdvancedFailureSimulator.FailureDecision processingFailureDecision = 
-                failureSimulator.shouldSimulateFailure("processing_failure");
-            if (processingFailureDecision.shouldFail()) {
-                System.out.println("Simulating processing failure: " + processingFailureDecision.getReason());
-                Message response = new Message();
-                response.setSuccess(false);
-                response.setReason(processingFailureDecision.getReason());
-                response.setCorrelationId(request.getCorrelationId());
-                response.setMessageId(request.getMessageId());
-                return gson.toJson(response);
+            // The other attempt ended without a result to share, so this one processes the request
+        }
+        try {
+            return processRequest(request);
+        } finally {
+            idempotencyManager.release(messageId);
+        }
+    }
+    
+    /**
+     * Processes a request this thread holds the idempotency claim for, or one without a message ID.
+     * @param request The request
+     * @return The response
+     */
+    private Message processRequest(Message request) {
+        Message expired = rejectIfExpired(request);
+        if (expired != null) {
+            return expired;
+        }
+
+        // Check for various failure scenarios
+        AdvancedFailureSimulator.FailureDecision noResponseDecision = 
+            failureSimulator.shouldSimulateFailure("no_response");
+        if (noResponseDecision.shouldFail()) {
+            System.out.println("Simulating no response: " + noResponseDecision.getReason());
+            Message response = new Message();
+            response.setSuccess(false);
+            response.setReason(noResponseDecision.getReason());
+            response.setCorrelationId(request.getCorrelationId());
+            response.setMessageId(request.getMessageId());
+            return response;
+        }
+        
+        // Check for slow response simulation
+        AdvancedFailureSimulator.FailureDecision slowResponseDecision = 
+            failureSimulator.shouldSimulateFailure("slow_response");
+        if (slowResponseDecision.shouldFail()) {
+            System.out.println("Simulating slow response: " + slowResponseDecision.getReason());
+            try {
+                Thread.sleep(slowResponseDecision.getDelayMs());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
-            
-            // Process based on message type
-            Message response = null;
-            
-            switch (request.getType()) {
-                case RESERVE:
-                    response = handleReserve(request);
-                    break;
-                case CONFIRM:
-                    response = handleConfirm(request);
-                    break;
-                case CANCEL:
-                    response = handleCancel(request);
-                    break;
-                default:
-                    response = createErrorResponse("Unknown message type");
-                    response.setCorrelationId(request.getCorrelationId());
-                    response.setMessageId(request.getMessageId());
+        } else {
+            // Normal processing delay
+            try {
+                Thread.sleep(config.get().getProcessingDelayMs());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
-            
-            // Ensure response has correlation info
-            if (response != null) {
+        }
+        
+        // Check for processing failure
+        AdvancedFailureSimulator.FailureDecision processingFailureDecision = 
+            failureSimulator.shouldSimulateFailure("processing_failure");
+        if (processingFailureDecision.shouldFail()) {
+            System.out.println("Simulating processing failure: " + processingFailureDecision.getReason());
+            Message response = new Message();
+            response.setSuccess(false);
+            response.setReason(processingFailureDecision.getReason());
+            response.setCorrelationId(request.getCorrelationId());
+            response.setMessageId(request.getMessageId());
+            return response;
+        }
+        
+        // The processing delay may have used up the rest of the deadline
+        expired = rejectIfExpired(request);
+        if (expired != null) {
+            return expired;
+        }
+        
+        // Process based on message type
+        Message response = null;
+        
+        switch (request.getType()) {
+            case RESERVE:
+                response = handleReserve(request);
+                break;
+            case RESERVE_BATCH:
+                response = handleReserveBatch(request);
+                break;
+            case CONFIRM:
+                response = handleConfirm(request);
+                break;
+            case CANCEL:
+                response = handleCancel(request);
+                break;
+            default:
+                response = createErrorResponse("Unknown message type");
                 response.setCorrelationId(request.getCorrelationId());
                 response.setMessageId(request.getMessageId());
-            }
-            
-            String responseJson = gson.toJson(response);
-            
-            // Cache the result for idempotency (only if message has an ID)
-            if (request.getMessageId() != null) {
-                idempotencyManager.markAsProcessed(request.getMessageId(), responseJson);
-            }
-            
-            // Report success to failure simulator for pattern learning
-            if (response != null && response.isSuccess()) {
-                failureSimulator.reportSuccess();
-            }
-            
-            return responseJson;
-            
-        } catch (Exception e) {
-            System.err.println("Error processing request: " + e.getMessage());
-            e.printStackTrace();
-            Message errorResponse = createErrorResponse("Internal processing error: " + e.getMessage());
-            return gson.toJson(errorResponse);
         }
+        
+        // Ensure response has correlation info
+        if (response != null) {
+            response.setCorrelationId(request.getCorrelationId());
+            response.setMessageId(request.getMessageId());
+        }
+        
+        // Cache the result for idempotency (only if message has an ID)
+        if (request.getMessageId() != null) {
+            idempotencyManager.markAsProcessed(request.getMessageId(), response);
+        }
+        
+        // Report success to failure simulator for pattern learning
+        if (response != null && response.isSuccess()) {
+            failureSimulator.reportSuccess();
+        }
+        
+        return response;
     }
     
     private Message handleReserve(Message request) {
@@ -264,6 +480,50 @@ public class SellerApp {
         return response;
     }
     
+    private Message handleReserveBatch(Message request) {
+        Message response = new Message();
+        response.setType(Message.Type.RESERVE_BATCH);
+        response.setOrderId(request.getOrderId());
+        response.setItems(request.getItems());
+        response.setSellerId(sellerId);
+        
+        if (request.getItems() == null || request.getItems().isEmpty()) {
+            response.setSuccess(false);
+            response.setReason("No items to reserve");
+            return response;
+        }
+        
+        // Check for out of stock simulation
+        AdvancedFailureSimulator.FailureDecision outOfStockDecision = 
+            failureSimulator.shouldSimulateFailure("out_of_stock");
+        if (outOfStockDecision.shouldFail()) {
+            System.out.println("Simulating out of stock: " + outOfStockDecision.getReason());
+            response.setSuccess(false);
+            response.setReason(outOfStockDecision.getReason());
+            return response;
+        }
+        
+        // Lines for the same product are merged into one
+        Map<String, Integer> items = new LinkedHashMap<>();
+        for (Message.Item item : request.getItems()) {
+            items.merge(item.getProductId(), item.getQuantity(), Integer::sum);
+        }
+        
+        String groupId = inventory.reserveAll(items);
+        
+        if (groupId != null) {
+            response.setSuccess(true);
+            response.setReservationId(groupId);
+            System.out.println("Reserved " + items.size() + " products (ID: " + groupId + ")");
+        } else {
+            response.setSuccess(false);
+            response.setReason("Insufficient stock");
+            System.out.println("Batch reservation failed: Insufficient stock");
+        }
+        
+        return response;
+    }
+    
     private Message handleConfirm(Message request) {
         Message response = new Message();
         response.setType(Message.Type.CONFIRM);
@@ -275,7 +535,9 @@ public class SellerApp {
         if (confirmed) {
             System.out.println("Confirmed reservation: " + request.getReservationId());
         } else {
-            response.setReason("Reservation not found or already confirmed");
+            // A repeated CONFIRM after a marketplace restart gets "already confirmed", which it counts as done
+            String reason = inventory.getFailureReason(request.getReservationId());
+            response.setReason(reason != null ? reason : "Reservation could not be confirmed");
             System.out.println("Confirmation failed: " + response.getReason());
         }
         
@@ -293,13 +555,36 @@ public class SellerApp {
         if (cancelled) {
             System.out.println("Cancelled reservation: " + request.getReservationId());
         } else {
-            response.setReason("Reservation not found or already cancelled/confirmed");
+            // Tells the marketplace whether retrying the cancel can still help
+            String reason = inventory.getFailureReason(request.getReservationId());
+            response.setReason(reason != null ? reason : "Reservation could not be cancelled");
             System.out.println("Cancellation failed: " + response.getReason());
         }
         
         return response;
     }
     
+    /**
+     * Answers a request whose deadline has passed without touching the inventory, since the
+     * marketplace no longer waits for the reply. Not cached, so nothing is remembered for it.
+     * @param request The request
+     * @return The failure response, or null if the request is still wanted
+     */
+    private Message rejectIfExpired(Message request) {
+        long deadline = request.getDeadline();
+        long now = System.currentTimeMillis();
+        if (deadline <= 0 || now < deadline) {
+            return null;
+        }
+        long count = expiredRequests.incrementAndGet();
+        System.out.println("Discarding " + request.getType() + " " + request.getMessageId() + ": deadline passed " +
+                           (now - deadline) + "ms ago (" + count + " discarded so far)");
+        Message response = createErrorResponse("Deadline exceeded");
+        response.setCorrelationId(request.getCorrelationId());
+        response.setMessageId(request.getMessageId());
+        return response;
+    }
+    
     private Message createErrorResponse(String reason) {
         Message response = new Message();
         response.setSuccess(false);
@@ -307,23 +592,9 @@ public class SellerApp {
         return response;
     }
     
-    private Properties loadConfig() {
-        Properties props = new Properties();
-        try (InputStream is = new FileInputStream(CONFIG_FILE)) {
-            props.load(is);
-        } catch (IOException e) {
-            System.err.println("Could not load config, using defaults: " + e.getMessage());
-            // Defaults
-            props.setProperty("seller.inventory.size", "100");
-            props.setProperty("seller.processing.delay.ms", "200");
-            props.setProperty("failure.no.response", "0.05");
-            props.setProperty("failure.processing", "0.10");
-        }
-        return props;
-    }
-    
     public void shutdown() {
         running = false;
+        config.close();
         if (idempotencyManager != null) {
             idempotencyManager.shutdown();
         }
@@ -0,0 +1,156 @@
+package seller;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Immutable, typed snapshot of the seller configuration.
+ * Built once per load of config.properties so the request path reads plain fields instead of parsing
+ * strings. Values that are only used at startup (inventory, persistence) stay available through
+ * {@link #toProperties()}.
+ */
+public final class SellerConfig {
+    private final Properties properties;
+    private final int processingThreads;
+    private final long processingDelayMs;
+    private final boolean binaryCodecEnabled;
+    private final Map<String, Double> failureProbabilities;
+    
+    // Failure pattern settings
+    private final double cascadingMultiplier;
+    private final int cascadingMaxConsecutive;
+    private final long periodicIntervalMs;
+    private final long periodicDurationMs;
+    private final double burstProbability;
+    private final long burstDurationMs;
+    private final double recoveryImprovementFactor;
+    private final int recoverySuccessThreshold;
+    
+    private SellerConfig(Properties config) {
+        this.properties = new Properties();
+        this.properties.putAll(config);
+        
+        this.processingThreads = Math.max(1, Integer.parseInt(config.getProperty("seller.processing.threads", "1")));
+        this.processingDelayMs = nonNegative("seller.processing.delay.ms",
+            Long.parseLong(config.getProperty("seller.processing.delay.ms", "200")));
+        this.binaryCodecEnabled = Boolean.parseBoolean(config.getProperty("seller.codec.binary.enabled", "true"));
+        
+        Map<String, Double> probabilities = new HashMap<>();
+        probabilities.put("no_response", probability(config, "failure.no.response", "0.05"));
+        probabilities.put("processing_failure", probability(config, "failure.processing", "0.10"));
+        probabilities.put("out_of_stock", probability(config, "failure.out.of.stock", "0.15"));
+        probabilities.put("network_partition", probability(config, "failure.network.partition", "0.02"));
+        probabilities.put("slow_response", probability(config, "failure.slow.response", "0.20"));
+        probabilities.put("corruption", probability(config, "failure.corruption", "0.01"));
+        this.failureProbabilities = Collections.unmodifiableMap(probabilities);
+        
+        this.cascadingMultiplier = Double.parseDouble(config.getProperty("pattern.cascading.multiplier", "2.0"));
+        this.cascadingMaxConsecutive = Integer.parseInt(config.getProperty("pattern.cascading.max.consecutive", "5"));
+        this.periodicIntervalMs = Long.parseLong(config.getProperty("pattern.periodic.interval.ms", "3600000"));
+        this.periodicDurationMs = Long.parseLong(config.getProperty("pattern.periodic.duration.ms", "300000"));
+        this.burstProbability = probability(config, "pattern.burst.probability", "0.8");
+        this.burstDurationMs = Long.parseLong(config.getProperty("pattern.burst.duration.ms", "30000"));
+        this.recoveryImprovementFactor = Double.parseDouble(config.getProperty("pattern.recovery.improvement.factor", "0.9"));
+        this.recoverySuccessThreshold = Integer.parseInt(config.getProperty("pattern.recovery.success.threshold", "10"));
+        
+        if (periodicIntervalMs <= 0) {
+            throw new IllegalArgumentException("pattern.periodic.interval.ms must be positive: " + periodicIntervalMs);
+        }
+    }
+    
+    /**
+     * Parses a snapshot from configuration properties.
+     * @param config Configuration properties
+     * @return The snapshot
+     * @throws IllegalArgumentException if a value is malformed or out of range
+     */
+    public static SellerConfig fromProperties(Properties config) {
+        return new SellerConfig(config);
+    }
+    
+    /**
+     * Gets the defaults used when config.properties cannot be read.
+     * @return Default properties
+     */
+    public static Properties defaults() {
+        Properties props = new Properties();
+        props.setProperty("seller.inventory.size", "100");
+        props.setProperty("seller.processing.delay.ms", "200");
+        props.setProperty("failure.no.response", "0.05");
+        props.setProperty("failure.processing", "0.10");
+        return props;
+    }
+    
+    private static double probability(Properties config, String key, String defaultValue) {
+        double value = Double.parseDouble(config.getProperty(key, defaultValue));
+        if (value < 0.0 || value > 1.0) {
+            throw new IllegalArgumentException(key + " must be between 0.0 and 1.0: " + value);
+        }
+        return value;
+    }
+    
+    private static long nonNegative(String key, long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException(key + " must not be negative: " + value);
+        }
+        return value;
+    }
+    
+    /**
+     * Gets a copy of the raw properties this snapshot was built from.
+     * @return Configuration properties
+     */
+    public Properties toProperties() {
+        Properties copy = new Properties();
+        copy.putAll(properties);
+        return copy;
+    }
+    
+    public int getProcessingThreads() { return processingThreads; }
+    public long getProcessingDelayMs() { return processingDelayMs; }
+    public boolean isBinaryCodecEnabled() { return binaryCodecEnabled; }
+    
+    /**
+     * Gets the base failure probability of an operation type.
+     * @param operationType The type of operation (e.g., "no_response", "processing_failure")
+     * @return Probability between 0.0 and 1.0, 0.0 for unknown types
+     */
+    public double getFailureProbability(String operationType) {
+        return failureProbabilities.getOrDefault(operationType, 0.0);
+    }
+    
+    public Map<String, Double> getFailureProbabilities() { return failureProbabilities; }
+    
+    public double getCascadingMultiplier() { return cascadingMultiplier; }
+    public int getCascadingMaxConsecutive() { return cascadingMaxConsecutive; }
+    public long getPeriodicIntervalMs() { return periodicIntervalMs; }
+    public long getPeriodicDurationMs() { return periodicDurationMs; }
+    public double getBurstProbability() { return burstProbability; }
+    public long getBurstDurationMs() { return burstDurationMs; }
+    public double getRecoveryImprovementFactor() { return recoveryImprovementFactor; }
+    public int getRecoverySuccessThreshold() { return recoverySuccessThreshold; }
+    
+    /**
+     * Checks whether two snapshots configure the same failure patterns.
+     * @param other The other snapshot
+     * @return true if all pattern settings are equal
+     */
+    public boolean samePatterns(SellerConfig other) {
+        return cascadingMultiplier == other.cascadingMultiplier &&
+               cascadingMaxConsecutive == other.cascadingMaxConsecutive &&
+               periodicIntervalMs == other.periodicIntervalMs &&
+               periodicDurationMs == other.periodicDurationMs &&
+               burstProbability == other.burstProbability &&
+               burstDurationMs == other.burstDurationMs &&
+               recoveryImprovementFactor == other.recoveryImprovementFactor &&
+               recoverySuccessThreshold == other.recoverySuccessThreshold;
+    }
+    
+    @Override
+    public String toString() {
+        return "SellerConfig{processingDelayMs=" + processingDelayMs + ", processingThreads=" + processingThreads +
+               ", failureProbabilities=" + failureProbabilities + "}";
+    }
+}
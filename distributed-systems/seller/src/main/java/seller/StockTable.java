@@ -0,0 +1,332 @@
+package seller;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Stock counters for large product catalogs.
+ * Every SKU is interned to a dense numeric id. The id indexes an {@link AtomicIntegerArray} holding
+ * the available quantity, and an open-addressing table with linear probing maps SKU bytes to ids.
+ * SKUs are stored back to back in a single UTF-8 byte arena, so a catalog entry costs a few dozen
+ * bytes instead of a String, an AtomicInteger and a map node.
+ *
+ * SKUs are added while the table is built (catalog load, recovery) before the table is shared.
+ * After that, lookups and stock updates are lock-free and may be called from any thread.
+ *
+ * The live table stays on the heap. Durability comes from {@link InventoryJournal}, which maps the
+ * table into a checkpoint file at a known log position. A mapped live table would reach disk
+ * whenever the OS wrote its pages back, at no particular log position, so restart would still
+ * need a checkpoint and the log.
+ */
+public class StockTable {
+    public static final int NOT_FOUND = -1;
+    
+    private static final int MIN_CAPACITY = 16;
+    private static final float MAX_LOAD = 0.6f;
+    private static final int HASH_SEED = 0x811C9DC5;
+    
+    // Open-addressing slots holding (hash << 32) | (id + 1); 0 marks an empty slot. Keeping the hash
+    // next to the id lets a probe reject other keys without touching the arena
+    private long[] slots;
+    // Key of id i is arena[keyOffsets[i] .. keyOffsets[i + 1])
+    private int[] keyOffsets;
+    private byte[] arena;
+    private int arenaSize = 0;
+    private AtomicIntegerArray quantities;
+    private int size = 0;
+    
+    /**
+     * Creates a stock table.
+     * @param expectedSkus Number of SKUs to size the table for; it grows beyond that if needed
+     */
+    public StockTable(int expectedSkus) {
+        int ids = Math.max(MIN_CAPACITY, expectedSkus);
+        this.slots = new long[slotCapacityFor(ids)];
+        this.keyOffsets = new int[ids + 1];
+        this.arena = new byte[ids * 8];
+        this.quantities = new AtomicIntegerArray(ids);
+    }
+    
+    /**
+     * Adds a SKU or overwrites the quantity of an existing one. Not thread-safe; only call while
+     * building the table.
+     * @param sku The SKU
+     * @param quantity Available quantity
+     * @return The SKU's id
+     */
+    public int put(String sku, int quantity) {
+        byte[] key = sku.getBytes(StandardCharsets.UTF_8);
+        return put(key, 0, key.length, quantity);
+    }
+    
+    /**
+     * Adds a SKU given as UTF-8 bytes or overwrites the quantity of an existing one. Not thread-safe;
+     * only call while building the table.
+     * @param utf8 Buffer holding the SKU
+     * @param offset Start of the SKU in the buffer
+     * @param length Length of the SKU in bytes
+     * @param quantity Available quantity
+     * @return The SKU's id
+     */
+    public int put(byte[] utf8, int offset, int length, int quantity) {
+        int hash = hashBytes(utf8, offset, length);
+        int existing = indexOf(utf8, offset, length, hash);
+        if (existing != NOT_FOUND) {
+            quantities.set(existing, quantity);
+            return existing;
+        }
+        
+        int id = size;
+        ensureIdCapacity(id + 1);
+        ensureArenaCapacity(length);
+        System.arraycopy(utf8, offset, arena, arenaSize, length);
+        arenaSize += length;
+        keyOffsets[id + 1] = arenaSize;
+        quantities.set(id, quantity);
+        size++;
+        
+        if (size > slots.length * MAX_LOAD) {
+            rehash(slots.length * 2);
+        }
+        insertSlot(slotEntry(hash, id));
+        return id;
+    }
+    
+    /**
+     * Looks up a SKU's id without allocating for ASCII SKUs.
+     * @param sku The SKU
+     * @return The id or NOT_FOUND
+     */
+    public int indexOf(String sku) {
+        int length = sku.length();
+        int hash = HASH_SEED;
+        for (int i = 0; i < length; i++) {
+            char c = sku.charAt(i);
+            if (c >= 0x80) {
+                // Non-ASCII: chars and UTF-8 bytes differ, compare on the encoded form
+                byte[] key = sku.getBytes(StandardCharsets.UTF_8);
+                return indexOf(key, 0, key.length, hashBytes(key, 0, key.length));
+            }
+            hash = mixByte(hash, (byte) c);
+        }
+        hash = finish(hash);
+        
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            long entry = slots[slot];
+            if (entry == 0) {
+                return NOT_FOUND;
+            }
+            int id = (int) entry - 1;
+            if ((int) (entry >>> 32) == hash && asciiKeyEquals(id, sku)) {
+                return id;
+            }
+        }
+    }
+    
+    private int indexOf(byte[] utf8, int offset, int length, int hash) {
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            long entry = slots[slot];
+            if (entry == 0) {
+                return NOT_FOUND;
+            }
+            int id = (int) entry - 1;
+            if ((int) (entry >>> 32) == hash && keyEquals(id, utf8, offset, length)) {
+                return id;
+            }
+        }
+    }
+    
+    /**
+     * Gets the available quantity of a SKU.
+     * @param id The SKU's id
+     * @return Available quantity
+     */
+    public int get(int id) {
+        return quantities.get(id);
+    }
+    
+    /**
+     * Adds to (or, with a negative delta, removes from) a SKU's stock unconditionally.
+     * @param id The SKU's id
+     * @param delta Quantity to add
+     * @return The new quantity
+     */
+    public int addAndGet(int id, int delta) {
+        return quantities.addAndGet(id, delta);
+    }
+    
+    /**
+     * Atomically removes quantity from a SKU's stock without ever going below zero.
+     * @param id The SKU's id
+     * @param quantity Quantity to remove
+     * @return The remaining stock, or -1 if there was not enough
+     */
+    public int tryTake(int id, int quantity) {
+        while (true) {
+            int current = quantities.get(id);
+            if (current < quantity) {
+                return -1;
+            }
+            if (quantities.compareAndSet(id, current, current - quantity)) {
+                return current - quantity;
+            }
+        }
+    }
+    
+    /**
+     * Gets the number of SKUs.
+     * @return SKU count
+     */
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * Gets the SKU for an id.
+     * @param id The SKU's id
+     * @return The SKU
+     */
+    public String skuAt(int id) {
+        return new String(arena, keyOffsets[id], keyLength(id), StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Gets the UTF-8 length of a SKU.
+     * @param id The SKU's id
+     * @return Length in bytes
+     */
+    public int keyLength(int id) {
+        return keyOffsets[id + 1] - keyOffsets[id];
+    }
+    
+    /**
+     * Writes a SKU's UTF-8 bytes to a buffer.
+     * @param id The SKU's id
+     * @param out Destination buffer
+     */
+    public void copyKey(int id, ByteBuffer out) {
+        out.put(arena, keyOffsets[id], keyLength(id));
+    }
+    
+    /**
+     * Copies the quantities of the first count SKUs.
+     * @param count Number of SKUs to copy
+     * @return Quantities indexed by id
+     */
+    public int[] snapshotQuantities(int count) {
+        int[] snapshot = new int[count];
+        for (int id = 0; id < count; id++) {
+            snapshot[id] = quantities.get(id);
+        }
+        return snapshot;
+    }
+    
+    /**
+     * Estimates the bytes held by the table's arrays.
+     * @return Approximate footprint in bytes
+     */
+    public long getFootprintBytes() {
+        return (long) slots.length * Long.BYTES + (long) keyOffsets.length * Integer.BYTES + arena.length +
+               (long) quantities.length() * Integer.BYTES;
+    }
+    
+    private boolean keyEquals(int id, byte[] utf8, int offset, int length) {
+        int start = keyOffsets[id];
+        return keyOffsets[id + 1] - start == length &&
+               Arrays.equals(arena, start, start + length, utf8, offset, offset + length);
+    }
+    
+    private boolean asciiKeyEquals(int id, String sku) {
+        int start = keyOffsets[id];
+        int length = sku.length();
+        if (keyOffsets[id + 1] - start != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (arena[start + i] != (byte) sku.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static long slotEntry(int hash, int id) {
+        return ((long) hash << 32) | (id + 1);
+    }
+    
+    private void insertSlot(long entry) {
+        int mask = slots.length - 1;
+        int slot = (int) (entry >>> 32) & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = entry;
+    }
+    
+    private void rehash(int capacity) {
+        long[] previous = slots;
+        slots = new long[capacity];
+        for (long entry : previous) {
+            if (entry != 0) {
+                insertSlot(entry);
+            }
+        }
+    }
+    
+    private void ensureIdCapacity(int ids) {
+        if (ids < keyOffsets.length) {
+            return;
+        }
+        int capacity = Math.max(ids, (keyOffsets.length - 1) * 2);
+        keyOffsets = Arrays.copyOf(keyOffsets, capacity + 1);
+        AtomicIntegerArray larger = new AtomicIntegerArray(capacity);
+        for (int id = 0; id < size; id++) {
+            larger.set(id, quantities.get(id));
+        }
+        quantities = larger;
+    }
+    
+    private void ensureArenaCapacity(int length) {
+        long required = (long) arenaSize + length;
+        if (required <= arena.length) {
+            return;
+        }
+        if (required > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("SKU arena exceeds 2GB after " + size + " SKUs");
+        }
+        arena = Arrays.copyOf(arena, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(required, (long) arena.length * 2)));
+    }
+    
+    private static int slotCapacityFor(int ids) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * MAX_LOAD < ids) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+    
+    // FNV-1a over the UTF-8 bytes, finished with a murmur3 mix so linear probing spreads well
+    private static int mixByte(int hash, byte b) {
+        return (hash ^ (b & 0xFF)) * 0x01000193;
+    }
+    
+    private static int finish(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        hash *= 0xC2B2AE35;
+        return hash ^ (hash >>> 16);
+    }
+    
+    private static int hashBytes(byte[] utf8, int offset, int length) {
+        int hash = HASH_SEED;
+        for (int i = offset; i < offset + length; i++) {
+            hash = mixByte(hash, utf8[i]);
+        }
+        return finish(hash);
+    }
+}
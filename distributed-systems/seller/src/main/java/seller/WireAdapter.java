@@ -0,0 +1,102 @@
+package seller;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Converts between the marketplace's {@link common.Message} (type plus a string data map) and the
+ * seller's own {@link Message}. Used for binary frames, which carry a common.Message.
+ */
+public class WireAdapter {
+    
+    private WireAdapter() {
+    }
+    
+    /**
+     * Converts a marketplace request into a seller request.
+     * @param wire The decoded marketplace message
+     * @return The seller request; its type is null if the marketplace type is unknown
+     * @throws NumberFormatException if a quantity is not a number
+     */
+    public static Message fromWire(common.Message wire) {
+        Message request = new Message();
+        request.setMessageId(wire.getMessageId());
+        request.setCorrelationId(wire.getCorrelationId());
+        request.setTimestamp(wire.getTimestamp());
+        request.setDeadline(wire.getDeadline());
+        request.setType(parseType(wire.getType()));
+        
+        Map<String, String> data = wire.getData();
+        if (data != null) {
+            request.setProductId(data.get("productId"));
+            request.setOrderId(data.get("orderId"));
+            request.setReservationId(data.get("reservationId"));
+            String quantity = data.get("quantity");
+            if (quantity != null) {
+                request.setQuantity(Integer.parseInt(quantity));
+            }
+            String items = data.get("items");
+            if (items != null) {
+                request.setItems(parseItems(items));
+            }
+        }
+        return request;
+    }
+    
+    /**
+     * Converts a seller response into the marketplace format: type SUCCESS or FAILURE (HEARTBEAT for
+     * heartbeats) with the reservation ID and the failure reason as "error" in the data map.
+     * @param response The seller response
+     * @param sellerId This seller's ID
+     * @return The marketplace message
+     */
+    public static common.Message toWire(Message response, String sellerId) {
+        String type;
+        if (response.getType() == Message.Type.HEARTBEAT) {
+            type = "HEARTBEAT";
+        } else {
+            type = response.isSuccess() ? "SUCCESS" : "FAILURE";
+        }
+        
+        Map<String, String> data = new HashMap<>();
+        data.put("sellerId", sellerId);
+        if (response.getReservationId() != null) {
+            data.put("reservationId", response.getReservationId());
+        }
+        if (response.getReason() != null) {
+            data.put("error", response.getReason());
+        }
+        
+        common.Message wire = new common.Message(type, data, response.getCorrelationId());
+        wire.setMessageId(response.getMessageId());
+        wire.setTimestamp(response.getTimestamp());
+        wire.setSenderId(sellerId);
+        return wire;
+    }
+    
+    private static Message.Type parseType(String type) {
+        if (type == null) {
+            return null;
+        }
+        try {
+            return Message.Type.valueOf(type);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+    
+    // "productId:quantity" lines separated by commas, as sent for RESERVE_BATCH
+    private static List<Message.Item> parseItems(String encoded) {
+        List<Message.Item> items = new ArrayList<>();
+        for (String line : encoded.split(",")) {
+            int colon = line.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Malformed item: " + line);
+            }
+            items.add(new Message.Item(line.substring(0, colon), Integer.parseInt(line.substring(colon + 1))));
+        }
+        return items;
+    }
+}